@@ -0,0 +1,56 @@
+package com.gamesofts.osstimeagent.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the whole suite the same way every time, all with the GC profiler (allocation rate and bytes per op)
+// and JSON results: the per-request benchmarks once per thread count, the updater groups once, then the
+// class-loading/patching benchmarks single-threaded. With -Dagent.jar=<oss-time-agent.jar> the class-loading
+// baseline is repeated with the agent attached to the forked JVM.
+//   java [-Dagent.jar=...] -jar target/benchmarks.jar [threadCounts, default 1,2,4,8] [result file]
+// Plain JMH options still work through org.openjdk.jmh.Main, e.g.
+//   java -cp target/benchmarks.jar org.openjdk.jmh.Main ClockBenchmark -t 4 -prof gc
+public class BenchMain {
+    public static void main(String[] args) throws Exception {
+        String[] threadCounts = (args.length > 0 ? args[0] : "1,2,4,8").split(",");
+        String resultFile = args.length > 1 ? args[1] : "jmh-result.json";
+
+        int i;
+        for (i = 0; i < threadCounts.length; i++) {
+            int threads = Integer.parseInt(threadCounts[i].trim());
+            new Runner(base(resultFile, "-t" + threads)
+                    .include(ClockBenchmark.class.getName())
+                    .include("com.gamesofts.osstimeagent.bridge.BridgeBenchmark")
+                    .threads(threads)
+                    .build()).run();
+        }
+        new Runner(base(resultFile, "-update")
+                .include(ClockUpdateBenchmark.class.getName())
+                .build()).run();
+        new Runner(base(resultFile, "-startup")
+                .include(PatcherBenchmark.class.getName())
+                .include(TransformerBenchmark.class.getName())
+                .include(ClassLoadingBenchmark.class.getName())
+                .build()).run();
+
+        String agentJar = System.getProperty("agent.jar");
+        if (agentJar != null) {
+            new Runner(base(resultFile, "-attached")
+                    .include(ClassLoadingBenchmark.class.getName() + ".baseline")
+                    // jvmArgsAppend replaces, it does not add to, the heap flags set in base().
+                    .jvmArgsAppend("-Xms512m", "-Xmx512m", "-javaagent:" + agentJar)
+                    .build()).run();
+        }
+    }
+
+    private static ChainedOptionsBuilder base(String resultFile, String suffix) {
+        return new OptionsBuilder()
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile.replace(".json", suffix + ".json"))
+                .jvmArgsAppend("-Xms512m", "-Xmx512m");
+    }
+}
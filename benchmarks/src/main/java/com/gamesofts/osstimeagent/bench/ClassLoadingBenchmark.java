@@ -0,0 +1,109 @@
+package com.gamesofts.osstimeagent.bench;
+
+import com.gamesofts.osstimeagent.instrument.OssSdkTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Defines CLASS_COUNT generated classes in a fresh loader per invocation, directly (baseline) or after passing
+// each through OssSdkTransformer the way the JVM does for an attached agent. BenchMain also reruns `baseline`
+// with -javaagent on the forked JVM when -Dagent.jar=<path> is given, which adds the JVMTI hook cost.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(2)
+public class ClassLoadingBenchmark {
+    static final int CLASS_COUNT = 10000;
+
+    private String[] names;
+    private byte[][] classes;
+    private OssSdkTransformer transformer;
+
+    @Setup
+    public void setUp() throws IOException {
+        names = new String[CLASS_COUNT];
+        classes = new byte[CLASS_COUNT][];
+        int i;
+        for (i = 0; i < CLASS_COUNT; i++) {
+            names[i] = "com/example/generated/p" + (i % 100) + "/Generated" + i;
+            classes[i] = emptyClass(names[i]);
+        }
+        transformer = new OssSdkTransformer();
+    }
+
+    @Benchmark
+    public int baseline() {
+        return new GeneratedLoader(null).defineAll(names, classes);
+    }
+
+    @Benchmark
+    public int throughTransformer() {
+        return new GeneratedLoader(transformer).defineAll(names, classes);
+    }
+
+    // Smallest valid class file: public class <name> extends Object, no members, version 50 like the SDK.
+    static byte[] emptyClass(String internalName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + internalName.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(50);
+        out.writeShort(5);
+        out.writeByte(1);
+        out.writeUTF(internalName);
+        out.writeByte(7);
+        out.writeShort(1);
+        out.writeByte(1);
+        out.writeUTF("java/lang/Object");
+        out.writeByte(7);
+        out.writeShort(3);
+        out.writeShort(0x0021);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static final class GeneratedLoader extends ClassLoader {
+        private final OssSdkTransformer transformer;
+
+        GeneratedLoader(OssSdkTransformer transformer) {
+            super(GeneratedLoader.class.getClassLoader());
+            this.transformer = transformer;
+        }
+
+        int defineAll(String[] names, byte[][] classes) {
+            int defined = 0;
+            int i;
+            for (i = 0; i < names.length; i++) {
+                byte[] b = classes[i];
+                if (transformer != null) {
+                    byte[] t = transformer.transform(this, names[i], null, null, b);
+                    if (t != null) {
+                        b = t;
+                    }
+                }
+                defined += defineClass(names[i].replace('/', '.'), b, 0, b.length) != null ? 1 : 0;
+            }
+            return defined;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.gamesofts.osstimeagent.bench;
+
+import com.gamesofts.osstimeagent.time.RealTimeClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Uncontended read paths of RealTimeClock against the System.currentTimeMillis baseline. BenchMain runs this
+// class at several thread counts; all threads share one clock, as request threads do in the agent.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ClockBenchmark {
+    private RealTimeClock clock;
+
+    @Setup
+    public void setUp() {
+        clock = new RealTimeClock();
+        // Synced state: the agent clock runs a few seconds ahead of the local one.
+        clock.updateBaseTimeAuthoritative(System.currentTimeMillis() + 5000L);
+    }
+
+    @Benchmark
+    public long baselineSystemCurrentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long currentTickOffsetMillis() {
+        return clock.currentTickOffsetMillis();
+    }
+}
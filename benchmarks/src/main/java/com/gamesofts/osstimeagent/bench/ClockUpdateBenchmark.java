@@ -0,0 +1,85 @@
+package com.gamesofts.osstimeagent.bench;
+
+import com.gamesofts.osstimeagent.time.RealTimeClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Readers racing a thread that keeps re-basing the clock, the worst case of a sync landing while requests sign.
+// Each group is 3 readers + 1 updater; the baseline group pays the same updater traffic on its core but reads
+// System.currentTimeMillis, so the difference is what the updates cost the readers.
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ClockUpdateBenchmark {
+    private RealTimeClock clock;
+    private long step;
+
+    @Setup
+    public void setUp() {
+        clock = new RealTimeClock();
+        clock.updateBaseTimeAuthoritative(System.currentTimeMillis() + 5000L);
+    }
+
+    // Alternates a few ms forward and back so both the advance and the held-back paths are exercised.
+    private void update() {
+        step ^= 1L;
+        clock.updateBaseTime(System.currentTimeMillis() + 5000L + (step == 0L ? -3L : 3L));
+    }
+
+    @Benchmark
+    @Group("baseline")
+    @GroupThreads(3)
+    public long baselineRead() {
+        return System.currentTimeMillis();
+    }
+
+    @Benchmark
+    @Group("baseline")
+    @GroupThreads(1)
+    public void baselineUpdate() {
+        update();
+    }
+
+    @Benchmark
+    @Group("currentTimeMillis")
+    @GroupThreads(3)
+    public long currentTimeMillisRead() {
+        return clock.currentTimeMillis();
+    }
+
+    @Benchmark
+    @Group("currentTimeMillis")
+    @GroupThreads(1)
+    public void currentTimeMillisUpdate() {
+        update();
+    }
+
+    @Benchmark
+    @Group("currentTickOffsetMillis")
+    @GroupThreads(3)
+    public long currentTickOffsetMillisRead() {
+        return clock.currentTickOffsetMillis();
+    }
+
+    @Benchmark
+    @Group("currentTickOffsetMillis")
+    @GroupThreads(1)
+    public void currentTickOffsetMillisUpdate() {
+        update();
+    }
+}
@@ -0,0 +1,51 @@
+package com.gamesofts.osstimeagent.bench;
+
+import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Full ASM patch of each target class, per SDK version. Warmed-up numbers; the very first patch in a fresh JVM
+// also pays ASM class loading and is what ClassLoadingBenchmark and the patch prewarm are about.
+// Keep sdkVersion in sync with the oss-compat-* profiles of the agent pom and the copy list in benchmarks/pom.xml.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PatcherBenchmark {
+    @Param({ "3.8.1", "3.11.3", "3.15.1", "3.18.5" })
+    public String sdkVersion;
+
+    @Param({ "OSSOperation", "ServiceClient", "ClientConfiguration" })
+    public String target;
+
+    private String className;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        className = SdkClassBytes.internalName(target);
+        bytes = SdkClassBytes.read(sdkVersion, className);
+        OssAsmPatcher.PatchStats stats = new OssAsmPatcher.PatchStats();
+        if (OssAsmPatcher.patch(className, bytes, stats) == null) {
+            throw new IllegalStateException(target + " " + sdkVersion + " not patched: " + stats);
+        }
+    }
+
+    @Benchmark
+    public byte[] patch() {
+        return OssAsmPatcher.patch(className, bytes, new OssAsmPatcher.PatchStats());
+    }
+}
@@ -0,0 +1,61 @@
+package com.gamesofts.osstimeagent.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+// Reads class files out of the SDK jars the pom copies to target/oss-sdk (one per oss-compat-* profile of the
+// agent build). Override the directory with -Doss.sdk.dir when running the jar from elsewhere.
+final class SdkClassBytes {
+    static final String OSS_OPERATION = "com/aliyun/oss/internal/OSSOperation";
+    static final String SERVICE_CLIENT = "com/aliyun/oss/common/comm/ServiceClient";
+    static final String CLIENT_CONFIGURATION = "com/aliyun/oss/ClientConfiguration";
+
+    private SdkClassBytes() {
+    }
+
+    static byte[] read(String sdkVersion, String internalName) throws IOException {
+        File dir = new File(System.getProperty("oss.sdk.dir", "target/oss-sdk"));
+        File jar = new File(dir, "aliyun-sdk-oss-" + sdkVersion + ".jar");
+        if (!jar.isFile()) {
+            throw new IOException("missing " + jar.getAbsolutePath() + " (run mvn package in benchmarks/)");
+        }
+        JarFile jf = new JarFile(jar);
+        try {
+            ZipEntry e = jf.getEntry(internalName + ".class");
+            if (e == null) {
+                throw new IOException(internalName + " not found in " + jar);
+            }
+            InputStream in = jf.getInputStream(e);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        } finally {
+            jf.close();
+        }
+    }
+
+    static String internalName(String simpleName) {
+        if ("OSSOperation".equals(simpleName)) {
+            return OSS_OPERATION;
+        }
+        if ("ServiceClient".equals(simpleName)) {
+            return SERVICE_CLIENT;
+        }
+        if ("ClientConfiguration".equals(simpleName)) {
+            return CLIENT_CONFIGURATION;
+        }
+        throw new IllegalArgumentException(simpleName);
+    }
+}
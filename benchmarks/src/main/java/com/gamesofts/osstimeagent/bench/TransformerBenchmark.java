@@ -0,0 +1,68 @@
+package com.gamesofts.osstimeagent.bench;
+
+import com.gamesofts.osstimeagent.instrument.OssSdkTransformer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// OssSdkTransformer.transform as the JVM calls it: rejectNonTarget is the cost every loaded class pays,
+// the other two only ever apply to the three SDK classes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TransformerBenchmark {
+    private static final String[] NON_TARGET_NAMES = new String[] {
+            "java/util/concurrent/ConcurrentHashMap", "org/springframework/context/support/AbstractApplicationContext",
+            "com/aliyun/oss/OSSClient", "com/aliyun/oss/common/comm/DefaultServiceClient",
+            "com/fasterxml/jackson/databind/ObjectMapper", "com/example/app/Main$1"
+    };
+
+    private OssSdkTransformer transformer;
+    private OssSdkTransformer disabled;
+    private ClassLoader loader;
+    private byte[] nonTargetBytes;
+    private byte[] serviceClientBytes;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        transformer = new OssSdkTransformer();
+        disabled = new OssSdkTransformer();
+        disabled.setEnabled(false);
+        loader = TransformerBenchmark.class.getClassLoader();
+        nonTargetBytes = new byte[2048];
+        serviceClientBytes = SdkClassBytes.read("3.18.5", SdkClassBytes.SERVICE_CLIENT);
+        // Populates the patch cache, so the target benchmark below measures the cache-hit path.
+        if (transformer.transform(loader, SdkClassBytes.SERVICE_CLIENT, null, null, serviceClientBytes) == null) {
+            throw new IllegalStateException("ServiceClient not patched");
+        }
+    }
+
+    @Benchmark
+    public byte[] rejectNonTarget() {
+        String name = NON_TARGET_NAMES[next++ % NON_TARGET_NAMES.length];
+        return transformer.transform(loader, name, null, null, nonTargetBytes);
+    }
+
+    @Benchmark
+    public byte[] rejectTargetWhenDisabled() {
+        return disabled.transform(loader, SdkClassBytes.SERVICE_CLIENT, null, null, serviceClientBytes);
+    }
+
+    @Benchmark
+    public byte[] targetCacheHit() {
+        return transformer.transform(loader, SdkClassBytes.SERVICE_CLIENT, null, null, serviceClientBytes);
+    }
+}
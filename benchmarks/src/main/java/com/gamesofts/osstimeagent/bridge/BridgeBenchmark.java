@@ -0,0 +1,97 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import com.gamesofts.osstimeagent.time.OssEndpointTimeSync;
+import com.gamesofts.osstimeagent.time.RealTimeClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+// Bridge hooks the patched SDK calls on every request, measured after a successful pre-sync (the steady state
+// of a running application). Lives in the bridge package to install a fake syncer instead of probing a real
+// endpoint. perRequest is one sign's worth of agent work: beforeInitialSign plus the tick offset lookup.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BridgeBenchmark {
+    private RequestMessage request;
+
+    @Setup
+    public void setUp() throws Exception {
+        OssTimeBridge.installClock(new RealTimeClock());
+        OssTimeBridge.installEndpointTimeSyncerForTest(new OssTimeBridge.EndpointTimeSyncer() {
+            public OssEndpointTimeSync.SyncResult sync(URI endpoint, RealTimeClock c) {
+                long t = System.currentTimeMillis() + 5000L;
+                c.updateBaseTimeAuthoritative(t);
+                return OssEndpointTimeSync.SyncResult.success(t, "HEAD", false, 1L);
+            }
+        });
+        OssTimeBridge.resetPreSyncStateForTest();
+        request = new RequestMessage(new URI("https://oss-cn-hangzhou.aliyuncs.com/"));
+        if (!OssTimeBridge.preSyncNow(request.getEndpoint())) {
+            throw new IllegalStateException("pre-sync did not succeed");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        OssTimeBridge.installEndpointTimeSyncerForTest(null);
+    }
+
+    @Benchmark
+    public long baselineSystemCurrentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long resolveTickOffsetMillis() {
+        return OssTimeBridge.resolveTickOffsetMillis(0L);
+    }
+
+    @Benchmark
+    public void beforeInitialSign() {
+        OssTimeBridge.beforeInitialSign(null, request, null);
+    }
+
+    @Benchmark
+    public long perRequest() {
+        OssTimeBridge.beforeInitialSign(null, request, null);
+        return OssTimeBridge.resolveTickOffsetMillis(0L);
+    }
+
+    // Stands in for the SDK's RequestMessage of a bodyless request; the bridge reaches it by reflection through
+    // getEndpoint(), getContentLength() and getContent(), so all three must exist for the steady-state path.
+    public static final class RequestMessage {
+        private final URI endpoint;
+
+        RequestMessage(URI endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public URI getEndpoint() {
+            return endpoint;
+        }
+
+        public long getContentLength() {
+            return 0L;
+        }
+
+        public InputStream getContent() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+#!/usr/bin/env bash
+set -euo pipefail
+
+ROOT_DIR="$(cd "$(dirname "$0")" && pwd)"
+cd "$ROOT_DIR"
+
+PROFILES=(oss-compat-3_8 oss-compat-3_11 oss-compat-3_15 oss-compat-3_18)
+
+if ! command -v mvn >/dev/null 2>&1; then
+  echo "[compat] ERROR: mvn not found in PATH" >&2
+  exit 1
+fi
+
+echo "[compat] Packaging agent..."
+mvn -q -DskipTests package
+
+rm -rf target/oss-compat
+mkdir -p target/oss-compat
+for p in "${PROFILES[@]}"; do
+  echo "[compat] Resolving classpath for $p..."
+  mvn -q -P "$p" dependency:build-classpath -Dmdep.includeScope=test \
+    -Dmdep.outputFile="target/oss-compat/$p.classpath"
+done
+
+agent_jar=""
+for f in target/oss-time-agent-*.jar; do
+  case "$f" in
+    *-verify.jar|target/original-*.jar) ;;
+    *) agent_jar="$f"; break ;;
+  esac
+done
+
+# Extra key=value arguments go to CompatMatrixMain, e.g. ./compat-matrix.sh seconds=10 maxOverheadMicros=200
+exec java -cp "target/test-classes:target/classes:$(cat target/oss-compat/oss-compat-3_18.classpath)" \
+  com.gamesofts.osstimeagent.load.CompatMatrixMain agentJar="$agent_jar" "$@"
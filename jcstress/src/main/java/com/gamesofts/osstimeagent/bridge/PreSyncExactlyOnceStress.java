@@ -0,0 +1,41 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+// Two first requests race into beforeInitialSign: exactly one runs the pre-sync. The loser either found it in
+// flight or found it already succeeded; a second sync after success would cost an extra probe per cold start.
+@JCStressTest
+@Outcome(id = { "1, 0", "0, 1" }, expect = Expect.ACCEPTABLE, desc = "One thread synced.")
+@Outcome(id = "1, 1", expect = Expect.FORBIDDEN, desc = "Pre-sync ran twice.")
+@Outcome(id = "0, 0", expect = Expect.FORBIDDEN, desc = "Nobody synced.")
+@State
+public class PreSyncExactlyOnceStress {
+    private final PreSyncState state = new PreSyncState();
+
+    private int firstRequest() {
+        if (!state.tryBeginFirstSync()) {
+            return 0;
+        }
+        try {
+            state.markSucceeded();
+        } finally {
+            state.endSync();
+        }
+        return 1;
+    }
+
+    @Actor
+    public void request1(II_Result r) {
+        r.r1 = firstRequest();
+    }
+
+    @Actor
+    public void request2(II_Result r) {
+        r.r2 = firstRequest();
+    }
+}
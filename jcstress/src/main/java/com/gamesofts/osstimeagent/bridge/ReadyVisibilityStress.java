@@ -0,0 +1,49 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import com.gamesofts.osstimeagent.time.RealTimeClock;
+import com.gamesofts.osstimeagent.time.TimeSource;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.JJ_Result;
+
+// The pre-sync publishes authoritativeClockReady after stepping the clock. A request thread that sees ready=1 skips
+// its own sync and signs with the clock, so it must also see the stepped time. r1 = ready, r2 = clock reading.
+@JCStressTest
+@Outcome(id = { "0, 3601000", "0, 5000", "1, 5000" }, expect = Expect.ACCEPTABLE, desc = "Ready implies synced clock.")
+@Outcome(id = "1, 3601000", expect = Expect.FORBIDDEN, desc = "Ready seen before the clock step.")
+@State
+public class ReadyVisibilityStress {
+    private final PreSyncState state = new PreSyncState();
+    private final RealTimeClock clock;
+
+    public ReadyVisibilityStress() {
+        final long[] nanos = new long[1];
+        clock = new RealTimeClock(new TimeSource() {
+            public long currentTimeMillis() {
+                return 1000L;
+            }
+
+            public long nanoTime() {
+                return nanos[0];
+            }
+        });
+        // Published to the actors by the harness along with the state object.
+        nanos[0] = 3600L * 1000000000L;
+        clock.currentTimeMillis();
+    }
+
+    @Actor
+    public void preSync() {
+        clock.updateBaseTimeAuthoritative(5000L);
+        state.markSucceeded();
+    }
+
+    @Actor
+    public void request(JJ_Result r) {
+        r.r1 = state.isAuthoritativeClockReady() ? 1L : 0L;
+        r.r2 = clock.currentTimeMillis();
+    }
+}
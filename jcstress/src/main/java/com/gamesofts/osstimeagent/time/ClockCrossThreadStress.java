@@ -0,0 +1,42 @@
+package com.gamesofts.osstimeagent.time;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.JJ_Result;
+
+// One thread reads the clock and publishes the value; a thread that sees the published value must not then read
+// an older time. r1 is the value seen (0 = not yet published), r2 that thread's own reading. A backward
+// non-authoritative update runs concurrently and must be absorbed by the floor.
+@JCStressTest
+@Outcome(id = { "0, 3601000", "0, 3602000", "3601000, 3601000", "3601000, 3602000", "3602000, 3602000" },
+        expect = Expect.ACCEPTABLE, desc = "Happens-before through the published value is respected.")
+@Outcome(id = "3602000, 3601000", expect = Expect.FORBIDDEN, desc = "Read older than a value already observed.")
+@State
+public class ClockCrossThreadStress {
+    private final RealTimeClock clock = FixedTimeSource.newClock();
+    private volatile long published;
+
+    @Actor
+    public void forward() {
+        clock.updateBaseTime(FixedTimeSource.INITIAL_READING + 1000L);
+    }
+
+    @Actor
+    public void backward() {
+        clock.updateBaseTime(FixedTimeSource.INITIAL_READING - 1000L);
+    }
+
+    @Actor
+    public void publisher() {
+        published = clock.currentTimeMillis();
+    }
+
+    @Actor
+    public void observer(JJ_Result r) {
+        r.r1 = published;
+        r.r2 = clock.currentTimeMillis();
+    }
+}
@@ -0,0 +1,29 @@
+package com.gamesofts.osstimeagent.time;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.JJ_Result;
+
+// Two reads on one thread while another thread steps the clock forward: the second read never goes back.
+@JCStressTest
+@Outcome(id = { "3601000, 3601000", "3601000, 3602000", "3602000, 3602000" }, expect = Expect.ACCEPTABLE,
+        desc = "Reads are ordered with the update.")
+@Outcome(id = "3602000, 3601000", expect = Expect.FORBIDDEN, desc = "Clock went backwards within a thread.")
+@State
+public class ClockMonotonicStress {
+    private final RealTimeClock clock = FixedTimeSource.newClock();
+
+    @Actor
+    public void writer() {
+        clock.updateBaseTime(FixedTimeSource.INITIAL_READING + 1000L);
+    }
+
+    @Actor
+    public void reader(JJ_Result r) {
+        r.r1 = clock.currentTimeMillis();
+        r.r2 = clock.currentTimeMillis();
+    }
+}
@@ -0,0 +1,36 @@
+package com.gamesofts.osstimeagent.time;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.JJ_Result;
+
+// An authoritative sync steps the clock back by an hour while a reader is running. The reader must see the old or
+// the new base, never millis of one with nanos of the other (3605000 or 1000), and once both are done the clock
+// must read the new time: a stale reader may not push the floor back up.
+@JCStressTest
+@Outcome(id = { "3601000, 5000", "5000, 5000" }, expect = Expect.ACCEPTABLE, desc = "Old or new base, then new.")
+@Outcome(id = { "3605000, .*", "1000, .*" }, expect = Expect.FORBIDDEN, desc = "Torn base.")
+@Outcome(id = ".*, 3601000", expect = Expect.FORBIDDEN, desc = "Authoritative step undone by a stale reader.")
+@State
+public class ClockTornBaseStress {
+    private final RealTimeClock clock = FixedTimeSource.newClock();
+
+    @Actor
+    public void sync() {
+        clock.updateBaseTimeAuthoritative(5000L);
+    }
+
+    @Actor
+    public void reader(JJ_Result r) {
+        r.r1 = clock.currentTimeMillis();
+    }
+
+    @Arbiter
+    public void after(JJ_Result r) {
+        r.r2 = clock.currentTimeMillis();
+    }
+}
@@ -0,0 +1,30 @@
+package com.gamesofts.osstimeagent.time;
+
+// Frozen local clock for the stress tests: outcomes then depend only on the base the reader saw, not on timing.
+// The clock is built at nanoTime 0 and the source then moved an hour on, so a reader combining the millis of one
+// base with the nanos of another lands on a value no consistent base can produce. newClock() reads once, so the
+// floor already holds INITIAL_READING as if a request had been signed with it.
+final class FixedTimeSource implements TimeSource {
+    static final long WALL_MILLIS = 1000L;
+    static final long LATER_NANOS = 3600L * 1000000000L;
+    // Reading of a clock built by newClock() before any update.
+    static final long INITIAL_READING = WALL_MILLIS + LATER_NANOS / 1000000L;
+
+    private volatile long nanos;
+
+    static RealTimeClock newClock() {
+        FixedTimeSource t = new FixedTimeSource();
+        RealTimeClock clock = new RealTimeClock(t);
+        t.nanos = LATER_NANOS;
+        clock.currentTimeMillis();
+        return clock;
+    }
+
+    public long currentTimeMillis() {
+        return WALL_MILLIS;
+    }
+
+    public long nanoTime() {
+        return nanos;
+    }
+}
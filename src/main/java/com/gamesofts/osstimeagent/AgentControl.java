@@ -0,0 +1,260 @@
+package com.gamesofts.osstimeagent;
+
+import com.gamesofts.osstimeagent.bridge.OssTimeBridge;
+import com.gamesofts.osstimeagent.instrument.OssSdkTransformer;
+import com.gamesofts.osstimeagent.metrics.RequestMetrics;
+import com.gamesofts.osstimeagent.time.ProbeTimeouts;
+import com.gamesofts.osstimeagent.util.AgentConfig;
+import com.gamesofts.osstimeagent.util.AgentLog;
+
+import java.lang.instrument.Instrumentation;
+
+// Runtime switches for the installed agent, reachable through JMX (jmx=true) or a repeated attach with
+// patches=on|off, preSync=on|off, forcedRetry=on|off, resign=on|off, requestMetrics=on|off, slowRequestMillis=<n>,
+// uploadGuardBytes=<n>, uploadGuardMaxSyncAgeMillis=<n>, uploadGuardWaitMillis=<n>, expectContinueBytes=<n>,
+// replayBufferBytes=<n>, replayBufferPoolBytes=<n>, presign=on|off, credentialExpiry=on|off,
+// probeTimeoutFloorMillis=<n>, probeTimeoutCeilingMillis=<n>.
+public final class AgentControl implements AgentControlMBean {
+    static final String OBJECT_NAME = "com.gamesofts.osstimeagent:type=Control";
+
+    private final Instrumentation inst;
+    private final OssSdkTransformer transformer;
+    private final boolean canRetransform;
+
+    AgentControl(Instrumentation inst, OssSdkTransformer transformer, boolean canRetransform) {
+        this.inst = inst;
+        this.transformer = transformer;
+        this.canRetransform = canRetransform;
+    }
+
+    public boolean isPatchesEnabled() {
+        return transformer.isEnabled();
+    }
+
+    public String enablePatches() {
+        return switchPatches(true);
+    }
+
+    public String disablePatches() {
+        return switchPatches(false);
+    }
+
+    public boolean isPreSyncEnabled() {
+        return OssTimeBridge.isPreSyncEnabled();
+    }
+
+    public void setPreSyncEnabled(boolean enabled) {
+        OssTimeBridge.setPreSyncEnabled(enabled);
+        AgentLog.info("pre-sync " + (enabled ? "enabled" : "disabled"));
+    }
+
+    public boolean isForcedSkewRetryEnabled() {
+        return OssTimeBridge.isForcedSkewRetryEnabled();
+    }
+
+    public void setForcedSkewRetryEnabled(boolean enabled) {
+        OssTimeBridge.setForcedSkewRetryEnabled(enabled);
+        AgentLog.info("forced skew retry " + (enabled ? "enabled" : "disabled"));
+    }
+
+    public boolean isResignRetryEnabled() {
+        return OssTimeBridge.isResignRetryEnabled();
+    }
+
+    public void setResignRetryEnabled(boolean enabled) {
+        OssTimeBridge.setResignRetryEnabled(enabled);
+        AgentLog.info("re-sign on retry " + (enabled ? "enabled" : "disabled"));
+    }
+
+    public boolean isRequestMetricsEnabled() {
+        return OssTimeBridge.isRequestMetricsEnabled();
+    }
+
+    public void setRequestMetricsEnabled(boolean enabled) {
+        OssTimeBridge.setRequestMetricsEnabled(enabled);
+        AgentLog.info("request metrics " + (enabled ? "enabled" : "disabled"));
+    }
+
+    public long getSlowRequestThresholdMillis() {
+        return RequestMetrics.slowRequests().getThresholdMillis();
+    }
+
+    public void setSlowRequestThresholdMillis(long millis) {
+        RequestMetrics.slowRequests().setThresholdMillis(millis);
+    }
+
+    public long getUploadGuardBytes() {
+        return OssTimeBridge.getUploadGuardBytes();
+    }
+
+    public void setUploadGuardBytes(long bytes) {
+        OssTimeBridge.setUploadGuard(bytes, OssTimeBridge.getUploadGuardMaxSyncAgeMillis(),
+                OssTimeBridge.getUploadGuardWaitMillis());
+    }
+
+    public long getUploadGuardMaxSyncAgeMillis() {
+        return OssTimeBridge.getUploadGuardMaxSyncAgeMillis();
+    }
+
+    public void setUploadGuardMaxSyncAgeMillis(long millis) {
+        OssTimeBridge.setUploadGuard(OssTimeBridge.getUploadGuardBytes(), millis,
+                OssTimeBridge.getUploadGuardWaitMillis());
+    }
+
+    public long getUploadGuardWaitMillis() {
+        return OssTimeBridge.getUploadGuardWaitMillis();
+    }
+
+    public void setUploadGuardWaitMillis(long millis) {
+        OssTimeBridge.setUploadGuard(OssTimeBridge.getUploadGuardBytes(),
+                OssTimeBridge.getUploadGuardMaxSyncAgeMillis(), millis);
+    }
+
+    public long getExpectContinueBytes() {
+        return OssTimeBridge.getExpectContinueBytes();
+    }
+
+    public void setExpectContinueBytes(long bytes) {
+        OssTimeBridge.setExpectContinueBytes(bytes);
+    }
+
+    public long getReplayBufferBytes() {
+        return OssTimeBridge.getReplayBufferBytes();
+    }
+
+    public void setReplayBufferBytes(long bytes) {
+        OssTimeBridge.setReplayBuffer(bytes, OssTimeBridge.getReplayBufferPoolBytes());
+    }
+
+    public long getReplayBufferPoolBytes() {
+        return OssTimeBridge.getReplayBufferPoolBytes();
+    }
+
+    public void setReplayBufferPoolBytes(long bytes) {
+        OssTimeBridge.setReplayBuffer(OssTimeBridge.getReplayBufferBytes(), bytes);
+    }
+
+    public boolean isPresignEnabled() {
+        return OssTimeBridge.isPresignEnabled();
+    }
+
+    public void setPresignEnabled(boolean enabled) {
+        OssTimeBridge.setPresignEnabled(enabled);
+        AgentLog.info("presign expiration on agent clock " + (enabled ? "enabled" : "disabled"));
+    }
+
+    public boolean isCredentialExpiryEnabled() {
+        return OssTimeBridge.isCredentialExpiryEnabled();
+    }
+
+    public void setCredentialExpiryEnabled(boolean enabled) {
+        OssTimeBridge.setCredentialExpiryEnabled(enabled);
+        AgentLog.info("credential expiry on agent clock " + (enabled ? "enabled" : "disabled"));
+    }
+
+    public int getProbeTimeoutFloorMillis() {
+        return ProbeTimeouts.shared().getFloorMillis();
+    }
+
+    public void setProbeTimeoutFloorMillis(int millis) {
+        ProbeTimeouts t = ProbeTimeouts.shared();
+        t.setBounds(millis, t.getCeilingMillis());
+    }
+
+    public int getProbeTimeoutCeilingMillis() {
+        return ProbeTimeouts.shared().getCeilingMillis();
+    }
+
+    public void setProbeTimeoutCeilingMillis(int millis) {
+        ProbeTimeouts t = ProbeTimeouts.shared();
+        t.setBounds(t.getFloorMillis(), millis);
+    }
+
+    // Applies the switches present in AgentConfig; keys that were not given leave the current state alone. At
+    // install both agent args and system properties count; on a repeated attach (agentArgsOnly) only the keys of
+    // that attach do, so it cannot re-apply an earlier attach or a -D property over a change made through JMX.
+    void applyConfig(boolean agentArgsOnly) {
+        if (given("preSync", agentArgsOnly)) {
+            setPreSyncEnabled(AgentConfig.getBoolean("preSync", true));
+        }
+        if (given("forcedRetry", agentArgsOnly)) {
+            setForcedSkewRetryEnabled(AgentConfig.getBoolean("forcedRetry", true));
+        }
+        if (given("resign", agentArgsOnly)) {
+            setResignRetryEnabled(AgentConfig.getBoolean("resign", true));
+        }
+        if (given("requestMetrics", agentArgsOnly)) {
+            setRequestMetricsEnabled(AgentConfig.getBoolean("requestMetrics", true));
+        }
+        if (given("requestMetricsByBucket", agentArgsOnly)) {
+            OssTimeBridge.setRequestMetricsPerBucket(AgentConfig.getBoolean("requestMetricsByBucket", false));
+        }
+        if (given("slowRequestMillis", agentArgsOnly)) {
+            setSlowRequestThresholdMillis(AgentConfig.getLong("slowRequestMillis", 3000L));
+        }
+        if (given("uploadGuardBytes", agentArgsOnly)) {
+            setUploadGuardBytes(AgentConfig.getLong("uploadGuardBytes", getUploadGuardBytes()));
+        }
+        if (given("uploadGuardMaxSyncAgeMillis", agentArgsOnly)) {
+            setUploadGuardMaxSyncAgeMillis(AgentConfig.getLong("uploadGuardMaxSyncAgeMillis",
+                    getUploadGuardMaxSyncAgeMillis()));
+        }
+        if (given("uploadGuardWaitMillis", agentArgsOnly)) {
+            setUploadGuardWaitMillis(AgentConfig.getLong("uploadGuardWaitMillis", getUploadGuardWaitMillis()));
+        }
+        if (given("expectContinueBytes", agentArgsOnly)) {
+            setExpectContinueBytes(AgentConfig.getLong("expectContinueBytes", 0L));
+        }
+        if (given("replayBufferBytes", agentArgsOnly)) {
+            setReplayBufferBytes(AgentConfig.getLong("replayBufferBytes", getReplayBufferBytes()));
+        }
+        if (given("replayBufferPoolBytes", agentArgsOnly)) {
+            setReplayBufferPoolBytes(AgentConfig.getLong("replayBufferPoolBytes", getReplayBufferPoolBytes()));
+        }
+        if (given("presign", agentArgsOnly)) {
+            setPresignEnabled(AgentConfig.getBoolean("presign", true));
+        }
+        if (given("credentialExpiry", agentArgsOnly)) {
+            setCredentialExpiryEnabled(AgentConfig.getBoolean("credentialExpiry", true));
+        }
+        if (given("probeTimeoutFloorMillis", agentArgsOnly)) {
+            setProbeTimeoutFloorMillis((int) AgentConfig.getLong("probeTimeoutFloorMillis",
+                    getProbeTimeoutFloorMillis()));
+        }
+        if (given("probeTimeoutCeilingMillis", agentArgsOnly)) {
+            setProbeTimeoutCeilingMillis((int) AgentConfig.getLong("probeTimeoutCeilingMillis",
+                    getProbeTimeoutCeilingMillis()));
+        }
+        if (given("patches", agentArgsOnly)) {
+            boolean enabled = AgentConfig.getBoolean("patches", true);
+            if (enabled != transformer.isEnabled()) {
+                switchPatches(enabled);
+            }
+        }
+    }
+
+    private static boolean given(String key, boolean agentArgsOnly) {
+        return agentArgsOnly ? AgentConfig.hasAgentArg(key) : AgentConfig.get(key, null) != null;
+    }
+
+    private synchronized String switchPatches(boolean enabled) {
+        transformer.setEnabled(enabled);
+        if (!canRetransform) {
+            String msg = "patches " + (enabled ? "enabled" : "disabled")
+                    + " for classes loaded from now on (retransform unsupported)";
+            AgentLog.warn(msg);
+            return msg;
+        }
+        OssTimeAgent.RetransformSummary summary =
+                OssTimeAgent.retransformLoadedTargets(inst, transformer.getTargetClassNames());
+        String msg = "patches " + (enabled ? "enabled" : "disabled") + " (retransformed=" + summary.hit
+                + ", failed=" + summary.failed + (summary.failed > 0 ? ", failedClasses=" + summary.failedClassNames : "")
+                + ")";
+        if (summary.failed > 0) {
+            AgentLog.warn(msg);
+        } else {
+            AgentLog.info(msg);
+        }
+        return msg;
+    }
+}
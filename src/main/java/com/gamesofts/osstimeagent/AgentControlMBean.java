@@ -0,0 +1,69 @@
+package com.gamesofts.osstimeagent;
+
+public interface AgentControlMBean {
+    boolean isPatchesEnabled();
+
+    String enablePatches();
+
+    String disablePatches();
+
+    boolean isPreSyncEnabled();
+
+    void setPreSyncEnabled(boolean enabled);
+
+    boolean isForcedSkewRetryEnabled();
+
+    void setForcedSkewRetryEnabled(boolean enabled);
+
+    boolean isResignRetryEnabled();
+
+    void setResignRetryEnabled(boolean enabled);
+
+    boolean isRequestMetricsEnabled();
+
+    void setRequestMetricsEnabled(boolean enabled);
+
+    long getSlowRequestThresholdMillis();
+
+    void setSlowRequestThresholdMillis(long millis);
+
+    long getUploadGuardBytes();
+
+    void setUploadGuardBytes(long bytes);
+
+    long getUploadGuardMaxSyncAgeMillis();
+
+    void setUploadGuardMaxSyncAgeMillis(long millis);
+
+    long getUploadGuardWaitMillis();
+
+    void setUploadGuardWaitMillis(long millis);
+
+    long getExpectContinueBytes();
+
+    void setExpectContinueBytes(long bytes);
+
+    long getReplayBufferBytes();
+
+    void setReplayBufferBytes(long bytes);
+
+    long getReplayBufferPoolBytes();
+
+    void setReplayBufferPoolBytes(long bytes);
+
+    boolean isPresignEnabled();
+
+    void setPresignEnabled(boolean enabled);
+
+    boolean isCredentialExpiryEnabled();
+
+    void setCredentialExpiryEnabled(boolean enabled);
+
+    int getProbeTimeoutFloorMillis();
+
+    void setProbeTimeoutFloorMillis(int millis);
+
+    int getProbeTimeoutCeilingMillis();
+
+    void setProbeTimeoutCeilingMillis(int millis);
+}
@@ -0,0 +1,155 @@
+package com.gamesofts.osstimeagent;
+
+import com.gamesofts.osstimeagent.bridge.OssTimeBridge;
+import com.gamesofts.osstimeagent.metrics.AgentMetrics;
+import com.gamesofts.osstimeagent.metrics.LatencyHistogram;
+import com.gamesofts.osstimeagent.metrics.OperationStats;
+import com.gamesofts.osstimeagent.metrics.RequestMetrics;
+import com.gamesofts.osstimeagent.metrics.SyncSample;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+// Read-only JMX view over AgentMetrics, registered as com.gamesofts.osstimeagent:type=Stats when jmx=true.
+public final class AgentStats implements AgentStatsMBean {
+    static final String OBJECT_NAME = "com.gamesofts.osstimeagent:type=Stats";
+
+    public long getClockOffsetMillis() {
+        return OssTimeBridge.currentTickOffsetMillis();
+    }
+
+    public long getUncertaintyMillis() {
+        SyncSample s = AgentMetrics.getLastSync();
+        return s == null ? -1L : s.getUncertaintyMillis();
+    }
+
+    public long getLastSyncTimeMillis() {
+        SyncSample s = AgentMetrics.getLastSync();
+        return s == null ? 0L : s.getServerTimeMillis();
+    }
+
+    public String getLastSyncTime() {
+        SyncSample s = AgentMetrics.getLastSync();
+        if (s == null) {
+            return null;
+        }
+        SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return f.format(new Date(s.getServerTimeMillis()));
+    }
+
+    public String getLastSyncEndpoint() {
+        SyncSample s = AgentMetrics.getLastSync();
+        return s == null ? null : s.getEndpoint();
+    }
+
+    public String getLastSyncMethod() {
+        SyncSample s = AgentMetrics.getLastSync();
+        return s == null ? null : s.getMethod();
+    }
+
+    public long getLastSyncRttMillis() {
+        SyncSample s = AgentMetrics.getLastSync();
+        return s == null ? -1L : s.getRttMillis();
+    }
+
+    public long getSyncSuccessCount() {
+        return AgentMetrics.getSyncSuccessCount();
+    }
+
+    public long getSyncFailureCount() {
+        return AgentMetrics.getSyncFailureCount();
+    }
+
+    public String getLastSyncFailureReason() {
+        return AgentMetrics.getLastFailureReason();
+    }
+
+    public long getSkewRetryCount() {
+        return AgentMetrics.getSkewRetryCount();
+    }
+
+    public long getResignCount() {
+        return AgentMetrics.getResignCount();
+    }
+
+    public String[] getPatchOutcomes() {
+        List outcomes = AgentMetrics.getPatchOutcomes();
+        return (String[]) outcomes.toArray(new String[outcomes.size()]);
+    }
+
+    public String[] getLatencySummaries() {
+        LatencyHistogram[] hs = AgentMetrics.histograms();
+        String[] out = new String[hs.length];
+        int i;
+        for (i = 0; i < hs.length; i++) {
+            out[i] = hs[i].summary();
+        }
+        return out;
+    }
+
+    public long getLatencyPercentileNanos(String histogram, double percentile) {
+        LatencyHistogram[] hs = AgentMetrics.histograms();
+        int i;
+        for (i = 0; i < hs.length; i++) {
+            if (hs[i].getName().equals(histogram)) {
+                return hs[i].valueAtPercentile(percentile);
+            }
+        }
+        return -1L;
+    }
+
+    public void resetLatencyHistograms() {
+        LatencyHistogram[] hs = AgentMetrics.histograms();
+        int i;
+        for (i = 0; i < hs.length; i++) {
+            hs[i].reset();
+        }
+    }
+
+    public String[] getOperationSummaries() {
+        List ops = RequestMetrics.getOperations();
+        String[] out = new String[ops.size()];
+        int i;
+        for (i = 0; i < out.length; i++) {
+            out[i] = ((OperationStats) ops.get(i)).summary();
+        }
+        return out;
+    }
+
+    public String[] getErrorCodeCounts() {
+        return entries(RequestMetrics.getErrorCodeCounts());
+    }
+
+    public String[] getRetryCauseCounts() {
+        return entries(RequestMetrics.getRetryCauseCounts());
+    }
+
+    public String[] getSlowRequests() {
+        List samples = RequestMetrics.slowRequests().getSamples();
+        String[] out = new String[samples.size()];
+        int i;
+        for (i = 0; i < out.length; i++) {
+            out[i] = samples.get(i).toString();
+        }
+        return out;
+    }
+
+    public void resetRequestMetrics() {
+        RequestMetrics.reset();
+    }
+
+    private static String[] entries(Map counts) {
+        String[] out = new String[counts.size()];
+        int i = 0;
+        for (Iterator it = counts.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e = (Map.Entry) it.next();
+            out[i++] = e.getKey() + "=" + e.getValue();
+        }
+        return out;
+    }
+}
@@ -0,0 +1,45 @@
+package com.gamesofts.osstimeagent;
+
+public interface AgentStatsMBean {
+    long getClockOffsetMillis();
+
+    long getUncertaintyMillis();
+
+    long getLastSyncTimeMillis();
+
+    String getLastSyncTime();
+
+    String getLastSyncEndpoint();
+
+    String getLastSyncMethod();
+
+    long getLastSyncRttMillis();
+
+    long getSyncSuccessCount();
+
+    long getSyncFailureCount();
+
+    String getLastSyncFailureReason();
+
+    long getSkewRetryCount();
+
+    long getResignCount();
+
+    String[] getPatchOutcomes();
+
+    String[] getLatencySummaries();
+
+    long getLatencyPercentileNanos(String histogram, double percentile);
+
+    void resetLatencyHistograms();
+
+    String[] getOperationSummaries();
+
+    String[] getErrorCodeCounts();
+
+    String[] getRetryCauseCounts();
+
+    String[] getSlowRequests();
+
+    void resetRequestMetrics();
+}
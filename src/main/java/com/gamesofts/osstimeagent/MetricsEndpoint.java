@@ -0,0 +1,154 @@
+package com.gamesofts.osstimeagent;
+
+import com.gamesofts.osstimeagent.bridge.OssTimeBridge;
+import com.gamesofts.osstimeagent.metrics.ExpositionBuffer;
+import com.gamesofts.osstimeagent.metrics.PrometheusExporter;
+import com.gamesofts.osstimeagent.util.AgentLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+// Minimal HTTP/1.0 listener serving GET /metrics in Prometheus text format (prometheusPort=<port>).
+// One daemon thread accepts and answers scrapes one at a time from buffers it owns, so scrapes never touch
+// request threads and reuse the same memory every time.
+final class MetricsEndpoint implements Runnable {
+    // Budget for the whole request head, not per read: a client trickling bytes must not hold the only thread.
+    static final long HEAD_DEADLINE_MILLIS = 2000L;
+
+    private final ServerSocket server;
+    private final PrometheusExporter exporter = new PrometheusExporter();
+    private final ExpositionBuffer body = new ExpositionBuffer(16 * 1024);
+    private final ExpositionBuffer head = new ExpositionBuffer(256);
+    private final byte[] requestBuf = new byte[1024];
+    private volatile boolean running = true;
+
+    private MetricsEndpoint(ServerSocket server) {
+        this.server = server;
+    }
+
+    static MetricsEndpoint start(String host, int port) throws IOException {
+        ServerSocket s = new ServerSocket();
+        s.setReuseAddress(true);
+        s.bind(new InetSocketAddress(InetAddress.getByName(host), port), 16);
+        MetricsEndpoint endpoint = new MetricsEndpoint(s);
+        Thread t = new Thread(endpoint, "oss-time-agent-metrics");
+        t.setDaemon(true);
+        t.start();
+        AgentLog.info("prometheus metrics listening on " + host + ":" + s.getLocalPort() + "/metrics");
+        return endpoint;
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    void stop() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    public void run() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (running) {
+                    AgentLog.debug("metrics accept failed: " + e.toString());
+                }
+                continue;
+            }
+            try {
+                serve(socket);
+            } catch (Throwable t) {
+                AgentLog.debug("metrics scrape failed: " + t.toString());
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        int n = readRequestHead(socket);
+        OutputStream out = socket.getOutputStream();
+        head.reset();
+        body.reset();
+        if (!isGet(n)) {
+            head.append("HTTP/1.0 405 Method Not Allowed\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+        } else if (!isPath(n, "/metrics") && !isPath(n, "/")) {
+            head.append("HTTP/1.0 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+        } else {
+            exporter.render(body, OssTimeBridge.currentTickOffsetMillis());
+            head.append("HTTP/1.0 200 OK\r\nContent-Type: ").append(PrometheusExporter.CONTENT_TYPE)
+                    .append("\r\nContent-Length: ").append((long) body.length())
+                    .append("\r\nConnection: close\r\n\r\n");
+        }
+        head.writeTo(out);
+        body.writeTo(out);
+        out.flush();
+    }
+
+    // Reads until the blank line ending the request head (or the buffer fills); only the request line is used.
+    // Each read waits at most for what is left of HEAD_DEADLINE_MILLIS.
+    private int readRequestHead(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        long deadline = System.nanoTime() + HEAD_DEADLINE_MILLIS * 1000000L;
+        int n = 0;
+        while (n < requestBuf.length) {
+            long left = (deadline - System.nanoTime()) / 1000000L;
+            if (left <= 0L) {
+                throw new SocketTimeoutException("request head not complete after " + HEAD_DEADLINE_MILLIS + "ms");
+            }
+            socket.setSoTimeout((int) left);
+            int r = in.read(requestBuf, n, requestBuf.length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+            if (endsHead(n)) {
+                break;
+            }
+        }
+        return n;
+    }
+
+    private boolean endsHead(int n) {
+        int i;
+        for (i = 3; i < n; i++) {
+            if (requestBuf[i - 3] == '\r' && requestBuf[i - 2] == '\n' && requestBuf[i - 1] == '\r'
+                    && requestBuf[i] == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isGet(int n) {
+        return n >= 4 && requestBuf[0] == 'G' && requestBuf[1] == 'E' && requestBuf[2] == 'T' && requestBuf[3] == ' ';
+    }
+
+    // Request target equals path, optionally followed by a query string.
+    private boolean isPath(int n, String path) {
+        int p = 4;
+        int i;
+        for (i = 0; i < path.length(); i++) {
+            if (p + i >= n || requestBuf[p + i] != path.charAt(i)) {
+                return false;
+            }
+        }
+        int end = p + path.length();
+        return end < n && (requestBuf[end] == ' ' || requestBuf[end] == '?');
+    }
+}
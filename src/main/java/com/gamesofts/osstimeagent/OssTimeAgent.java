@@ -1,50 +1,253 @@
 package com.gamesofts.osstimeagent;
 
+import com.gamesofts.osstimeagent.attach.OssAgentAttacher;
 import com.gamesofts.osstimeagent.bridge.OssTimeBridge;
+import com.gamesofts.osstimeagent.history.OffsetHistory;
+import com.gamesofts.osstimeagent.history.OffsetHistoryReader;
 import com.gamesofts.osstimeagent.instrument.OssSdkTransformer;
+import com.gamesofts.osstimeagent.time.OssProbeMain;
 import com.gamesofts.osstimeagent.time.RealTimeClock;
+import com.gamesofts.osstimeagent.util.AgentConfig;
 import com.gamesofts.osstimeagent.util.AgentLog;
 
 import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 public final class OssTimeAgent {
+    private static final AtomicBoolean installed = new AtomicBoolean(false);
+    private static volatile AgentControl control;
+    private static MetricsEndpoint metricsEndpoint;
+    // Set by install, read by activate; both guarded by the class lock.
+    private static Instrumentation instrumentation;
+    private static OssSdkTransformer transformer;
+    private static boolean retransformSupported;
+    private static boolean attached;
+    private static volatile boolean activated;
+    private static long registerMicros;
+
     private OssTimeAgent() {
     }
 
     public static void premain(String agentArgs, Instrumentation inst) {
-        AgentLog.setLevel("info");
+        install(agentArgs, inst, false);
+    }
+
+    public static void agentmain(String agentArgs, Instrumentation inst) {
+        install(agentArgs, inst, true);
+    }
 
-        RealTimeClock clock = new RealTimeClock();
-        OssTimeBridge.installClock(clock);
+    // java -jar oss-time-agent.jar <command> [args]: the agent jar's command-line tools.
+    public static void main(String[] args) throws Exception {
+        String command = args.length == 0 ? "" : args[0];
+        String[] rest = new String[Math.max(0, args.length - 1)];
+        System.arraycopy(args, args.length - rest.length, rest, 0, rest.length);
+        if ("probe".equals(command)) {
+            OssProbeMain.main(rest);
+        } else if ("attach".equals(command)) {
+            OssAgentAttacher.main(rest);
+        } else if ("history".equals(command)) {
+            OffsetHistoryReader.main(rest);
+        } else {
+            System.err.println("usage: java -jar oss-time-agent.jar probe|attach|history [args]");
+            System.exit(2);
+        }
+    }
+
+    private static void install(String agentArgs, Instrumentation inst, boolean dynamic) {
+        long startNanos = System.nanoTime();
+        AgentConfig.parseAgentArgs(agentArgs);
+        boolean first = installed.compareAndSet(false, true);
+        if (!first) {
+            // A repeated attach is an explicit request for control; it does not wait for the SDK.
+            activate();
+            applyLogConfig(false);
+            AgentControl c = control;
+            if (c == null) {
+                AgentLog.info("agent already installed; ignoring repeated " + (dynamic ? "attach" : "premain"));
+                return;
+            }
+            AgentLog.info("agent already installed; applying control arguments");
+            c.applyConfig(true);
+            if (AgentConfig.getBoolean("jmx", false)) {
+                registerMBeans(c);
+            }
+            startMetricsEndpoint();
+            return;
+        }
 
+        // Only the transformer is registered here. Logging, history, control, MBeans and the metrics endpoint
+        // wait in activate() until an OSS SDK class is seen, so an application without the SDK pays for
+        // little more than this method.
         try {
-            OssSdkTransformer transformer = new OssSdkTransformer();
+            OssSdkTransformer t = new OssSdkTransformer();
+            t.setEnabled(AgentConfig.getBoolean("patches", true));
             boolean canRetransform = false;
             try {
                 canRetransform = inst.isRetransformClassesSupported();
             } catch (Throwable ignore) {
             }
-            inst.addTransformer(transformer, canRetransform);
-            RetransformSummary summary = new RetransformSummary();
-            if (canRetransform) {
-                summary = retransformLoadedTargets(inst, transformer.getTargetClassNames());
+            t.setFirstTargetListener(new Runnable() {
+                public void run() {
+                    activate();
+                }
+            });
+            synchronized (OssTimeAgent.class) {
+                instrumentation = inst;
+                transformer = t;
+                retransformSupported = canRetransform;
+                attached = dynamic;
+                inst.addTransformer(t, canRetransform);
+                registerMicros = (System.nanoTime() - startNanos) / 1000L;
             }
-            if (summary.failed > 0) {
-                AgentLog.warn("transformer register failed partially (retransform=" + canRetransform
-                        + ", retransformFailed=" + summary.failed
-                        + ", failedClasses=" + summary.failedClassNames + ")");
-            } else {
-                AgentLog.info("transformer registered (retransform=" + canRetransform + ")");
+            if (dynamic) {
+                // The SDK may be loaded already; retransforming it is the first target class and activates.
+                RetransformSummary summary = new RetransformSummary();
+                if (canRetransform) {
+                    summary = retransformLoadedTargets(inst, t.getTargetClassNames());
+                }
+                if (summary.failed > 0) {
+                    AgentLog.warn("transformer register failed partially (retransform=" + canRetransform
+                            + ", retransformFailed=" + summary.failed
+                            + ", failedClasses=" + summary.failedClassNames + ")");
+                }
+                if (summary.hit > 0 || OssSdkTransformer.isOssSdkVisible(ClassLoader.getSystemClassLoader())) {
+                    activate();
+                }
+            } else if (AgentConfig.getBoolean("prewarm", true)) {
+                startPrewarm(t);
             }
         } catch (Throwable t) {
             AgentLog.warn("failed to register transformer; agent remains passive", t);
         }
     }
 
-    private static RetransformSummary retransformLoadedTargets(Instrumentation inst, Set<String> targets) {
+    // Runs once, from the first transform of an OSS SDK class, the end of prewarm, an attach that finds the SDK,
+    // or a repeated attach. Callers of the transform path block here until the agent is ready for the SDK.
+    private static synchronized void activate() {
+        if (activated || transformer == null) {
+            return;
+        }
+        activated = true;
+        long startNanos = System.nanoTime();
+        applyLogConfig(true);
+        OffsetHistory.installFromConfig(AgentConfig.get("historyFile", null),
+                AgentConfig.getLong("historyRecords", 4096L));
+        OssTimeBridge.installClock(new RealTimeClock());
+        try {
+            AgentControl c = new AgentControl(instrumentation, transformer, retransformSupported);
+            c.applyConfig(false);
+            if (AgentConfig.getBoolean("jmx", false)) {
+                registerMBeans(c);
+            }
+            control = c;
+            startMetricsEndpoint();
+            long activateMicros = (System.nanoTime() - startNanos) / 1000L;
+            AgentLog.info("transformer registered (retransform=" + retransformSupported
+                    + ", mode=" + (attached ? "attach" : "premain")
+                    + ", ossSdkOnClasspath=" + OssSdkTransformer.isOssSdkVisible(ClassLoader.getSystemClassLoader())
+                    + (attached ? ", attach=" : ", premain=") + registerMicros + "us, activate="
+                    + activateMicros + "us)");
+        } catch (Throwable t) {
+            AgentLog.warn("failed to activate agent; patches stay in place without control", t);
+        } finally {
+            transformer.setFirstTargetListener(null);
+        }
+        if (attached) {
+            startBackgroundSync(AgentConfig.get("endpoint", null));
+        }
+    }
+
+    private static void applyLogConfig(boolean first) {
+        if (first || AgentConfig.hasAgentArg("logLevel")) {
+            AgentLog.setLevel(AgentConfig.get("logLevel", "info"));
+        }
+        if (first || AgentConfig.hasAgentArg("logAsync")) {
+            AgentLog.setAsync(AgentConfig.getBoolean("logAsync", true));
+        }
+        if (first || AgentConfig.hasAgentArg("logRateLimitMillis")) {
+            AgentLog.setRateLimitMillis(AgentConfig.getLong("logRateLimitMillis", 10000L));
+        }
+    }
+
+    private static void registerMBeans(AgentControl c) {
+        registerMBean(c, AgentControl.OBJECT_NAME);
+        registerMBean(new AgentStats(), AgentStats.OBJECT_NAME);
+    }
+
+    private static void registerMBean(Object bean, String objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(bean, name);
+            }
+        } catch (Throwable t) {
+            AgentLog.warn("failed to register MBean " + objectName, t);
+        }
+    }
+
+    private static synchronized void startMetricsEndpoint() {
+        int port = (int) AgentConfig.getLong("prometheusPort", 0L);
+        if (port <= 0 || metricsEndpoint != null) {
+            return;
+        }
+        try {
+            metricsEndpoint = MetricsEndpoint.start(AgentConfig.get("prometheusHost", "127.0.0.1"), port);
+        } catch (Throwable t) {
+            AgentLog.warn("failed to start prometheus endpoint on port " + port, t);
+        }
+    }
+
+    private static void startPrewarm(final OssSdkTransformer transformer) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                // Looking for a class that is absent opens every jar on the class path; keep that off premain.
+                if (!OssSdkTransformer.isOssSdkVisible(ClassLoader.getSystemClassLoader())) {
+                    return;
+                }
+                long t0 = System.nanoTime();
+                int warmed = transformer.prewarm(ClassLoader.getSystemClassLoader());
+                if (warmed > 0) {
+                    activate();
+                }
+                AgentLog.info("patch prewarm done (classes=" + warmed + ", took="
+                        + ((System.nanoTime() - t0) / 1000L) + "us)");
+            }
+        }, "oss-time-agent-prewarm");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    private static void startBackgroundSync(String endpoint) {
+        if (endpoint == null) {
+            AgentLog.info("no endpoint given on attach; clock will be synced before the next OSS request");
+            return;
+        }
+        final URI uri;
+        try {
+            uri = new URI(endpoint);
+        } catch (Exception e) {
+            AgentLog.warn("invalid endpoint for background sync: " + endpoint);
+            return;
+        }
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                OssTimeBridge.preSyncNow(uri);
+            }
+        }, "oss-time-agent-attach-sync");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    static RetransformSummary retransformLoadedTargets(Instrumentation inst, Set<String> targets) {
         RetransformSummary summary = new RetransformSummary();
         Class[] classes;
         try {
@@ -54,8 +257,7 @@ public final class OssTimeAgent {
             summary.failed++;
             return summary;
         }
-        int hit = 0;
-        int failed = 0;
+        List batch = new ArrayList();
         int i;
         for (i = 0; i < classes.length; i++) {
             Class c = classes[i];
@@ -66,26 +268,38 @@ public final class OssTimeAgent {
             if (!targets.contains(name)) {
                 continue;
             }
-            hit++;
+            summary.hit++;
+            if (inst.isModifiableClass(c)) {
+                batch.add(c);
+            } else {
+                summary.failed++;
+                summary.failedClassNames.add(c.getName() + "(not modifiable)");
+            }
+        }
+        if (batch.isEmpty()) {
+            return summary;
+        }
+        try {
+            inst.retransformClasses((Class[]) batch.toArray(new Class[batch.size()]));
+            return summary;
+        } catch (Throwable t) {
+            AgentLog.debug("batched retransform failed, retrying per class: " + t.toString());
+        }
+        // The JVM rejects the whole batch on the first failure; retry one by one to salvage the rest.
+        for (i = 0; i < batch.size(); i++) {
+            Class c = (Class) batch.get(i);
             try {
-                if (inst.isModifiableClass(c)) {
-                    inst.retransformClasses(new Class[] { c });
-                } else {
-                    failed++;
-                    summary.failedClassNames.add(c.getName() + "(not modifiable)");
-                }
+                inst.retransformClasses(new Class[] { c });
             } catch (Throwable t) {
-                failed++;
+                summary.failed++;
                 summary.failedClassNames.add(c.getName());
                 AgentLog.warn("retransform failed for " + c.getName(), t);
             }
         }
-        summary.hit = hit;
-        summary.failed = failed;
         return summary;
     }
 
-    private static final class RetransformSummary {
+    static final class RetransformSummary {
         int hit;
         int failed;
         final List failedClassNames = new ArrayList();
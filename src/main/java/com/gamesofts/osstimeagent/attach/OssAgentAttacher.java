@@ -0,0 +1,78 @@
+package com.gamesofts.osstimeagent.attach;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+// Loads the agent into a running JVM:
+//   java -cp oss-time-agent.jar com.gamesofts.osstimeagent.attach.OssAgentAttacher <pid> [agentArgs]
+// The attach API lives in tools.jar on JDK 8 and in the jdk.attach module on JDK 9+; it is resolved reflectively.
+public final class OssAgentAttacher {
+    private static final String VIRTUAL_MACHINE = "com.sun.tools.attach.VirtualMachine";
+
+    private OssAgentAttacher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: OssAgentAttacher <pid> [agentArgs]");
+            System.exit(2);
+            return;
+        }
+        String pid = args[0];
+        String agentArgs = args.length > 1 ? args[1] : null;
+        String jar = resolveAgentJar();
+        try {
+            attach(pid, jar, agentArgs);
+        } catch (Exception e) {
+            System.err.println("ATTACH_FAILED pid=" + pid + " " + e.getClass().getName() + ": " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.out.println("ATTACH_OK pid=" + pid + " agent=" + jar);
+    }
+
+    public static void attach(String pid, String agentJar, String agentArgs) throws Exception {
+        Class vmClass = loadVirtualMachineClass();
+        Object vm = invoke(vmClass.getMethod("attach", new Class[] { String.class }), null, new Object[] { pid });
+        try {
+            invoke(vmClass.getMethod("loadAgent", new Class[] { String.class, String.class }),
+                    vm, new Object[] { agentJar, agentArgs });
+        } finally {
+            invoke(vmClass.getMethod("detach", new Class[0]), vm, new Object[0]);
+        }
+    }
+
+    private static Object invoke(Method m, Object target, Object[] args) throws Exception {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static Class loadVirtualMachineClass() throws Exception {
+        try {
+            return Class.forName(VIRTUAL_MACHINE);
+        } catch (ClassNotFoundException e) {
+            File toolsJar = new File(System.getProperty("java.home"), "../lib/tools.jar");
+            if (!toolsJar.isFile()) {
+                throw new IllegalStateException("attach API unavailable; run with a JDK (not a JRE)", e);
+            }
+            ClassLoader loader = new URLClassLoader(new URL[] { toolsJar.toURI().toURL() },
+                    OssAgentAttacher.class.getClassLoader());
+            return Class.forName(VIRTUAL_MACHINE, true, loader);
+        }
+    }
+
+    private static String resolveAgentJar() throws Exception {
+        URL location = OssAgentAttacher.class.getProtectionDomain().getCodeSource().getLocation();
+        return new File(location.toURI()).getAbsolutePath();
+    }
+}
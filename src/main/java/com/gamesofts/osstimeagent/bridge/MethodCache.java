@@ -0,0 +1,52 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Public methods of SDK classes looked up once per class and name, misses included, so the per-request hooks do
+// not pay for getMethod. Each name is looked up with one signature only.
+final class MethodCache {
+    private static final Object NULL_REFLECTION = new Object();
+    private static final Class[] NO_PARAMS = new Class[0];
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final Map methods = new ConcurrentHashMap();
+
+    private MethodCache() {
+    }
+
+    static Method find(Class c, String name) {
+        return find(c, name, NO_PARAMS);
+    }
+
+    static Method find(Class c, String name, Class[] params) {
+        Map byName = (Map) methods.get(c);
+        if (byName == null) {
+            byName = new ConcurrentHashMap();
+            methods.put(c, byName);
+        }
+        Object cached = byName.get(name);
+        if (cached == null) {
+            try {
+                cached = c.getMethod(name, params);
+            } catch (Throwable t) {
+                cached = NULL_REFLECTION;
+            }
+            byName.put(name, cached);
+        }
+        return cached == NULL_REFLECTION ? null : (Method) cached;
+    }
+
+    // Result of target.name(), or null when the method is missing or throws.
+    static Object invoke(Object target, String name) {
+        Method m = find(target.getClass(), name);
+        if (m == null) {
+            return null;
+        }
+        try {
+            return m.invoke(target, NO_ARGS);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+}
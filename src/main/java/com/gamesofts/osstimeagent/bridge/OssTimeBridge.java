@@ -1,9 +1,15 @@
 package com.gamesofts.osstimeagent.bridge;
 
+import com.gamesofts.osstimeagent.history.OffsetHistory;
+import com.gamesofts.osstimeagent.metrics.AgentEvents;
+import com.gamesofts.osstimeagent.metrics.AgentMetrics;
+import com.gamesofts.osstimeagent.metrics.SyncSample;
 import com.gamesofts.osstimeagent.time.OssEndpointTimeSync;
 import com.gamesofts.osstimeagent.time.RealTimeClock;
 import com.gamesofts.osstimeagent.util.AgentLog;
 
+import java.io.BufferedInputStream;
+import java.io.InputStream;
 import java.net.URI;
 import java.lang.reflect.Method;
 import java.lang.reflect.Field;
@@ -16,7 +22,6 @@ import java.util.Map;
 import java.util.TimeZone;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class OssTimeBridge {
     interface EndpointTimeSyncer {
@@ -25,16 +30,31 @@ public final class OssTimeBridge {
 
     private static volatile RealTimeClock clock = new RealTimeClock();
     private static volatile boolean resignRetryWarned;
+    private static volatile boolean preSyncEnabled = true;
+    private static volatile boolean forcedSkewRetryEnabled = true;
+    private static volatile boolean resignRetryEnabled = true;
+    private static volatile boolean requestMetricsEnabled = true;
     private static volatile long lastConfigTickOffsetLogged = Long.MIN_VALUE;
+    // Upload guard: bodies this large (or not repeatable) are held for a sync when the clock is not trusted.
+    private static volatile long uploadGuardBytes = 64L * 1024L * 1024L;
+    private static volatile long uploadGuardMaxSyncAgeMillis = 60L * 60L * 1000L;
+    private static volatile long uploadGuardWaitMillis = 3000L;
+    private static volatile long lastSyncSuccessNanos;
+    private static volatile boolean skewSeenSinceSync;
+    private static volatile long expectContinueBytes;
+    private static volatile boolean presignEnabled = true;
+    private static volatile boolean credentialExpiryEnabled = true;
+    private static volatile long replayBufferBytes = 8L * 1024L * 1024L;
+    private static final ReplayChunkPool replayChunkPool = new ReplayChunkPool(64L * 1024L * 1024L);
     private static volatile EndpointTimeSyncer endpointTimeSyncer = new EndpointTimeSyncer() {
         public OssEndpointTimeSync.SyncResult sync(URI endpoint, RealTimeClock c) throws Exception {
             return new OssEndpointTimeSync().sync(endpoint, c);
         }
     };
-    private static final AtomicBoolean authoritativeClockReady = new AtomicBoolean(false);
-    private static final AtomicBoolean globalPreSyncSucceeded = new AtomicBoolean(false);
-    private static final AtomicBoolean globalPreSyncInFlight = new AtomicBoolean(false);
+    private static final PreSyncState preSyncState = new PreSyncState();
     private static final Object NULL_REFLECTION = new Object();
+    private static final String SKEW_ERROR_CODE = "RequestTimeTooSkewed";
+    private static final Class[] SET_CONTENT_PARAMS = new Class[] { InputStream.class };
     private static final Map signMethodCache = new ConcurrentHashMap();
     private static final Map signerParamsFieldCache = new ConcurrentHashMap();
     private static final Map signerParamsSetTickOffsetMethodCache = new ConcurrentHashMap();
@@ -68,13 +88,95 @@ public final class OssTimeBridge {
     }
 
     public static long resolveTickOffsetMillis(long sdkTickOffset) {
-        if (!authoritativeClockReady.get()) {
+        if (!preSyncState.isAuthoritativeClockReady()) {
             return sdkTickOffset;
         }
         return currentTickOffsetMillis();
     }
 
     public static void beforeInitialSign(Object serviceClient, Object requestMessage, Object executionContext) {
+        long t0 = System.nanoTime();
+        RequestTracker.current().firstAttemptStartNanos = t0;
+        try {
+            addExpectContinue(requestMessage);
+            // The upload guard decides on the body as the caller passed it, before the replay buffer makes an
+            // unmarkable stream look repeatable.
+            preSyncBeforeInitialSign(serviceClient, requestMessage, executionContext);
+            wrapReplayableContent(requestMessage);
+        } finally {
+            AgentMetrics.beforeInitialSign().recordSince(t0);
+        }
+    }
+
+    // Bodies of at least expectContinueBytes (or of unknown length) are sent with Expect: 100-continue, so a
+    // RequestTimeTooSkewed or auth rejection arrives after the headers instead of after the whole body. The SDK
+    // copies the message headers onto the HttpClient request, and retries keep the header since resigning only
+    // replaces the signature headers. Expect is not a signed header for V1 or V4.
+    private static void addExpectContinue(Object requestMessage) {
+        long threshold = expectContinueBytes;
+        if (threshold <= 0L || requestMessage == null) {
+            return;
+        }
+        Object length = MethodCache.invoke(requestMessage, "getContentLength");
+        if (!(length instanceof Long)) {
+            return;
+        }
+        long n = ((Long) length).longValue();
+        if (n < 0L) {
+            if (MethodCache.invoke(requestMessage, "getContent") == null) {
+                return;
+            }
+        } else if (n < threshold) {
+            return;
+        }
+        Object headersObj = MethodCache.invoke(requestMessage, "getHeaders");
+        if (!(headersObj instanceof Map)) {
+            return;
+        }
+        Map headers = (Map) headersObj;
+        if (headers.containsKey("Expect") || headers.containsKey("expect")) {
+            return;
+        }
+        try {
+            headers.put("Expect", "100-continue");
+            AgentMetrics.recordExpectContinue();
+        } catch (Throwable t) {
+            AgentLog.debug("Expect: 100-continue skipped: " + t.toString());
+        }
+    }
+
+    // Runs before sendRequestImpl marks the content. A stream without mark/reset makes the request non-repeatable,
+    // so the forced skew retry is skipped; a BufferedInputStream (the SDK's own wrapper for such streams) can only
+    // reset within the SDK's 512 KiB mark limit and otherwise fails the retry with "Failed to reset". Both are
+    // wrapped in a replay buffer of replayBufferBytes.
+    private static void wrapReplayableContent(Object requestMessage) {
+        long cap = replayBufferBytes;
+        if (cap <= 0L || requestMessage == null) {
+            return;
+        }
+        Object content = MethodCache.invoke(requestMessage, "getContent");
+        if (!(content instanceof InputStream) || content instanceof ReplayInputStream) {
+            return;
+        }
+        InputStream in = (InputStream) content;
+        try {
+            if (in.markSupported() && in.getClass() != BufferedInputStream.class) {
+                return;
+            }
+            Method setContent = MethodCache.find(requestMessage.getClass(), "setContent", SET_CONTENT_PARAMS);
+            if (setContent == null) {
+                return;
+            }
+            setContent.invoke(requestMessage, new Object[] { new ReplayInputStream(in, replayChunkPool, cap) });
+            AgentMetrics.recordReplayBufferStream();
+        } catch (Throwable t) {
+            if (AgentLog.isDebugEnabled()) {
+                AgentLog.debug("replay buffer skipped: " + t.toString());
+            }
+        }
+    }
+
+    private static void preSyncBeforeInitialSign(Object serviceClient, Object requestMessage, Object executionContext) {
         if (requestMessage == null) {
             return;
         }
@@ -93,13 +195,150 @@ public final class OssTimeBridge {
             AgentLog.debug("OSS pre-sync skipped: " + t.toString());
             return;
         }
-        if (globalPreSyncSucceeded.get()) {
+        if (!preSyncEnabled) {
+            return;
+        }
+        if (preSyncState.tryBeginFirstSync()) {
+            try {
+                runPreSync(endpoint, endpointKey, serviceClient, executionContext);
+            } finally {
+                preSyncState.endSync();
+            }
+            return;
+        }
+        if (!isClockConfident() && isGuardedUpload(requestMessage)) {
+            guardUpload(endpoint, endpointKey, serviceClient, executionContext);
+        }
+    }
+
+    // Low confidence: no successful sync yet, RequestTimeTooSkewed seen since the last one, or the last one is
+    // older than uploadGuardMaxSyncAgeMillis (0 = never stale).
+    static boolean isClockConfident() {
+        if (!preSyncState.isAuthoritativeClockReady() || skewSeenSinceSync) {
+            return false;
+        }
+        long maxAge = uploadGuardMaxSyncAgeMillis;
+        return maxAge <= 0L || System.nanoTime() - lastSyncSuccessNanos < maxAge * 1000000L;
+    }
+
+    // A body of at least uploadGuardBytes, or any body the SDK cannot replay: both would be sent in full only to
+    // be rejected when the clock is wrong, and the forced skew retry cannot help a non-repeatable one.
+    private static boolean isGuardedUpload(Object requestMessage) {
+        long threshold = uploadGuardBytes;
+        if (threshold <= 0L) {
+            return false;
+        }
+        Object length = MethodCache.invoke(requestMessage, "getContentLength");
+        if (length instanceof Long && ((Long) length).longValue() >= threshold) {
+            return true;
+        }
+        Object content = MethodCache.invoke(requestMessage, "getContent");
+        if (content == null) {
+            return false;
+        }
+        // A replay-wrapped body reports itself repeatable, but only a known length within the buffer can be
+        // replayed after a skew rejection.
+        if (content instanceof ReplayInputStream) {
+            long n = length instanceof Long ? ((Long) length).longValue() : -1L;
+            if (n < 0L || n > replayBufferBytes) {
+                return true;
+            }
+        }
+        return Boolean.FALSE.equals(MethodCache.invoke(requestMessage, "isRepeatable"));
+    }
+
+    // Syncs before signing, or waits for the sync already in flight: its clock update serves this request too,
+    // since signing resolves the tick offset from the agent clock. On failure or timeout the request goes ahead.
+    private static void guardUpload(URI endpoint, String endpointKey, Object serviceClient, Object executionContext) {
+        AgentMetrics.recordUploadGuardSync();
+        if (preSyncState.tryBeginSync()) {
+            try {
+                runPreSync(endpoint, endpointKey, serviceClient, executionContext);
+            } finally {
+                preSyncState.endSync();
+            }
             return;
         }
-        if (!globalPreSyncInFlight.compareAndSet(false, true)) {
+        if (!preSyncState.awaitSync(uploadGuardWaitMillis)) {
+            AgentLog.debug("upload guard: in-flight sync did not finish within " + uploadGuardWaitMillis + "ms");
+        }
+    }
+
+    // Entry of OSSClient.generatePresignedUrl / generatePostPolicy. Nothing is sent, so a process that only hands
+    // out URLs would never pre-sync; the first presign carries it instead, against the client's endpoint.
+    public static void beforePresign(Object ossClient) {
+        if (!presignEnabled || !preSyncEnabled || ossClient == null) {
+            return;
+        }
+        URI endpoint;
+        String endpointKey;
+        try {
+            Object e = ossClient.getClass().getMethod("getEndpoint", new Class[0]).invoke(ossClient, new Object[0]);
+            if (!(e instanceof URI)) {
+                return;
+            }
+            endpoint = (URI) e;
+            endpointKey = endpointKey(endpoint);
+            if (endpointKey == null || endpointKey.length() == 0) {
+                return;
+            }
+        } catch (Throwable t) {
+            AgentLog.debug("OSS presign pre-sync skipped: " + t.toString());
             return;
         }
+        if (preSyncState.tryBeginFirstSync()) {
+            try {
+                runPreSync(endpoint, endpointKey, null, null);
+            } finally {
+                preSyncState.endSync();
+            }
+        }
+    }
+
+    // Presign expirations are absolute instants the caller computed from the local clock (new Date(now + ttl));
+    // OSS compares them with its own clock. Moving them by the agent offset keeps the intended lifetime.
+    public static Date toServerTime(Date local) {
+        if (local == null || !presignEnabled || !preSyncState.isAuthoritativeClockReady()) {
+            return local;
+        }
+        return new Date(local.getTime() + currentTickOffsetMillis());
+    }
+
+    // Replaces the local "now" the V4 presigner puts into x-oss-date (and subtracts from the expiration).
+    public static Date presignNow(Date localNow) {
+        if (!presignEnabled || !preSyncState.isAuthoritativeClockReady()) {
+            return localNow;
+        }
+        return new Date(currentTimeMillis());
+    }
 
+    // Replaces System.currentTimeMillis() in InstanceProfileCredentials.willSoonExpire/isExpired, which compare it
+    // with the Expiration the ECS metadata (or custom session) service issued on the server clock.
+    public static long credentialTimeMillis() {
+        if (!credentialExpiryEnabled || !preSyncState.isAuthoritativeClockReady()) {
+            return System.currentTimeMillis();
+        }
+        return currentTimeMillis();
+    }
+
+    // Out-of-band sync used after a dynamic attach, when no request is around to carry the pre-sync.
+    public static boolean preSyncNow(URI endpoint) {
+        String endpointKey = endpointKey(endpoint);
+        if (endpointKey == null || endpointKey.length() == 0) {
+            return false;
+        }
+        if (!preSyncState.tryBeginSync()) {
+            return false;
+        }
+        try {
+            return runPreSync(endpoint, endpointKey, null, null);
+        } finally {
+            preSyncState.endSync();
+        }
+    }
+
+    private static boolean runPreSync(URI endpoint, String endpointKey, Object serviceClient, Object executionContext) {
+        Object event = AgentEvents.beginPreSync();
         try {
             EndpointTimeSyncer syncer = endpointTimeSyncer;
             RealTimeClock c = clock;
@@ -108,8 +347,15 @@ public final class OssTimeBridge {
                 long syncedNow = result.getEstimatedServerMillis();
                 long tickOffset = currentTickOffsetMillis();
                 boolean appliedToSdk = applyPreSyncTickOffset(serviceClient, executionContext, syncedNow, tickOffset);
-                authoritativeClockReady.set(true);
-                globalPreSyncSucceeded.set(true);
+                preSyncState.markSucceeded();
+                lastSyncSuccessNanos = System.nanoTime();
+                skewSeenSinceSync = false;
+                SyncSample sample = new SyncSample(endpointKey, result.getMethodUsed(),
+                        System.currentTimeMillis(), syncedNow, result.getRttMillis());
+                AgentMetrics.recordSyncSuccess(sample);
+                OffsetHistory.recordSync(sample.getOffsetMillis(), sample.getRttMillis(),
+                        sample.getUncertaintyMillis());
+                AgentEvents.endPreSync(event, endpointKey, result.getMethodUsed(), result.getRttMillis(), true, null);
                 if (appliedToSdk) {
                     onConfigTickOffsetUpdatedFromPreSync(tickOffset);
                 }
@@ -120,23 +366,36 @@ public final class OssTimeBridge {
                         + ", insecureHttps=" + result.isInsecureHttpsUsed()
                         + ", appliedToSdk=" + appliedToSdk
                         + (result.getMethodUsed() == null ? "" : ", method=" + result.getMethodUsed()));
-            } else {
-                String reason = result == null ? "sync result missing"
-                        : (result.getFailureReason() == null ? "missing Date header or unsupported response"
-                        : result.getFailureReason());
-                logPreSyncFailure(endpointKey, reason, isPreSyncInsecureHttpsUsed(endpoint, result));
+                return true;
             }
+            String reason = result == null ? "sync result missing"
+                    : (result.getFailureReason() == null ? "missing Date header or unsupported response"
+                    : result.getFailureReason());
+            AgentMetrics.recordSyncFailure(reason);
+            OffsetHistory.recordEvent(OffsetHistory.SOURCE_SYNC_FAILURE, currentTickOffsetMillis());
+            AgentEvents.endPreSync(event, endpointKey, result == null ? null : result.getMethodUsed(),
+                    result == null ? -1L : result.getRttMillis(), false, reason);
+            logPreSyncFailure(endpointKey, reason, isPreSyncInsecureHttpsUsed(endpoint, result));
         } catch (Throwable t) {
+            AgentMetrics.recordSyncFailure(t.toString());
+            OffsetHistory.recordEvent(OffsetHistory.SOURCE_SYNC_FAILURE, currentTickOffsetMillis());
+            AgentEvents.endPreSync(event, endpointKey, null, -1L, false, t.toString());
             logPreSyncFailure(endpointKey, t.toString(), false);
-        } finally {
-            globalPreSyncInFlight.set(false);
         }
+        return false;
     }
 
     public static void resignForRetry(Object serviceClient, Object requestMessage, Object executionContext, int retries) {
-        if (retries <= 0 || serviceClient == null || requestMessage == null || executionContext == null) {
+        if (retries > 0 && requestMetricsEnabled) {
+            RequestTracker.retrying(retries);
+        }
+        if (retries <= 0 || serviceClient == null || requestMessage == null || executionContext == null
+                || !resignRetryEnabled) {
             return;
         }
+        long t0 = System.nanoTime();
+        Object event = AgentEvents.beginResign();
+        boolean resigned = false;
         try {
             long currentOffset = getConfigTickOffset(serviceClient);
             long resolvedOffset = resolveTickOffsetMillis(currentOffset);
@@ -167,6 +426,8 @@ public final class OssTimeBridge {
                     }
                 }
             }
+            AgentMetrics.recordResign();
+            resigned = true;
         } catch (Throwable t) {
             if (!resignRetryWarned) {
                 resignRetryWarned = true;
@@ -174,9 +435,150 @@ public final class OssTimeBridge {
             } else {
                 AgentLog.debug("failed to re-sign OSS request before retry: " + t.toString());
             }
+        } finally {
+            AgentMetrics.resignForRetry().recordSince(t0);
+            AgentEvents.endResign(event, retries, resigned);
+        }
+    }
+
+    public static boolean shouldForceSkewRetry() {
+        if (!forcedSkewRetryEnabled) {
+            return false;
+        }
+        AgentMetrics.recordSkewRetry();
+        OffsetHistory.recordEvent(OffsetHistory.SOURCE_SKEW_RETRY, currentTickOffsetMillis());
+        RequestTracker.Scope scope = RequestTracker.current();
+        if (scope.firstAttemptStartNanos != 0L) {
+            long penalty = System.nanoTime() - scope.firstAttemptStartNanos;
+            AgentMetrics.skewRetryPenalty().record(penalty);
+            AgentEvents.skewRetry(penalty);
+            scope.firstAttemptStartNanos = 0L;
+        } else {
+            AgentEvents.skewRetry(-1L);
+        }
+        return true;
+    }
+
+    public static void onRequestStart(Object requestMessage) {
+        if (requestMetricsEnabled) {
+            RequestTracker.start();
+        }
+    }
+
+    public static void onRequestEnd(Object requestMessage, Object responseMessage) {
+        RequestTracker.finish(requestMessage, responseMessage, null);
+    }
+
+    public static void onRequestFailed(Object requestMessage, Throwable error) {
+        RequestTracker.finish(requestMessage, null, error);
+    }
+
+    // Called at the top of ServiceClient.shouldRetry for every failed attempt, retried or not. A skew rejection
+    // lowers clock confidence here, before the SDK's repeatability check, so a non-repeatable upload that cannot
+    // be retried still makes the upload guard sync the next one.
+    public static void onAttemptFailed(Object exception) {
+        if (exception != null && SKEW_ERROR_CODE.equals(MethodCache.invoke(exception, "getErrorCode"))) {
+            skewSeenSinceSync = true;
+        }
+        if (requestMetricsEnabled) {
+            RequestTracker.attemptFailed(exception);
         }
     }
 
+    public static boolean isPreSyncEnabled() {
+        return preSyncEnabled;
+    }
+
+    public static void setPreSyncEnabled(boolean enabled) {
+        preSyncEnabled = enabled;
+    }
+
+    public static boolean isForcedSkewRetryEnabled() {
+        return forcedSkewRetryEnabled;
+    }
+
+    public static void setForcedSkewRetryEnabled(boolean enabled) {
+        forcedSkewRetryEnabled = enabled;
+    }
+
+    public static boolean isResignRetryEnabled() {
+        return resignRetryEnabled;
+    }
+
+    public static void setResignRetryEnabled(boolean enabled) {
+        resignRetryEnabled = enabled;
+    }
+
+    public static boolean isRequestMetricsEnabled() {
+        return requestMetricsEnabled;
+    }
+
+    public static void setRequestMetricsEnabled(boolean enabled) {
+        requestMetricsEnabled = enabled;
+    }
+
+    public static long getUploadGuardBytes() {
+        return uploadGuardBytes;
+    }
+
+    public static long getUploadGuardMaxSyncAgeMillis() {
+        return uploadGuardMaxSyncAgeMillis;
+    }
+
+    public static long getUploadGuardWaitMillis() {
+        return uploadGuardWaitMillis;
+    }
+
+    // bytes <= 0 disables the upload guard; maxSyncAgeMillis <= 0 never treats a sync as stale.
+    public static void setUploadGuard(long bytes, long maxSyncAgeMillis, long waitMillis) {
+        uploadGuardBytes = bytes;
+        uploadGuardMaxSyncAgeMillis = maxSyncAgeMillis;
+        uploadGuardWaitMillis = waitMillis;
+    }
+
+    public static boolean isPresignEnabled() {
+        return presignEnabled;
+    }
+
+    public static void setPresignEnabled(boolean enabled) {
+        presignEnabled = enabled;
+    }
+
+    public static boolean isCredentialExpiryEnabled() {
+        return credentialExpiryEnabled;
+    }
+
+    public static void setCredentialExpiryEnabled(boolean enabled) {
+        credentialExpiryEnabled = enabled;
+    }
+
+    public static long getExpectContinueBytes() {
+        return expectContinueBytes;
+    }
+
+    // bytes <= 0 disables Expect: 100-continue injection.
+    public static void setExpectContinueBytes(long bytes) {
+        expectContinueBytes = bytes;
+    }
+
+    public static long getReplayBufferBytes() {
+        return replayBufferBytes;
+    }
+
+    public static long getReplayBufferPoolBytes() {
+        return replayChunkPool.getCapacityBytes();
+    }
+
+    // bytes <= 0 disables the replay buffer; poolBytes bounds the direct memory of all replay buffers together.
+    public static void setReplayBuffer(long bytes, long poolBytes) {
+        replayBufferBytes = bytes;
+        replayChunkPool.setCapacityBytes(Math.max(0L, poolBytes));
+    }
+
+    public static void setRequestMetricsPerBucket(boolean enabled) {
+        RequestTracker.setPerBucket(enabled);
+    }
+
     public static void onConfigTickOffsetUpdatedFromSdk(long offset) {
         Object suppressed = suppressSdkTickOffsetHook.get();
         if (Boolean.TRUE.equals(suppressed)) {
@@ -205,9 +607,9 @@ public final class OssTimeBridge {
     }
 
     static void resetPreSyncStateForTest() {
-        authoritativeClockReady.set(false);
-        globalPreSyncSucceeded.set(false);
-        globalPreSyncInFlight.set(false);
+        preSyncState.reset();
+        lastSyncSuccessNanos = 0L;
+        skewSeenSinceSync = false;
     }
 
     private static void clearSignatureHeaders(Object requestMessage) throws Exception {
@@ -0,0 +1,63 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Pre-sync handshake flags read on every signed request.
+final class PreSyncState {
+    private final AtomicBoolean authoritativeClockReady = new AtomicBoolean(false);
+    private final AtomicBoolean globalPreSyncSucceeded = new AtomicBoolean(false);
+    private final AtomicBoolean globalPreSyncInFlight = new AtomicBoolean(false);
+
+    boolean isAuthoritativeClockReady() {
+        return authoritativeClockReady.get();
+    }
+
+    boolean isSucceeded() {
+        return globalPreSyncSucceeded.get();
+    }
+
+    boolean tryBeginSync() {
+        return globalPreSyncInFlight.compareAndSet(false, true);
+    }
+
+    // Claims the pre-sync unless one already succeeded. Re-checks after winning the in-flight flag, so a sync that
+    // finished between the first check and the claim is not repeated. The caller must endSync() on true.
+    boolean tryBeginFirstSync() {
+        if (isSucceeded() || !tryBeginSync()) {
+            return false;
+        }
+        if (isSucceeded()) {
+            endSync();
+            return false;
+        }
+        return true;
+    }
+
+    // Waits for an in-flight sync to finish; false on timeout. Polls: waiters are rare (guarded uploads only).
+    boolean awaitSync(long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        while (globalPreSyncInFlight.get()) {
+            if (System.nanoTime() - deadline >= 0L) {
+                return false;
+            }
+            LockSupport.parkNanos(1000000L);
+        }
+        return true;
+    }
+
+    void endSync() {
+        globalPreSyncInFlight.set(false);
+    }
+
+    void markSucceeded() {
+        authoritativeClockReady.set(true);
+        globalPreSyncSucceeded.set(true);
+    }
+
+    void reset() {
+        authoritativeClockReady.set(false);
+        globalPreSyncSucceeded.set(false);
+        globalPreSyncInFlight.set(false);
+    }
+}
@@ -0,0 +1,62 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Process-wide pool of direct chunks backing the replay buffers. At most capacityBytes are ever allocated, in use
+// or idle, so the off-heap footprint stays bounded however many uploads run at once; when the pool is exhausted
+// acquire() returns null and the caller gives up buffering instead of waiting.
+final class ReplayChunkPool {
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ConcurrentLinkedQueue free = new ConcurrentLinkedQueue();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private volatile long capacityBytes;
+
+    ReplayChunkPool(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer b = (ByteBuffer) free.poll();
+        if (b != null) {
+            return b;
+        }
+        while (true) {
+            long allocated = allocatedBytes.get();
+            if (allocated + CHUNK_SIZE > capacityBytes) {
+                return null;
+            }
+            if (allocatedBytes.compareAndSet(allocated, allocated + CHUNK_SIZE)) {
+                return ByteBuffer.allocateDirect(CHUNK_SIZE);
+            }
+        }
+    }
+
+    void release(ByteBuffer b) {
+        // After the capacity was lowered, chunks above it are dropped rather than kept idle.
+        if (allocatedBytes.get() > capacityBytes) {
+            allocatedBytes.addAndGet(-CHUNK_SIZE);
+            return;
+        }
+        b.clear();
+        free.offer(b);
+    }
+
+    long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    void setCapacityBytes(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+        ByteBuffer b;
+        while (allocatedBytes.get() > capacityBytes && (b = (ByteBuffer) free.poll()) != null) {
+            allocatedBytes.addAndGet(-CHUNK_SIZE);
+        }
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+}
@@ -0,0 +1,157 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import com.gamesofts.osstimeagent.metrics.AgentMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Request body wrapper that records what is read after mark() into pooled direct chunks, up to capBytes, so the
+// SDK can reset() and resend a stream it could not otherwise replay. Once more than capBytes were read since the
+// mark, or the pool runs dry, the recording is dropped and markSupported() turns false: the SDK then sees a
+// non-repeatable request and fails with the original error rather than a failed reset. readlimit is ignored in
+// favour of capBytes, which the mark() contract allows. Used by one request thread at a time.
+final class ReplayInputStream extends InputStream {
+    private final InputStream in;
+    private final ReplayChunkPool pool;
+    private final long capBytes;
+    private final List chunks = new ArrayList();
+    private final byte[] single = new byte[1];
+    // Bytes recorded since the mark, the read position within them, and where reset() returns to.
+    private long recorded;
+    private long pos;
+    private long markPos;
+    private boolean marked;
+    private boolean overflowed;
+    private boolean closed;
+
+    ReplayInputStream(InputStream in, ReplayChunkPool pool, long capBytes) {
+        this.in = in;
+        this.pool = pool;
+        this.capBytes = capBytes;
+    }
+
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return n <= 0 ? -1 : single[0] & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos < recorded) {
+            int n = (int) Math.min(len, recorded - pos);
+            copyOut(pos, b, off, n);
+            pos += n;
+            return n;
+        }
+        int n = in.read(b, off, len);
+        if (n > 0 && marked && !overflowed) {
+            record(b, off, n);
+        }
+        return n;
+    }
+
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, (recorded - pos) + in.available());
+    }
+
+    public boolean markSupported() {
+        return !overflowed && !closed;
+    }
+
+    public void mark(int readlimit) {
+        if (overflowed || closed) {
+            return;
+        }
+        if (pos == recorded) {
+            releaseChunks();
+            recorded = 0L;
+            pos = 0L;
+        }
+        markPos = pos;
+        marked = true;
+    }
+
+    public void reset() throws IOException {
+        if (overflowed) {
+            throw new IOException("replay buffer exceeded " + capBytes + " bytes");
+        }
+        if (!marked || closed) {
+            throw new IOException("reset without mark");
+        }
+        pos = markPos;
+        AgentMetrics.recordReplayBufferReset();
+    }
+
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        releaseChunks();
+        in.close();
+    }
+
+    private void record(byte[] b, int off, int n) {
+        if (recorded + n > capBytes) {
+            overflow();
+            return;
+        }
+        int done = 0;
+        while (done < n) {
+            int idx = (int) (recorded / ReplayChunkPool.CHUNK_SIZE);
+            if (idx == chunks.size()) {
+                ByteBuffer fresh = pool.acquire();
+                if (fresh == null) {
+                    overflow();
+                    return;
+                }
+                chunks.add(fresh);
+            }
+            ByteBuffer c = (ByteBuffer) chunks.get(idx);
+            int at = (int) (recorded % ReplayChunkPool.CHUNK_SIZE);
+            int k = Math.min(n - done, ReplayChunkPool.CHUNK_SIZE - at);
+            c.clear();
+            c.position(at);
+            c.put(b, off + done, k);
+            recorded += k;
+            done += k;
+        }
+        pos = recorded;
+    }
+
+    private void copyOut(long from, byte[] b, int off, int n) {
+        int done = 0;
+        while (done < n) {
+            long p = from + done;
+            ByteBuffer c = (ByteBuffer) chunks.get((int) (p / ReplayChunkPool.CHUNK_SIZE));
+            int at = (int) (p % ReplayChunkPool.CHUNK_SIZE);
+            int k = Math.min(n - done, ReplayChunkPool.CHUNK_SIZE - at);
+            c.clear();
+            c.position(at);
+            c.get(b, off + done, k);
+            done += k;
+        }
+    }
+
+    private void overflow() {
+        overflowed = true;
+        marked = false;
+        releaseChunks();
+        recorded = 0L;
+        pos = 0L;
+        AgentMetrics.recordReplayBufferOverflow();
+    }
+
+    private void releaseChunks() {
+        int i;
+        for (i = 0; i < chunks.size(); i++) {
+            pool.release((ByteBuffer) chunks.get(i));
+        }
+        chunks.clear();
+    }
+}
@@ -0,0 +1,160 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import com.gamesofts.osstimeagent.metrics.RequestMetrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-thread bookkeeping for the OSS request currently inside ServiceClient.sendRequestImpl. The SDK sends a
+// request synchronously on the calling thread, so one reused scope per thread is enough.
+final class RequestTracker {
+    private static final ThreadLocal scopes = new ThreadLocal() {
+        protected Object initialValue() {
+            return new Scope();
+        }
+    };
+    // Caps each per-operation bucket map; past it the bucket suffix is concatenated per request.
+    static final int MAX_BUCKET_KEYS = 256;
+    private static final Object NO_VALUE = new Object();
+    // original request class -> (HTTP method -> "PUT PutObject"), and that key -> (bucket -> key with bucket)
+    private static final Map operationKeys = new ConcurrentHashMap();
+    private static final Map bucketKeys = new ConcurrentHashMap();
+    private static volatile boolean perBucket;
+
+    private RequestTracker() {
+    }
+
+    static final class Scope {
+        long requestStartNanos;
+        long firstAttemptStartNanos;
+        int retries;
+        String lastFailure;
+    }
+
+    static Scope current() {
+        return (Scope) scopes.get();
+    }
+
+    static void setPerBucket(boolean enabled) {
+        perBucket = enabled;
+    }
+
+    static void start() {
+        Scope s = current();
+        s.requestStartNanos = System.nanoTime();
+        s.retries = 0;
+        s.lastFailure = null;
+    }
+
+    static void attemptFailed(Object exception) {
+        current().lastFailure = errorCodeOf(exception);
+    }
+
+    static void retrying(int retries) {
+        Scope s = current();
+        s.retries = retries;
+        RequestMetrics.recordRetry(s.lastFailure);
+    }
+
+    static void finish(Object requestMessage, Object responseMessage, Throwable error) {
+        Scope s = current();
+        long start = s.requestStartNanos;
+        if (start == 0L) {
+            return;
+        }
+        s.requestStartNanos = 0L;
+        long nanos = System.nanoTime() - start;
+        try {
+            RequestMetrics.recordRequest(operationKey(requestMessage), nanos,
+                    error == null ? null : errorCodeOf(error), s.retries,
+                    contentLength(requestMessage), contentLength(responseMessage));
+        } catch (Throwable ignore) {
+            // Metrics must never turn a finished request into a failed one.
+        }
+    }
+
+    // "PUT PutObject" from the HTTP method and the original request class (calls built on GenericRequest show up
+    // as e.g. "DELETE Generic"), optionally suffixed with " bucket=<name>".
+    static String operationKey(Object requestMessage) {
+        if (requestMessage == null) {
+            return "unknown";
+        }
+        Object method = invoke(requestMessage, "getMethod");
+        Object original = invoke(requestMessage, "getOriginalRequest");
+        String key = cachedKey(original == null ? NO_VALUE : original.getClass(), method);
+        if (perBucket) {
+            Object bucket = invoke(requestMessage, "getBucket");
+            if (bucket != null) {
+                key = bucketKey(key, bucket);
+            }
+        }
+        return key;
+    }
+
+    // Built once per (request class, method); both come from small fixed sets, so the map stays small.
+    private static String cachedKey(Object type, Object method) {
+        Map byMethod = (Map) operationKeys.get(type);
+        if (byMethod == null) {
+            byMethod = new ConcurrentHashMap();
+            operationKeys.put(type, byMethod);
+        }
+        Object m = method == null ? NO_VALUE : method;
+        String key = (String) byMethod.get(m);
+        if (key == null) {
+            key = (method == null ? "?" : method.toString()) + " "
+                    + (type == NO_VALUE ? "Raw" : operationName((Class) type));
+            byMethod.put(m, key);
+        }
+        return key;
+    }
+
+    private static String bucketKey(String key, Object bucket) {
+        Map byBucket = (Map) bucketKeys.get(key);
+        if (byBucket == null) {
+            byBucket = new ConcurrentHashMap();
+            bucketKeys.put(key, byBucket);
+        }
+        String full = (String) byBucket.get(bucket);
+        if (full == null) {
+            full = key + " bucket=" + bucket;
+            if (byBucket.size() < MAX_BUCKET_KEYS) {
+                byBucket.put(bucket, full);
+            }
+        }
+        return full;
+    }
+
+    static String errorCodeOf(Object error) {
+        if (error == null) {
+            return null;
+        }
+        Object code = invoke(error, "getErrorCode");
+        if (code instanceof String && ((String) code).length() > 0 && !"Unknown".equals(code)) {
+            return (String) code;
+        }
+        // ClientException defaults to "Unknown"; the wrapped I/O exception says more.
+        Object cause = error instanceof Throwable ? ((Throwable) error).getCause() : null;
+        return simpleName(cause != null ? cause.getClass() : error.getClass());
+    }
+
+    private static String simpleName(Class c) {
+        return c.getName().substring(c.getName().lastIndexOf('.') + 1);
+    }
+
+    private static String operationName(Class c) {
+        String name = simpleName(c);
+        if (name.endsWith("Request") && name.length() > "Request".length()) {
+            name = name.substring(0, name.length() - "Request".length());
+        }
+        return name;
+    }
+
+    private static long contentLength(Object httpMessage) {
+        Object v = httpMessage == null ? null : invoke(httpMessage, "getContentLength");
+        return v instanceof Long ? ((Long) v).longValue() : -1L;
+    }
+
+    private static Object invoke(Object target, String name) {
+        return MethodCache.invoke(target, name);
+    }
+}
@@ -0,0 +1,192 @@
+package com.gamesofts.osstimeagent.history;
+
+import com.gamesofts.osstimeagent.util.AgentLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Flight recorder of the agent's clock offset: fixed-size records in a memory-mapped ring file (historyFile=<path>).
+// Writers claim a sequence number with one atomic increment and fill their slot with absolute puts, so recording
+// never locks. The data lives in the page cache as soon as it is written and survives the JVM crashing; a
+// per-record checksum lets the reader skip a slot torn by a crash mid-write.
+public final class OffsetHistory {
+    public static final int SOURCE_SYNC = 1;
+    public static final int SOURCE_SYNC_FAILURE = 2;
+    public static final int SOURCE_CLOCK_STEP = 3;
+    public static final int SOURCE_CLOCK_STEP_AUTHORITATIVE = 4;
+    public static final int SOURCE_WALL_CLOCK_JUMP = 5;
+    public static final int SOURCE_SKEW_RETRY = 6;
+
+    static final int MAGIC = 0x4F544148; // "OTAH"
+    static final int FORMAT = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 48;
+    // Keeps slot offsets within an int and the file within one mapping.
+    static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+    // Local wall clock vs monotonic disagreement between two syncs that counts as a jump.
+    private static final long JUMP_THRESHOLD_MILLIS = 1000L;
+
+    private static volatile OffsetHistory installed;
+
+    private final MappedByteBuffer buf;
+    private final int capacity;
+    private final AtomicLong nextSeq;
+    private long lastSyncWallMillis;
+    private long lastSyncNanos;
+
+    private OffsetHistory(MappedByteBuffer buf, int capacity, long lastSeq) {
+        this.buf = buf;
+        this.capacity = capacity;
+        this.nextSeq = new AtomicLong(lastSeq + 1L);
+    }
+
+    public static OffsetHistory open(File file, int capacity) throws IOException {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("history capacity must be 1.." + MAX_CAPACITY + ": " + capacity);
+        }
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            boolean reuse = raf.length() == size && headerMatches(raf, capacity);
+            if (!reuse) {
+                raf.setLength(0L);
+                raf.setLength(size);
+            }
+            MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, size);
+            if (!reuse) {
+                map.putInt(0, MAGIC);
+                map.putInt(4, FORMAT);
+                map.putInt(8, RECORD_SIZE);
+                map.putInt(12, capacity);
+                map.putLong(16, System.currentTimeMillis());
+            }
+            return new OffsetHistory(map, capacity, reuse ? maxSeq(map, capacity) : 0L);
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static void install(OffsetHistory history) {
+        installed = history;
+    }
+
+    public static OffsetHistory installed() {
+        return installed;
+    }
+
+    // Static entry points used by the agent's hooks; no-ops unless a history file is installed. They never throw:
+    // a failing flight recorder must not fail the OSS request whose sync it was recording.
+    public static void recordSync(long offsetMillis, long rttMillis, long uncertaintyMillis) {
+        OffsetHistory h = installed;
+        if (h == null) {
+            return;
+        }
+        try {
+            h.append(SOURCE_SYNC, offsetMillis, rttMillis, uncertaintyMillis);
+            h.checkWallClockJump();
+        } catch (Throwable t) {
+            AgentLog.debug("offset history record failed: " + t.toString());
+        }
+    }
+
+    public static void recordEvent(int source, long offsetMillis) {
+        OffsetHistory h = installed;
+        if (h == null) {
+            return;
+        }
+        try {
+            h.append(source, offsetMillis, -1L, -1L);
+        } catch (Throwable t) {
+            AgentLog.debug("offset history record failed: " + t.toString());
+        }
+    }
+
+    public void append(int source, long offsetMillis, long rttMillis, long uncertaintyMillis) {
+        long seq = nextSeq.getAndIncrement();
+        int base = HEADER_SIZE + (int) (seq % capacity) * RECORD_SIZE;
+        long wall = System.currentTimeMillis();
+        // Zero the sequence first so a crash mid-write leaves an empty slot rather than mixed old/new fields.
+        buf.putLong(base, 0L);
+        buf.putLong(base + 8, wall);
+        buf.putLong(base + 16, offsetMillis);
+        buf.putLong(base + 24, rttMillis);
+        buf.putLong(base + 32, uncertaintyMillis);
+        buf.putInt(base + 40, source);
+        buf.putInt(base + 44, checksum(seq, wall, offsetMillis, rttMillis, uncertaintyMillis, source));
+        buf.putLong(base, seq);
+    }
+
+    // Forces dirty pages to disk; only needed to survive an OS crash, not a JVM crash.
+    public void force() {
+        buf.force();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Compares how far the wall clock and the monotonic clock moved since the previous sync; a mismatch means
+    // the host clock was stepped (NTP, manual change, VM resume) in between.
+    private void checkWallClockJump() {
+        long wall = System.currentTimeMillis();
+        long nanos = System.nanoTime();
+        long jump;
+        synchronized (this) {
+            jump = lastSyncNanos == 0L ? 0L
+                    : (wall - lastSyncWallMillis) - (nanos - lastSyncNanos) / 1000000L;
+            lastSyncWallMillis = wall;
+            lastSyncNanos = nanos;
+        }
+        if (Math.abs(jump) >= JUMP_THRESHOLD_MILLIS) {
+            append(SOURCE_WALL_CLOCK_JUMP, jump, -1L, -1L);
+        }
+    }
+
+    static int checksum(long seq, long wall, long offset, long rtt, long uncertainty, int source) {
+        long h = seq * 0x9E3779B97F4A7C15L;
+        h = (h ^ wall) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ offset) * 0x165667B19E3779F9L;
+        h = (h ^ rtt) * 0x9E3779B97F4A7C15L;
+        h = (h ^ uncertainty) * 0xC2B2AE3D27D4EB4FL;
+        h = (h ^ source) * 0x165667B19E3779F9L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static boolean headerMatches(RandomAccessFile raf, int capacity) throws IOException {
+        raf.seek(0L);
+        return raf.readInt() == MAGIC && raf.readInt() == FORMAT && raf.readInt() == RECORD_SIZE
+                && raf.readInt() == capacity;
+    }
+
+    private static long maxSeq(MappedByteBuffer map, int capacity) {
+        long max = 0L;
+        int i;
+        for (i = 0; i < capacity; i++) {
+            long seq = map.getLong(HEADER_SIZE + i * RECORD_SIZE);
+            if (seq > max) {
+                max = seq;
+            }
+        }
+        return max;
+    }
+
+    public static void installFromConfig(String path, long capacity) {
+        if (path == null || path.length() == 0) {
+            return;
+        }
+        if (capacity < 1L || capacity > MAX_CAPACITY) {
+            AgentLog.warn("offset history disabled: historyRecords must be 1.." + MAX_CAPACITY + ", got " + capacity);
+            return;
+        }
+        try {
+            install(open(new File(path), (int) capacity));
+            AgentLog.info("offset history recording to " + path + " (records=" + capacity + ")");
+        } catch (Throwable t) {
+            AgentLog.warn("failed to open offset history file " + path, t);
+        }
+    }
+}
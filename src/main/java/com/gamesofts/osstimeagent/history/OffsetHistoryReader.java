@@ -0,0 +1,148 @@
+package com.gamesofts.osstimeagent.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+// Decodes an offset history ring file, oldest record first:
+//   java -cp oss-time-agent.jar com.gamesofts.osstimeagent.history.OffsetHistoryReader <file>
+public final class OffsetHistoryReader {
+    private OffsetHistoryReader() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("usage: OffsetHistoryReader <historyFile>");
+            System.exit(2);
+            return;
+        }
+        List records = read(new File(args[0]));
+        int i;
+        for (i = 0; i < records.size(); i++) {
+            System.out.println(records.get(i));
+        }
+    }
+
+    public static List read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buf;
+        try {
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, raf.length());
+        } finally {
+            raf.close();
+        }
+        if (buf.limit() < OffsetHistory.HEADER_SIZE || buf.getInt(0) != OffsetHistory.MAGIC) {
+            throw new IOException("not an offset history file: " + file);
+        }
+        if (buf.getInt(4) != OffsetHistory.FORMAT || buf.getInt(8) != OffsetHistory.RECORD_SIZE) {
+            throw new IOException("unsupported offset history format " + buf.getInt(4) + " in " + file);
+        }
+        int capacity = buf.getInt(12);
+        List out = new ArrayList();
+        int i;
+        for (i = 0; i < capacity; i++) {
+            int base = OffsetHistory.HEADER_SIZE + i * OffsetHistory.RECORD_SIZE;
+            if (base + OffsetHistory.RECORD_SIZE > buf.limit()) {
+                break;
+            }
+            long seq = buf.getLong(base);
+            if (seq == 0L) {
+                continue;
+            }
+            Record r = new Record(seq, buf.getLong(base + 8), buf.getInt(base + 40), buf.getLong(base + 16),
+                    buf.getLong(base + 24), buf.getLong(base + 32));
+            int expected = OffsetHistory.checksum(seq, r.wallTimeMillis, r.offsetMillis, r.rttMillis,
+                    r.uncertaintyMillis, r.source);
+            if (expected == buf.getInt(base + 44)) {
+                out.add(r);
+            }
+        }
+        Collections.sort(out, new Comparator() {
+            public int compare(Object a, Object b) {
+                long x = ((Record) a).seq;
+                long y = ((Record) b).seq;
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        return out;
+    }
+
+    public static String sourceName(int source) {
+        switch (source) {
+            case OffsetHistory.SOURCE_SYNC:
+                return "sync";
+            case OffsetHistory.SOURCE_SYNC_FAILURE:
+                return "sync-failure";
+            case OffsetHistory.SOURCE_CLOCK_STEP:
+                return "clock-step";
+            case OffsetHistory.SOURCE_CLOCK_STEP_AUTHORITATIVE:
+                return "clock-step-authoritative";
+            case OffsetHistory.SOURCE_WALL_CLOCK_JUMP:
+                return "wall-clock-jump";
+            case OffsetHistory.SOURCE_SKEW_RETRY:
+                return "skew-retry";
+            default:
+                return "source-" + source;
+        }
+    }
+
+    public static final class Record {
+        private final long seq;
+        private final long wallTimeMillis;
+        private final int source;
+        private final long offsetMillis;
+        private final long rttMillis;
+        private final long uncertaintyMillis;
+
+        Record(long seq, long wallTimeMillis, int source, long offsetMillis, long rttMillis, long uncertaintyMillis) {
+            this.seq = seq;
+            this.wallTimeMillis = wallTimeMillis;
+            this.source = source;
+            this.offsetMillis = offsetMillis;
+            this.rttMillis = rttMillis;
+            this.uncertaintyMillis = uncertaintyMillis;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public long getWallTimeMillis() {
+            return wallTimeMillis;
+        }
+
+        public int getSource() {
+            return source;
+        }
+
+        public long getOffsetMillis() {
+            return offsetMillis;
+        }
+
+        public long getRttMillis() {
+            return rttMillis;
+        }
+
+        public long getUncertaintyMillis() {
+            return uncertaintyMillis;
+        }
+
+        public String toString() {
+            SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            f.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return seq + " " + f.format(new Date(wallTimeMillis)) + " " + sourceName(source)
+                    + " offset=" + offsetMillis + "ms"
+                    + (rttMillis < 0L ? "" : " rtt=" + rttMillis + "ms")
+                    + (uncertaintyMillis < 0L ? "" : " uncertainty=" + uncertaintyMillis + "ms");
+        }
+    }
+}
@@ -2,12 +2,19 @@ package com.gamesofts.osstimeagent.instrument;
 
 import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher;
 import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher.PatchStats;
+import com.gamesofts.osstimeagent.metrics.AgentMetrics;
+import com.gamesofts.osstimeagent.util.AgentConfig;
 import com.gamesofts.osstimeagent.util.AgentLog;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.security.ProtectionDomain;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
 
 public final class OssSdkTransformer implements ClassFileTransformer {
@@ -18,9 +25,28 @@ public final class OssSdkTransformer implements ClassFileTransformer {
         s.add("com/aliyun/oss/internal/OSSOperation");
         s.add("com/aliyun/oss/common/comm/ServiceClient");
         s.add("com/aliyun/oss/ClientConfiguration");
+        s.add("com/aliyun/oss/OSSClient");
+        s.add("com/aliyun/oss/internal/SignUtils");
+        s.add("com/aliyun/oss/internal/SignV2Utils");
+        s.add("com/aliyun/oss/internal/OSSObjectOperation");
+        s.add("com/aliyun/oss/internal/signer/OSSV4Signer");
+        s.add("com/aliyun/oss/common/auth/InstanceProfileCredentials");
         TARGET_CLASS_NAMES = Collections.unmodifiableSet(s);
     }
 
+    // Created on first use: building it reads the agent manifest, which premain need not pay for.
+    private volatile PatchCache patchCache;
+    private volatile boolean enabled = true;
+    private volatile Runnable firstTargetListener;
+
+    public OssSdkTransformer() {
+        this(null);
+    }
+
+    OssSdkTransformer(PatchCache patchCache) {
+        this.patchCache = patchCache;
+    }
+
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
                             ProtectionDomain protectionDomain, byte[] classfileBuffer) {
         if (className == null || classfileBuffer == null) {
@@ -29,16 +55,139 @@ public final class OssSdkTransformer implements ClassFileTransformer {
         if (!TARGET_CLASS_NAMES.contains(className)) {
             return null;
         }
+        Runnable listener = firstTargetListener;
+        if (listener != null) {
+            try {
+                listener.run();
+            } catch (Throwable t) {
+                AgentLog.warn("first OSS SDK class hook failed", t);
+            }
+        }
+        if (!enabled) {
+            // On retransform this hands the original class file back to the JVM.
+            return null;
+        }
         try {
-            PatchStats stats = new PatchStats();
-            return OssAsmPatcher.patch(className, classfileBuffer, stats);
+            PatchCache cache = patchCache();
+            String key = cache.keyOf(className, classfileBuffer);
+            PatchCache.Entry entry = cache.get(key);
+            if (entry != null) {
+                AgentLog.debug("patch cache hit for " + className.replace('/', '.'));
+                AgentMetrics.recordPatchOutcome(className.replace('/', '.'), String.valueOf(entry.getStats()));
+                return entry.getPatchedBytes();
+            }
+            PatchCache.Entry patched = patchAndCache(key, className, classfileBuffer);
+            AgentMetrics.recordPatchOutcome(className.replace('/', '.'), String.valueOf(patched.getStats()));
+            return patched.getPatchedBytes();
         } catch (Throwable t) {
             AgentLog.warn("failed to patch class " + className.replace('/', '.'), t);
             return null;
         }
     }
 
+    // Runs the patcher ahead of the first real class load so ASM is initialized and the cache is warm
+    // by the time the application's class-loading lock is held. Returns the number of classes warmed.
+    public int prewarm(ClassLoader loader) {
+        int warmed = 0;
+        for (Iterator<String> it = TARGET_CLASS_NAMES.iterator(); it.hasNext();) {
+            String className = it.next();
+            try {
+                byte[] bytes = readResource(loader, className + ".class");
+                if (bytes == null) {
+                    continue;
+                }
+                PatchCache cache = patchCache();
+                String key = cache.keyOf(className, bytes);
+                if (cache.get(key) == null) {
+                    patchAndCache(key, className, bytes);
+                }
+                warmed++;
+            } catch (Throwable t) {
+                AgentLog.debug("patch prewarm skipped for " + className.replace('/', '.') + ": " + t.toString());
+            }
+        }
+        return warmed;
+    }
+
+    public static boolean isOssSdkVisible(ClassLoader loader) {
+        try {
+            return loader != null && loader.getResource("com/aliyun/oss/common/comm/ServiceClient.class") != null;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private PatchCache.Entry patchAndCache(String key, String className, byte[] classfileBuffer) {
+        long t0 = System.nanoTime();
+        PatchStats stats = new PatchStats();
+        byte[] patched = OssAsmPatcher.patch(className, classfileBuffer, stats);
+        PatchCache.Entry entry = new PatchCache.Entry(patched, stats);
+        patchCache().put(key, entry);
+        AgentLog.debug("patched " + className.replace('/', '.') + " in " + ((System.nanoTime() - t0) / 1000L)
+                + "us (modified=" + stats.classModified + ")");
+        return entry;
+    }
+
+    private static byte[] readResource(ClassLoader loader, String resource) throws IOException {
+        InputStream in = loader.getResourceAsStream(resource);
+        if (in == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (;;) {
+                int n = in.read(buf);
+                if (n < 0) {
+                    break;
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // Run on every target class until cleared; the agent clears it once it has activated.
+    public void setFirstTargetListener(Runnable listener) {
+        this.firstTargetListener = listener;
+    }
+
     public Set<String> getTargetClassNames() {
         return TARGET_CLASS_NAMES;
     }
+
+    private PatchCache patchCache() {
+        PatchCache c = patchCache;
+        if (c == null) {
+            synchronized (this) {
+                c = patchCache;
+                if (c == null) {
+                    c = createDefaultPatchCache();
+                    patchCache = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private static PatchCache createDefaultPatchCache() {
+        String dir = AgentConfig.get("cacheDir", null);
+        String version = null;
+        try {
+            Package p = OssSdkTransformer.class.getPackage();
+            version = p == null ? null : p.getImplementationVersion();
+        } catch (Throwable ignore) {
+        }
+        return new PatchCache(dir == null ? null : new File(dir), version);
+    }
 }
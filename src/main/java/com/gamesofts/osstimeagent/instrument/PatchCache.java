@@ -0,0 +1,246 @@
+package com.gamesofts.osstimeagent.instrument;
+
+import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher;
+import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher.PatchStats;
+import com.gamesofts.osstimeagent.util.AgentLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+public final class PatchCache {
+    private static final int FILE_MAGIC = 0x4F544143; // "OTAC"
+    private static final int FILE_FORMAT = 2;
+    private static final int MAX_PATCHED_BYTES = 16 * 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Map entries = new ConcurrentHashMap();
+    private final File dir;
+    private final String version;
+    private volatile boolean diskWriteWarned;
+
+    public PatchCache(File dir, String agentVersion) {
+        this.dir = dir;
+        this.version = (agentVersion == null ? "dev" : agentVersion) + "/r" + OssAsmPatcher.PATCH_REVISION;
+    }
+
+    public static final class Entry {
+        private final byte[] patchedBytes;
+        private final PatchStats stats;
+
+        public Entry(byte[] patchedBytes, PatchStats stats) {
+            this.patchedBytes = patchedBytes;
+            this.stats = stats;
+        }
+
+        // null when the patcher left the class untouched.
+        public byte[] getPatchedBytes() {
+            return patchedBytes;
+        }
+
+        public PatchStats getStats() {
+            return stats;
+        }
+    }
+
+    public String keyOf(String className, byte[] classfileBuffer) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        md.update(version.getBytes("UTF-8"));
+        md.update((byte) 0);
+        md.update(className.getBytes("UTF-8"));
+        md.update((byte) 0);
+        md.update(classfileBuffer);
+        byte[] digest = md.digest();
+        char[] out = new char[digest.length * 2];
+        int i;
+        for (i = 0; i < digest.length; i++) {
+            out[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+            out[i * 2 + 1] = HEX[digest[i] & 0x0F];
+        }
+        return new String(out);
+    }
+
+    public Entry get(String key) {
+        Entry e = (Entry) entries.get(key);
+        if (e != null || dir == null) {
+            return e;
+        }
+        e = readFromDisk(key);
+        if (e != null) {
+            entries.put(key, e);
+        }
+        return e;
+    }
+
+    public void put(String key, Entry entry) {
+        entries.put(key, entry);
+        if (dir != null) {
+            writeToDisk(key, entry);
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    private Entry readFromDisk(String key) {
+        File f = new File(dir, key + ".patch");
+        if (!f.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_FORMAT) {
+                return null;
+            }
+            PatchStats stats = decodeStats(in.readInt());
+            int len = in.readInt();
+            byte[] patched = null;
+            if (len >= 0) {
+                if (len > MAX_PATCHED_BYTES) {
+                    return null;
+                }
+                patched = new byte[len];
+                in.readFully(patched);
+                CRC32 crc = new CRC32();
+                crc.update(patched);
+                if (in.readLong() != crc.getValue()) {
+                    AgentLog.debug("patch cache entry checksum mismatch, ignored: " + f);
+                    return null;
+                }
+            }
+            return new Entry(patched, stats);
+        } catch (Throwable t) {
+            AgentLog.debug("patch cache entry unreadable, ignored: " + f + " (" + t + ")");
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        File tmp = null;
+        DataOutputStream out = null;
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                throw new IllegalStateException("cannot create directory " + dir);
+            }
+            tmp = new File(dir, key + ".tmp" + System.nanoTime());
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_FORMAT);
+            out.writeInt(encodeStats(entry.getStats()));
+            byte[] patched = entry.getPatchedBytes();
+            if (patched == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(patched.length);
+                out.write(patched);
+                CRC32 crc = new CRC32();
+                crc.update(patched);
+                out.writeLong(crc.getValue());
+            }
+            out.close();
+            out = null;
+            File target = new File(dir, key + ".patch");
+            if (!tmp.renameTo(target) && !target.isFile()) {
+                throw new IllegalStateException("cannot rename " + tmp + " to " + target);
+            }
+            tmp = null;
+        } catch (Throwable t) {
+            if (!diskWriteWarned) {
+                diskWriteWarned = true;
+                AgentLog.warn("failed to write patch cache under " + dir + "; continue with memory cache only", t);
+            }
+        } finally {
+            closeQuietly(out);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static int encodeStats(PatchStats s) {
+        int flags = 0;
+        if (s == null) {
+            return flags;
+        }
+        if (s.classModified) {
+            flags |= 1;
+        }
+        if (s.tickOffsetPatched) {
+            flags |= 1 << 1;
+        }
+        if (s.serviceClientRetryPatched) {
+            flags |= 1 << 2;
+        }
+        if (s.serviceClientPreSyncBeforeSignPatched) {
+            flags |= 1 << 3;
+        }
+        if (s.serviceClientResignRetryPatched) {
+            flags |= 1 << 4;
+        }
+        if (s.clientConfigClockSkewPatched) {
+            flags |= 1 << 5;
+        }
+        if (s.clientConfigTickOffsetHookPatched) {
+            flags |= 1 << 6;
+        }
+        if (s.serviceClientRequestMetricsPatched) {
+            flags |= 1 << 7;
+        }
+        if (s.presignPreSyncPatched) {
+            flags |= 1 << 8;
+        }
+        if (s.presignExpirationPatched) {
+            flags |= 1 << 9;
+        }
+        if (s.presignDatePatched) {
+            flags |= 1 << 10;
+        }
+        if (s.postPolicyExpirationPatched) {
+            flags |= 1 << 11;
+        }
+        if (s.credentialExpiryPatched) {
+            flags |= 1 << 12;
+        }
+        return flags;
+    }
+
+    private static PatchStats decodeStats(int flags) {
+        PatchStats s = new PatchStats();
+        s.classModified = (flags & 1) != 0;
+        s.tickOffsetPatched = (flags & (1 << 1)) != 0;
+        s.serviceClientRetryPatched = (flags & (1 << 2)) != 0;
+        s.serviceClientPreSyncBeforeSignPatched = (flags & (1 << 3)) != 0;
+        s.serviceClientResignRetryPatched = (flags & (1 << 4)) != 0;
+        s.clientConfigClockSkewPatched = (flags & (1 << 5)) != 0;
+        s.clientConfigTickOffsetHookPatched = (flags & (1 << 6)) != 0;
+        s.serviceClientRequestMetricsPatched = (flags & (1 << 7)) != 0;
+        s.presignPreSyncPatched = (flags & (1 << 8)) != 0;
+        s.presignExpirationPatched = (flags & (1 << 9)) != 0;
+        s.presignDatePatched = (flags & (1 << 10)) != 0;
+        s.postPolicyExpirationPatched = (flags & (1 << 11)) != 0;
+        s.credentialExpiryPatched = (flags & (1 << 12)) != 0;
+        return s;
+    }
+
+    private static void closeQuietly(java.io.Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        } catch (Throwable ignore) {
+        }
+    }
+}
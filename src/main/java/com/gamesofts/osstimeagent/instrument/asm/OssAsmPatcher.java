@@ -10,20 +10,33 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public final class OssAsmPatcher {
+    // Bump whenever the emitted bytecode changes so cached patch results are invalidated.
+    public static final int PATCH_REVISION = 5;
     private static final String BRIDGE_OWNER = "com/gamesofts/osstimeagent/bridge/OssTimeBridge";
     private static final String CLS_OSS_OPERATION = "com/aliyun/oss/internal/OSSOperation";
     private static final String CLS_SERVICE_CLIENT = "com/aliyun/oss/common/comm/ServiceClient";
     private static final String CLS_CLIENT_CONFIGURATION = "com/aliyun/oss/ClientConfiguration";
     private static final String CLS_REQUEST_MESSAGE = "com/aliyun/oss/common/comm/RequestMessage";
     private static final String CLS_RESPONSE_MESSAGE = "com/aliyun/oss/common/comm/ResponseMessage";
+    private static final String CLS_OSS_CLIENT = "com/aliyun/oss/OSSClient";
+    private static final String CLS_SIGN_UTILS = "com/aliyun/oss/internal/SignUtils";
+    private static final String CLS_SIGN_V2_UTILS = "com/aliyun/oss/internal/SignV2Utils";
+    private static final String CLS_OSS_OBJECT_OPERATION = "com/aliyun/oss/internal/OSSObjectOperation";
+    private static final String CLS_OSS_V4_SIGNER = "com/aliyun/oss/internal/signer/OSSV4Signer";
+    private static final String CLS_INSTANCE_PROFILE_CREDENTIALS =
+            "com/aliyun/oss/common/auth/InstanceProfileCredentials";
+    private static final String CLS_PRESIGN_REQUEST = "com/aliyun/oss/model/GeneratePresignedUrlRequest";
 
     private OssAsmPatcher() {
     }
@@ -83,6 +96,15 @@ public final class OssAsmPatcher {
             visitor = new ServiceClientVisitor(writer, stats);
         } else if (CLS_CLIENT_CONFIGURATION.equals(className)) {
             visitor = new ClientConfigurationVisitor(writer, stats);
+        } else if (CLS_OSS_CLIENT.equals(className)) {
+            visitor = new OssClientVisitor(writer, stats);
+        } else if (CLS_SIGN_UTILS.equals(className) || CLS_SIGN_V2_UTILS.equals(className)
+                || CLS_OSS_OBJECT_OPERATION.equals(className)) {
+            visitor = new PresignExpirationVisitor(writer, stats);
+        } else if (CLS_OSS_V4_SIGNER.equals(className)) {
+            visitor = new OssV4SignerVisitor(writer, stats);
+        } else if (CLS_INSTANCE_PROFILE_CREDENTIALS.equals(className)) {
+            visitor = new InstanceProfileCredentialsVisitor(writer, stats);
         } else {
             return null;
         }
@@ -99,8 +121,40 @@ public final class OssAsmPatcher {
         public boolean serviceClientRetryPatched;
         public boolean serviceClientPreSyncBeforeSignPatched;
         public boolean serviceClientResignRetryPatched;
+        public boolean serviceClientRequestMetricsPatched;
         public boolean clientConfigClockSkewPatched;
         public boolean clientConfigTickOffsetHookPatched;
+        public boolean presignPreSyncPatched;
+        public boolean presignExpirationPatched;
+        public boolean presignDatePatched;
+        public boolean postPolicyExpirationPatched;
+        public boolean credentialExpiryPatched;
+
+        public String toString() {
+            if (!classModified) {
+                return "unmodified";
+            }
+            StringBuilder sb = new StringBuilder("modified");
+            appendIf(sb, tickOffsetPatched, "tickOffset");
+            appendIf(sb, serviceClientRetryPatched, "serviceClientRetry");
+            appendIf(sb, serviceClientPreSyncBeforeSignPatched, "serviceClientPreSyncBeforeSign");
+            appendIf(sb, serviceClientResignRetryPatched, "serviceClientResignRetry");
+            appendIf(sb, serviceClientRequestMetricsPatched, "serviceClientRequestMetrics");
+            appendIf(sb, clientConfigClockSkewPatched, "clientConfigClockSkew");
+            appendIf(sb, clientConfigTickOffsetHookPatched, "clientConfigTickOffsetHook");
+            appendIf(sb, presignPreSyncPatched, "presignPreSync");
+            appendIf(sb, presignExpirationPatched, "presignExpiration");
+            appendIf(sb, presignDatePatched, "presignDate");
+            appendIf(sb, postPolicyExpirationPatched, "postPolicyExpiration");
+            appendIf(sb, credentialExpiryPatched, "credentialExpiry");
+            return sb.toString();
+        }
+
+        private static void appendIf(StringBuilder sb, boolean flag, String name) {
+            if (flag) {
+                sb.append(", ").append(name);
+            }
+        }
     }
 
     private static final class OssOperationVisitor extends ClassVisitor {
@@ -166,6 +220,10 @@ public final class OssAsmPatcher {
         public void visitCode() {
             super.visitCode();
 
+            // OssTimeBridge.onAttemptFailed(exception);
+            super.visitVarInsn(Opcodes.ALOAD, 1);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, BRIDGE_OWNER, "onAttemptFailed", "(Ljava/lang/Object;)V", false);
+
             Label fallthrough = new Label();
 
             // if (!(exception instanceof OSSException)) goto fallthrough;
@@ -193,6 +251,10 @@ public final class OssAsmPatcher {
                     "isRepeatable", "()Z", false);
             super.visitJumpInsn(Opcodes.IFEQ, fallthrough);
 
+            // if (!OssTimeBridge.shouldForceSkewRetry()) goto fallthrough;
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, BRIDGE_OWNER, "shouldForceSkewRetry", "()Z", false);
+            super.visitJumpInsn(Opcodes.IFEQ, fallthrough);
+
             // Force one immediate retry after SDK clock-skew adjustment.
             super.visitInsn(Opcodes.ICONST_1);
             super.visitInsn(Opcodes.IRETURN);
@@ -219,9 +281,54 @@ public final class OssAsmPatcher {
             resolveRetryLocalIndex();
             patchBeforeInitialSignCall();
             patchHandleRequestCalls();
+            patchRequestLifecycle();
             accept(downstream);
         }
 
+        // onRequestStart(request) on entry, onRequestEnd(request, response) before each return and
+        // onRequestFailed(request, t) from a catch-all handler that rethrows.
+        private void patchRequestLifecycle() {
+            LabelNode start = new LabelNode();
+            LabelNode end = new LabelNode();
+            LabelNode handler = new LabelNode();
+
+            InsnList head = new InsnList();
+            head.add(new VarInsnNode(Opcodes.ALOAD, 1));
+            head.add(new MethodInsnNode(Opcodes.INVOKESTATIC, BRIDGE_OWNER,
+                    "onRequestStart", "(Ljava/lang/Object;)V", false));
+            head.add(start);
+            instructions.insert(head);
+
+            for (AbstractInsnNode n = instructions.getFirst(); n != null; n = n.getNext()) {
+                if (n.getOpcode() != Opcodes.ARETURN) {
+                    continue;
+                }
+                InsnList exit = new InsnList();
+                exit.add(new InsnNode(Opcodes.DUP));
+                exit.add(new VarInsnNode(Opcodes.ALOAD, 1));
+                exit.add(new InsnNode(Opcodes.SWAP));
+                exit.add(new MethodInsnNode(Opcodes.INVOKESTATIC, BRIDGE_OWNER,
+                        "onRequestEnd", "(Ljava/lang/Object;Ljava/lang/Object;)V", false));
+                instructions.insertBefore(n, exit);
+            }
+
+            InsnList tail = new InsnList();
+            tail.add(end);
+            tail.add(handler);
+            tail.add(new InsnNode(Opcodes.DUP));
+            tail.add(new VarInsnNode(Opcodes.ALOAD, 1));
+            tail.add(new InsnNode(Opcodes.SWAP));
+            tail.add(new MethodInsnNode(Opcodes.INVOKESTATIC, BRIDGE_OWNER,
+                    "onRequestFailed", "(Ljava/lang/Object;Ljava/lang/Throwable;)V", false));
+            tail.add(new InsnNode(Opcodes.ATHROW));
+            instructions.add(tail);
+            // Appended last so the SDK's own handlers keep precedence.
+            tryCatchBlocks.add(new TryCatchBlockNode(start, end, handler, null));
+
+            stats.classModified = true;
+            stats.serviceClientRequestMetricsPatched = true;
+        }
+
         private void resolveRetryLocalIndex() {
             for (AbstractInsnNode n = instructions.getFirst(); n != null; n = n.getNext()) {
                 if (!(n instanceof MethodInsnNode)) {
@@ -402,4 +509,151 @@ public final class OssAsmPatcher {
         }
     }
 
+    // OSSClient.generatePresignedUrl(GeneratePresignedUrlRequest) and generatePostPolicy(Date, PolicyConditions)
+    // send nothing, so they get their own pre-sync; the post policy expiration is moved to server time on entry.
+    private static final class OssClientVisitor extends ClassVisitor {
+        private final PatchStats stats;
+
+        private OssClientVisitor(ClassVisitor cv, PatchStats stats) {
+            super(Opcodes.ASM5, cv);
+            this.stats = stats;
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+            if ((access & Opcodes.ACC_STATIC) != 0) {
+                return mv;
+            }
+            if ("generatePresignedUrl".equals(name)
+                    && ("(L" + CLS_PRESIGN_REQUEST + ";)Ljava/net/URL;").equals(desc)) {
+                return new MethodVisitor(Opcodes.ASM5, mv) {
+                    public void visitCode() {
+                        super.visitCode();
+                        // OssTimeBridge.beforePresign(this);
+                        super.visitVarInsn(Opcodes.ALOAD, 0);
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, BRIDGE_OWNER,
+                                "beforePresign", "(Ljava/lang/Object;)V", false);
+                        stats.classModified = true;
+                        stats.presignPreSyncPatched = true;
+                    }
+                };
+            }
+            if ("generatePostPolicy".equals(name)
+                    && "(Ljava/util/Date;Lcom/aliyun/oss/model/PolicyConditions;)Ljava/lang/String;".equals(desc)) {
+                return new MethodVisitor(Opcodes.ASM5, mv) {
+                    public void visitCode() {
+                        super.visitCode();
+                        // OssTimeBridge.beforePresign(this); expiration = OssTimeBridge.toServerTime(expiration);
+                        super.visitVarInsn(Opcodes.ALOAD, 0);
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, BRIDGE_OWNER,
+                                "beforePresign", "(Ljava/lang/Object;)V", false);
+                        super.visitVarInsn(Opcodes.ALOAD, 1);
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, BRIDGE_OWNER,
+                                "toServerTime", "(Ljava/util/Date;)Ljava/util/Date;", false);
+                        super.visitVarInsn(Opcodes.ASTORE, 1);
+                        stats.classModified = true;
+                        stats.postPolicyExpirationPatched = true;
+                    }
+                };
+            }
+            return mv;
+        }
+    }
+
+    // The V1/V2 URL builders (SignUtils/SignV2Utils.buildSignedURL) and the V4 path
+    // (OSSObjectOperation.generatePresignedUrl) read the caller's expiration, a local-clock instant.
+    private static final class PresignExpirationVisitor extends ClassVisitor {
+        private final PatchStats stats;
+
+        private PresignExpirationVisitor(ClassVisitor cv, PatchStats stats) {
+            super(Opcodes.ASM5, cv);
+            this.stats = stats;
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+            if (!"buildSignedURL".equals(name) && !"generatePresignedUrl".equals(name)) {
+                return mv;
+            }
+            return new MethodVisitor(Opcodes.ASM5, mv) {
+                public void visitMethodInsn(int opcode, String owner, String mName, String mDesc, boolean itf) {
+                    super.visitMethodInsn(opcode, owner, mName, mDesc, itf);
+                    if (opcode == Opcodes.INVOKEVIRTUAL
+                            && CLS_PRESIGN_REQUEST.equals(owner)
+                            && "getExpiration".equals(mName)
+                            && "()Ljava/util/Date;".equals(mDesc)) {
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, BRIDGE_OWNER,
+                                "toServerTime", "(Ljava/util/Date;)Ljava/util/Date;", false);
+                        stats.classModified = true;
+                        stats.presignExpirationPatched = true;
+                    }
+                }
+            };
+        }
+    }
+
+    // OSSV4Signer.presign stamps x-oss-date with new Date() and derives x-oss-expires from it.
+    private static final class OssV4SignerVisitor extends ClassVisitor {
+        private final PatchStats stats;
+
+        private OssV4SignerVisitor(ClassVisitor cv, PatchStats stats) {
+            super(Opcodes.ASM5, cv);
+            this.stats = stats;
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+            if (!"presign".equals(name) || !("(L" + CLS_REQUEST_MESSAGE + ";)V").equals(desc)) {
+                return mv;
+            }
+            return new MethodVisitor(Opcodes.ASM5, mv) {
+                public void visitMethodInsn(int opcode, String owner, String mName, String mDesc, boolean itf) {
+                    super.visitMethodInsn(opcode, owner, mName, mDesc, itf);
+                    // new Date() -> OssTimeBridge.presignNow(new Date())
+                    if (opcode == Opcodes.INVOKESPECIAL
+                            && "java/util/Date".equals(owner)
+                            && "<init>".equals(mName)
+                            && "()V".equals(mDesc)) {
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, BRIDGE_OWNER,
+                                "presignNow", "(Ljava/util/Date;)Ljava/util/Date;", false);
+                        stats.classModified = true;
+                        stats.presignDatePatched = true;
+                    }
+                }
+            };
+        }
+    }
+
+    // InstanceProfileCredentials (ECS RAM role, instance profile and custom session providers) holds the
+    // server-issued Expiration; its willSoonExpire/isExpired compare that with the local clock. BasicCredentials
+    // (STS providers) is left alone: it measures local start time plus duration, so skew cancels out there.
+    private static final class InstanceProfileCredentialsVisitor extends ClassVisitor {
+        private final PatchStats stats;
+
+        private InstanceProfileCredentialsVisitor(ClassVisitor cv, PatchStats stats) {
+            super(Opcodes.ASM5, cv);
+            this.stats = stats;
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+            if (!"()Z".equals(desc) || (!"willSoonExpire".equals(name) && !"isExpired".equals(name))) {
+                return mv;
+            }
+            return new MethodVisitor(Opcodes.ASM5, mv) {
+                public void visitMethodInsn(int opcode, String owner, String mName, String mDesc, boolean itf) {
+                    if (opcode == Opcodes.INVOKESTATIC
+                            && "java/lang/System".equals(owner)
+                            && "currentTimeMillis".equals(mName)
+                            && "()J".equals(mDesc)) {
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, BRIDGE_OWNER, "credentialTimeMillis", "()J", false);
+                        stats.classModified = true;
+                        stats.credentialExpiryPatched = true;
+                        return;
+                    }
+                    super.visitMethodInsn(opcode, owner, mName, mDesc, itf);
+                }
+            };
+        }
+    }
 }
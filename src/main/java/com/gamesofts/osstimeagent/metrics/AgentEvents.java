@@ -0,0 +1,34 @@
+package com.gamesofts.osstimeagent.metrics;
+
+// Flight Recorder hooks. This baseline does nothing; the Java 11 overlay in the multi-release jar
+// (src/main/java11) emits jdk.jfr events. Tokens returned by begin* are passed back to the matching end*
+// call and are null whenever no event is being recorded.
+public final class AgentEvents {
+    private AgentEvents() {
+    }
+
+    public static boolean isSupported() {
+        return false;
+    }
+
+    public static Object beginPreSync() {
+        return null;
+    }
+
+    public static void endPreSync(Object token, String endpoint, String method, long rttMillis, boolean success,
+                                  String failureReason) {
+    }
+
+    public static Object beginResign() {
+        return null;
+    }
+
+    public static void endResign(Object token, int retries, boolean success) {
+    }
+
+    public static void skewRetry(long firstAttemptNanos) {
+    }
+
+    public static void clockStep(long previousMillis, long newMillis, long heldMillis, boolean authoritative) {
+    }
+}
@@ -0,0 +1,186 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Process-wide agent counters and last-known state. Recording never locks; readers see eventually consistent sums.
+public final class AgentMetrics {
+    private static final StripedCounter syncSuccess = new StripedCounter();
+    private static final StripedCounter syncFailure = new StripedCounter();
+    private static final StripedCounter skewRetries = new StripedCounter();
+    private static final StripedCounter resigns = new StripedCounter();
+    private static final StripedCounter uploadGuardSyncs = new StripedCounter();
+    private static final StripedCounter expectContinues = new StripedCounter();
+    private static final StripedCounter replayBufferStreams = new StripedCounter();
+    private static final StripedCounter replayBufferResets = new StripedCounter();
+    private static final StripedCounter replayBufferOverflows = new StripedCounter();
+    private static final StripedCounter probeTimeouts = new StripedCounter();
+    private static final Map patchOutcomes = new ConcurrentHashMap();
+    private static final LatencyHistogram probeRtt = new LatencyHistogram("probe_rtt");
+    private static final LatencyHistogram beforeInitialSign = new LatencyHistogram("before_initial_sign");
+    private static final LatencyHistogram resignForRetry = new LatencyHistogram("resign_for_retry");
+    private static final LatencyHistogram skewRetryPenalty = new LatencyHistogram("skew_retry_penalty");
+    private static volatile SyncSample lastSync;
+    private static volatile long lastFailureMillis;
+    private static volatile String lastFailureReason;
+
+    private AgentMetrics() {
+    }
+
+    public static void recordSyncSuccess(SyncSample sample) {
+        syncSuccess.increment();
+        lastSync = sample;
+    }
+
+    public static void recordSyncFailure(String reason) {
+        syncFailure.increment();
+        lastFailureMillis = System.currentTimeMillis();
+        lastFailureReason = reason;
+    }
+
+    public static void recordSkewRetry() {
+        skewRetries.increment();
+    }
+
+    public static void recordResign() {
+        resigns.increment();
+    }
+
+    public static void recordUploadGuardSync() {
+        uploadGuardSyncs.increment();
+    }
+
+    public static void recordExpectContinue() {
+        expectContinues.increment();
+    }
+
+    public static void recordReplayBufferStream() {
+        replayBufferStreams.increment();
+    }
+
+    public static void recordReplayBufferReset() {
+        replayBufferResets.increment();
+    }
+
+    public static void recordReplayBufferOverflow() {
+        replayBufferOverflows.increment();
+    }
+
+    public static void recordProbeTimeout() {
+        probeTimeouts.increment();
+    }
+
+    public static void recordPatchOutcome(String className, String outcome) {
+        patchOutcomes.put(className, outcome);
+    }
+
+    // Time from sending the probe to receiving response headers.
+    public static LatencyHistogram probeRtt() {
+        return probeRtt;
+    }
+
+    // Agent time spent in the pre-sign hook of every request, including any synchronous pre-sync.
+    public static LatencyHistogram beforeInitialSign() {
+        return beforeInitialSign;
+    }
+
+    public static LatencyHistogram resignForRetry() {
+        return resignForRetry;
+    }
+
+    // Duration of the first attempt that OSS rejected with RequestTimeTooSkewed, i.e. latency the retry adds.
+    public static LatencyHistogram skewRetryPenalty() {
+        return skewRetryPenalty;
+    }
+
+    public static LatencyHistogram[] histograms() {
+        return new LatencyHistogram[] { probeRtt, beforeInitialSign, resignForRetry, skewRetryPenalty };
+    }
+
+    public static long getSyncSuccessCount() {
+        return syncSuccess.sum();
+    }
+
+    public static long getSyncFailureCount() {
+        return syncFailure.sum();
+    }
+
+    public static long getSkewRetryCount() {
+        return skewRetries.sum();
+    }
+
+    public static long getResignCount() {
+        return resigns.sum();
+    }
+
+    public static long getUploadGuardSyncCount() {
+        return uploadGuardSyncs.sum();
+    }
+
+    public static long getExpectContinueCount() {
+        return expectContinues.sum();
+    }
+
+    public static long getReplayBufferStreamCount() {
+        return replayBufferStreams.sum();
+    }
+
+    public static long getReplayBufferResetCount() {
+        return replayBufferResets.sum();
+    }
+
+    public static long getReplayBufferOverflowCount() {
+        return replayBufferOverflows.sum();
+    }
+
+    public static long getProbeTimeoutCount() {
+        return probeTimeouts.sum();
+    }
+
+    public static SyncSample getLastSync() {
+        return lastSync;
+    }
+
+    public static long getLastFailureMillis() {
+        return lastFailureMillis;
+    }
+
+    public static String getLastFailureReason() {
+        return lastFailureReason;
+    }
+
+    public static List getPatchOutcomes() {
+        List out = new ArrayList();
+        for (Iterator it = patchOutcomes.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e = (Map.Entry) it.next();
+            out.add(e.getKey() + ": " + e.getValue());
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    static void resetForTest() {
+        syncSuccess.reset();
+        syncFailure.reset();
+        skewRetries.reset();
+        resigns.reset();
+        uploadGuardSyncs.reset();
+        expectContinues.reset();
+        replayBufferStreams.reset();
+        replayBufferResets.reset();
+        replayBufferOverflows.reset();
+        probeTimeouts.reset();
+        patchOutcomes.clear();
+        probeRtt.reset();
+        beforeInitialSign.reset();
+        resignForRetry.reset();
+        skewRetryPenalty.reset();
+        lastSync = null;
+        lastFailureMillis = 0L;
+        lastFailureReason = null;
+    }
+}
@@ -0,0 +1,149 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+// Growable byte buffer that formats numbers and text straight into bytes, so rendering a scrape does not
+// allocate strings. Not thread-safe; owners reuse one instance per writer thread.
+public final class ExpositionBuffer {
+    private byte[] buf;
+    private int len;
+
+    public ExpositionBuffer(int initialCapacity) {
+        buf = new byte[initialCapacity];
+    }
+
+    public void reset() {
+        len = 0;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, len);
+    }
+
+    public ExpositionBuffer append(char c) {
+        ensure(1);
+        buf[len++] = (byte) c;
+        return this;
+    }
+
+    // ASCII-only text such as metric names and HELP strings.
+    public ExpositionBuffer append(String s) {
+        int n = s.length();
+        ensure(n);
+        int i;
+        for (i = 0; i < n; i++) {
+            buf[len++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    public ExpositionBuffer append(long v) {
+        if (v == Long.MIN_VALUE) {
+            return append("-9223372036854775808");
+        }
+        ensure(20);
+        if (v < 0L) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + (int) (v % 10L));
+            v /= 10L;
+        } while (v != 0L);
+        reverse(start, len - 1);
+        return this;
+    }
+
+    // Fixed-point with the given number of fraction digits, e.g. nanoseconds as seconds with scale 9.
+    public ExpositionBuffer appendScaled(long value, int scale) {
+        long unit = 1L;
+        int i;
+        for (i = 0; i < scale; i++) {
+            unit *= 10L;
+        }
+        if (value < 0L) {
+            append('-');
+            value = -value;
+        }
+        append(value / unit);
+        if (scale > 0) {
+            append('.');
+            long frac = value % unit;
+            ensure(scale);
+            for (i = scale - 1; i >= 0; i--) {
+                buf[len + i] = (byte) ('0' + (int) (frac % 10L));
+                frac /= 10L;
+            }
+            len += scale;
+        }
+        return this;
+    }
+
+    public ExpositionBuffer append(double v) {
+        if (Double.isNaN(v)) {
+            return append("NaN");
+        }
+        if (Double.isInfinite(v)) {
+            return append(v > 0 ? "+Inf" : "-Inf");
+        }
+        return appendScaled(Math.round(v * 1000.0d), 3);
+    }
+
+    // Label value with Prometheus escaping (backslash, quote, newline); other chars are written as UTF-8.
+    public ExpositionBuffer appendLabelValue(String s) {
+        int n = s.length();
+        int i;
+        for (i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '\\' || c == '"') {
+                append('\\').append(c);
+            } else if (c == '\n') {
+                append('\\').append('n');
+            } else if (c < 0x80) {
+                append(c);
+            } else if (c < 0x800) {
+                append((char) (0xC0 | (c >> 6))).append((char) (0x80 | (c & 0x3F)));
+            } else {
+                append((char) (0xE0 | (c >> 12))).append((char) (0x80 | ((c >> 6) & 0x3F)))
+                        .append((char) (0x80 | (c & 0x3F)));
+            }
+        }
+        return this;
+    }
+
+    private void reverse(int from, int to) {
+        while (from < to) {
+            byte t = buf[from];
+            buf[from++] = buf[to];
+            buf[to--] = t;
+        }
+    }
+
+    private void ensure(int extra) {
+        if (len + extra <= buf.length) {
+            return;
+        }
+        int cap = buf.length * 2;
+        if (cap < len + extra) {
+            cap = len + extra;
+        }
+        byte[] next = new byte[cap];
+        System.arraycopy(buf, 0, next, 0, len);
+        buf = next;
+    }
+
+    public String toString() {
+        try {
+            return new String(buf, 0, len, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Log-linear (HDR-style) histogram of nanosecond durations. Values below 32 get their own bucket; above that each
+// power of two is split into 16 linear sub-buckets, so a bucket's bounds are within ~6% of any value in it.
+// Buckets are striped by thread id like StripedCounter, so concurrent signers mostly add into separate arrays
+// instead of sharing cache lines; reads merge all stripes. A stripe is 5 KiB, so there are at most MAX_STRIPES
+// of them, each allocated by the first thread that lands on it. Recording is a single atomic add: no allocation,
+// no locks, no retry loops.
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF_COUNT = SUB_COUNT >> 1;
+    private static final int MAX_SHIFT = 38; // ~2^42 ns, a little over an hour
+    private static final int BUCKETS = SUB_COUNT + MAX_SHIFT * HALF_COUNT;
+    private static final long MAX_TRACKABLE = upperBound(BUCKETS - 1);
+    static final int MAX_STRIPES = 4;
+
+    private final String name;
+    private final AtomicReferenceArray stripes;
+
+    public LatencyHistogram(String name) {
+        this(name, MAX_STRIPES);
+    }
+
+    // maxStripes is a power of two.
+    LatencyHistogram(String name, int maxStripes) {
+        this.name = name;
+        this.stripes = new AtomicReferenceArray(Math.min(maxStripes, StripedCounter.stripeCount()));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        int s = StripedCounter.currentStripe() & (stripes.length() - 1);
+        AtomicLongArray counts = (AtomicLongArray) stripes.get(s);
+        if (counts == null) {
+            counts = stripe(s);
+        }
+        counts.getAndIncrement(indexOf(nanos));
+    }
+
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long[] s = snapshot();
+        long n = 0L;
+        int i;
+        for (i = 0; i < BUCKETS; i++) {
+            n += s[i];
+        }
+        return n;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100]; 0 when empty.
+    public long valueAtPercentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0L;
+        int i;
+        for (i = 0; i < BUCKETS; i++) {
+            total += snapshot[i];
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil((percentile / 100.0d) * total);
+        if (rank < 1L) {
+            rank = 1L;
+        }
+        long seen = 0L;
+        for (i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    public long getMax() {
+        long[] snapshot = snapshot();
+        int i;
+        for (i = BUCKETS - 1; i >= 0; i--) {
+            if (snapshot[i] != 0L) {
+                return upperBound(i);
+            }
+        }
+        return 0L;
+    }
+
+    public long[] snapshot() {
+        long[] out = new long[BUCKETS];
+        copyCounts(out);
+        return out;
+    }
+
+    // Sums the stripes bucket by bucket; like StripedCounter, only eventually consistent under concurrent records.
+    public void copyCounts(long[] dst) {
+        int i;
+        for (i = 0; i < BUCKETS; i++) {
+            dst[i] = 0L;
+        }
+        int s;
+        for (s = 0; s < stripes.length(); s++) {
+            AtomicLongArray counts = (AtomicLongArray) stripes.get(s);
+            if (counts == null) {
+                continue;
+            }
+            for (i = 0; i < BUCKETS; i++) {
+                dst[i] += counts.get(i);
+            }
+        }
+    }
+
+    public String summary() {
+        long[] s = snapshot();
+        long n = 0L;
+        int i;
+        for (i = 0; i < BUCKETS; i++) {
+            n += s[i];
+        }
+        return name + " count=" + n
+                + " p50=" + micros(valueAtPercentile(50.0d))
+                + " p90=" + micros(valueAtPercentile(90.0d))
+                + " p99=" + micros(valueAtPercentile(99.0d))
+                + " p999=" + micros(valueAtPercentile(99.9d))
+                + " max=" + micros(getMax());
+    }
+
+    public void reset() {
+        int s;
+        for (s = 0; s < stripes.length(); s++) {
+            AtomicLongArray counts = (AtomicLongArray) stripes.get(s);
+            if (counts == null) {
+                continue;
+            }
+            int i;
+            for (i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0L);
+            }
+        }
+    }
+
+    // Only the loser of a race for a new stripe allocates twice; its array is dropped before any add.
+    private AtomicLongArray stripe(int s) {
+        stripes.compareAndSet(s, null, new AtomicLongArray(BUCKETS));
+        return (AtomicLongArray) stripes.get(s);
+    }
+
+    public static int bucketCount() {
+        return BUCKETS;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return value < 0L ? 0 : (int) value;
+        }
+        if (value > MAX_TRACKABLE) {
+            return BUCKETS - 1;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BITS - 1);
+        int sub = (int) (value >>> shift);
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + (sub - HALF_COUNT);
+    }
+
+    // Largest value mapped to the bucket.
+    public static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+        long sub = HALF_COUNT + (index - SUB_COUNT) % HALF_COUNT;
+        return ((sub + 1L) << shift) - 1L;
+    }
+
+    private static String micros(long nanos) {
+        return (nanos / 1000L) + "us";
+    }
+}
@@ -0,0 +1,81 @@
+package com.gamesofts.osstimeagent.metrics;
+
+// Aggregates for one OSS operation key ("PUT PutObject", optionally with a bucket suffix). Recorded once per
+// request, which takes milliseconds, so two stripes are enough; that keeps one key at about 11 KiB at most.
+public final class OperationStats {
+    static final int STRIPES = 2;
+
+    private final String key;
+    private final LatencyHistogram latency;
+    private final StripedCounter requests = new StripedCounter(STRIPES);
+    private final StripedCounter failures = new StripedCounter(STRIPES);
+    private final StripedCounter retries = new StripedCounter(STRIPES);
+    private final StripedCounter bytesSent = new StripedCounter(STRIPES);
+    private final StripedCounter bytesReceived = new StripedCounter(STRIPES);
+
+    OperationStats(String key) {
+        this.key = key;
+        this.latency = new LatencyHistogram(key, STRIPES);
+    }
+
+    void record(long nanos, boolean failed, int retryCount, long sent, long received) {
+        latency.record(nanos);
+        requests.increment();
+        if (failed) {
+            failures.increment();
+        }
+        if (retryCount > 0) {
+            retries.add(retryCount);
+        }
+        if (sent > 0L) {
+            bytesSent.add(sent);
+        }
+        if (received > 0L) {
+            bytesReceived.add(received);
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public String summary() {
+        return key + " requests=" + getRequestCount() + " failures=" + getFailureCount()
+                + " retries=" + getRetryCount() + " sent=" + getBytesSent() + "B received=" + getBytesReceived()
+                + "B p50=" + (latency.valueAtPercentile(50.0d) / 1000000L) + "ms p99="
+                + (latency.valueAtPercentile(99.0d) / 1000000L) + "ms max=" + (latency.getMax() / 1000000L) + "ms";
+    }
+
+    void reset() {
+        latency.reset();
+        requests.reset();
+        failures.reset();
+        retries.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+    }
+}
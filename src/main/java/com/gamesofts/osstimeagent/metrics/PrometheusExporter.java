@@ -0,0 +1,167 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import java.util.Iterator;
+import java.util.Map;
+
+// Renders AgentMetrics and RequestMetrics in the Prometheus text format (version 0.0.4) into a caller-owned
+// buffer. All scratch arrays are preallocated; one exporter must only be used by one thread at a time.
+public final class PrometheusExporter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PREFIX = "oss_time_agent_";
+    private static final String[] LE_TEXT = new String[] {
+            "0.00001", "0.0001", "0.0005", "0.001", "0.005", "0.01", "0.05", "0.1", "0.25", "0.5",
+            "1", "2.5", "5", "10", "30"
+    };
+    private static final long[] LE_NANOS = new long[] {
+            10000L, 100000L, 500000L, 1000000L, 5000000L, 10000000L, 50000000L, 100000000L, 250000000L,
+            500000000L, 1000000000L, 2500000000L, 5000000000L, 10000000000L, 30000000000L
+    };
+
+    private final long[] counts = new long[LatencyHistogram.bucketCount()];
+
+    public void render(ExpositionBuffer out, long clockOffsetMillis) {
+        gauge(out, "clock_offset_milliseconds", "Agent clock minus local wall clock.");
+        out.append(PREFIX).append("clock_offset_milliseconds ").append(clockOffsetMillis).append('\n');
+
+        SyncSample last = AgentMetrics.getLastSync();
+        gauge(out, "clock_uncertainty_milliseconds",
+                "Half the last probe RTT plus Date header resolution; -1 before the first sync.");
+        out.append(PREFIX).append("clock_uncertainty_milliseconds ")
+                .append(last == null ? -1L : last.getUncertaintyMillis()).append('\n');
+        gauge(out, "last_sync_timestamp_seconds", "Server time of the last successful sync; 0 before the first sync.");
+        out.append(PREFIX).append("last_sync_timestamp_seconds ")
+                .appendScaled(last == null ? 0L : last.getServerTimeMillis(), 3).append('\n');
+
+        counter(out, "syncs_total", "Endpoint time syncs by result.");
+        out.append(PREFIX).append("syncs_total{result=\"success\"} ").append(AgentMetrics.getSyncSuccessCount())
+                .append('\n');
+        out.append(PREFIX).append("syncs_total{result=\"failure\"} ").append(AgentMetrics.getSyncFailureCount())
+                .append('\n');
+        counter(out, "probe_timeouts_total", "Sync probes that hit their adaptive connect or read timeout.");
+        out.append(PREFIX).append("probe_timeouts_total ").append(AgentMetrics.getProbeTimeoutCount()).append('\n');
+        counter(out, "skew_retries_total", "Requests retried immediately after RequestTimeTooSkewed.");
+        out.append(PREFIX).append("skew_retries_total ").append(AgentMetrics.getSkewRetryCount()).append('\n');
+        counter(out, "resigns_total", "Retries re-signed with the agent clock.");
+        out.append(PREFIX).append("resigns_total ").append(AgentMetrics.getResignCount()).append('\n');
+        counter(out, "upload_guard_syncs_total", "Large or non-repeatable uploads held for a sync before signing.");
+        out.append(PREFIX).append("upload_guard_syncs_total ").append(AgentMetrics.getUploadGuardSyncCount())
+                .append('\n');
+        counter(out, "expect_continue_requests_total", "Requests sent with Expect: 100-continue by the agent.");
+        out.append(PREFIX).append("expect_continue_requests_total ").append(AgentMetrics.getExpectContinueCount())
+                .append('\n');
+        counter(out, "replay_buffer_streams_total", "Non-repeatable request bodies wrapped in a replay buffer.");
+        out.append(PREFIX).append("replay_buffer_streams_total ").append(AgentMetrics.getReplayBufferStreamCount())
+                .append('\n');
+        counter(out, "replay_buffer_resets_total", "Request bodies resent from a replay buffer.");
+        out.append(PREFIX).append("replay_buffer_resets_total ").append(AgentMetrics.getReplayBufferResetCount())
+                .append('\n');
+        counter(out, "replay_buffer_overflows_total", "Replay buffers dropped for exceeding their cap or the pool.");
+        out.append(PREFIX).append("replay_buffer_overflows_total ")
+                .append(AgentMetrics.getReplayBufferOverflowCount()).append('\n');
+
+        histogramHeader(out, "agent_latency_seconds", "Agent-internal latencies (probe RTT and hook overhead).");
+        LatencyHistogram[] hs = AgentMetrics.histograms();
+        int i;
+        for (i = 0; i < hs.length; i++) {
+            histogram(out, "agent_latency_seconds", "op", hs[i].getName(), hs[i]);
+        }
+
+        Map ops = RequestMetrics.operationStats();
+        histogramHeader(out, "request_duration_seconds", "OSS request latency per operation, retries included.");
+        for (Iterator it = ops.values().iterator(); it.hasNext();) {
+            OperationStats s = (OperationStats) it.next();
+            histogram(out, "request_duration_seconds", "operation", s.getKey(), s.getLatency());
+        }
+        counter(out, "request_failures_total", "OSS requests that ended with an exception.");
+        for (Iterator it = ops.values().iterator(); it.hasNext();) {
+            OperationStats s = (OperationStats) it.next();
+            labelled(out, "request_failures_total", "operation", s.getKey()).append(s.getFailureCount()).append('\n');
+        }
+        counter(out, "request_retries_total", "Retries issued by the SDK.");
+        for (Iterator it = ops.values().iterator(); it.hasNext();) {
+            OperationStats s = (OperationStats) it.next();
+            labelled(out, "request_retries_total", "operation", s.getKey()).append(s.getRetryCount()).append('\n');
+        }
+        counter(out, "request_sent_bytes_total", "Request body bytes by operation, when the length is known.");
+        for (Iterator it = ops.values().iterator(); it.hasNext();) {
+            OperationStats s = (OperationStats) it.next();
+            labelled(out, "request_sent_bytes_total", "operation", s.getKey()).append(s.getBytesSent()).append('\n');
+        }
+        counter(out, "request_received_bytes_total", "Response body bytes by operation, when the length is known.");
+        for (Iterator it = ops.values().iterator(); it.hasNext();) {
+            OperationStats s = (OperationStats) it.next();
+            labelled(out, "request_received_bytes_total", "operation", s.getKey()).append(s.getBytesReceived())
+                    .append('\n');
+        }
+
+        counter(out, "request_errors_total", "Failed OSS requests by error code.");
+        counters(out, "request_errors_total", "code", RequestMetrics.errorCodeCounters());
+        counter(out, "request_retry_causes_total", "SDK retries by the error code of the failed attempt.");
+        counters(out, "request_retry_causes_total", "cause", RequestMetrics.retryCauseCounters());
+    }
+
+    private void histogram(ExpositionBuffer out, String name, String label, String value, LatencyHistogram h) {
+        h.copyCounts(counts);
+        long cumulative = 0L;
+        long sumNanos = 0L;
+        int le = 0;
+        int i;
+        for (i = 0; i < counts.length; i++) {
+            long upper = LatencyHistogram.upperBound(i);
+            // A bucket straddling a boundary is counted in the next one; the error is bounded by bucket width.
+            while (le < LE_NANOS.length && upper > LE_NANOS[le]) {
+                bucket(out, name, label, value, LE_TEXT[le], cumulative);
+                le++;
+            }
+            long c = counts[i];
+            if (c != 0L) {
+                long lower = i == 0 ? 0L : LatencyHistogram.upperBound(i - 1) + 1L;
+                cumulative += c;
+                sumNanos += c * ((lower + upper) >>> 1);
+            }
+        }
+        while (le < LE_NANOS.length) {
+            bucket(out, name, label, value, LE_TEXT[le], cumulative);
+            le++;
+        }
+        bucket(out, name, label, value, "+Inf", cumulative);
+        out.append(PREFIX).append(name).append("_sum{").append(label).append("=\"").appendLabelValue(value)
+                .append("\"} ").appendScaled(sumNanos, 9).append('\n');
+        out.append(PREFIX).append(name).append("_count{").append(label).append("=\"").appendLabelValue(value)
+                .append("\"} ").append(cumulative).append('\n');
+    }
+
+    private static void bucket(ExpositionBuffer out, String name, String label, String value, String le, long count) {
+        out.append(PREFIX).append(name).append("_bucket{").append(label).append("=\"").appendLabelValue(value)
+                .append("\",le=\"").append(le).append("\"} ").append(count).append('\n');
+    }
+
+    private static void counters(ExpositionBuffer out, String name, String label, Map counters) {
+        for (Iterator it = counters.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e = (Map.Entry) it.next();
+            labelled(out, name, label, (String) e.getKey()).append(((StripedCounter) e.getValue()).sum()).append('\n');
+        }
+    }
+
+    private static ExpositionBuffer labelled(ExpositionBuffer out, String name, String label, String value) {
+        return out.append(PREFIX).append(name).append('{').append(label).append("=\"").appendLabelValue(value)
+                .append("\"} ");
+    }
+
+    private static void gauge(ExpositionBuffer out, String name, String help) {
+        header(out, name, help, "gauge");
+    }
+
+    private static void counter(ExpositionBuffer out, String name, String help) {
+        header(out, name, help, "counter");
+    }
+
+    private static void histogramHeader(ExpositionBuffer out, String name, String help) {
+        header(out, name, help + " _sum uses bucket midpoints.", "histogram");
+    }
+
+    private static void header(ExpositionBuffer out, String name, String help, String type) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+}
@@ -0,0 +1,123 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-operation OSS request latency, retry and error aggregates. Every map is capped so a stream of unique buckets
+// or error codes cannot grow memory without bound; keys past the cap are folded into OVERFLOW_KEY. At the caps
+// this is about 0.8 MiB: up to 65 OperationStats of ~11 KiB each plus 130 small error and retry counters.
+public final class RequestMetrics {
+    public static final String OVERFLOW_KEY = "_other";
+    static final int MAX_OPERATIONS = 64;
+    static final int MAX_CODES = 64;
+
+    private static final ConcurrentHashMap operations = new ConcurrentHashMap();
+    private static final ConcurrentHashMap errorCodes = new ConcurrentHashMap();
+    private static final ConcurrentHashMap retryCauses = new ConcurrentHashMap();
+    private static final SlowRequestSampler slowRequests = new SlowRequestSampler(64, 3000L);
+
+    private RequestMetrics() {
+    }
+
+    public static void recordRequest(String operation, long nanos, String errorCode, int retries,
+                                     long bytesSent, long bytesReceived) {
+        OperationStats stats = (OperationStats) bounded(operations, operation, MAX_OPERATIONS, true);
+        stats.record(nanos, errorCode != null, retries, bytesSent, bytesReceived);
+        if (errorCode != null) {
+            ((StripedCounter) bounded(errorCodes, errorCode, MAX_CODES, false)).increment();
+        }
+        slowRequests.offer(stats.getKey(), nanos, retries, errorCode == null ? "ok" : errorCode);
+    }
+
+    public static void recordRetry(String cause) {
+        ((StripedCounter) bounded(retryCauses, cause == null ? "unknown" : cause, MAX_CODES, false)).increment();
+    }
+
+    public static SlowRequestSampler slowRequests() {
+        return slowRequests;
+    }
+
+    public static List getOperations() {
+        List out = new ArrayList(operations.values());
+        Collections.sort(out, new Comparator() {
+            public int compare(Object a, Object b) {
+                return ((OperationStats) a).getKey().compareTo(((OperationStats) b).getKey());
+            }
+        });
+        return out;
+    }
+
+    public static OperationStats getOperation(String key) {
+        return (OperationStats) operations.get(key);
+    }
+
+    public static Map getErrorCodeCounts() {
+        return sums(errorCodes);
+    }
+
+    public static Map getRetryCauseCounts() {
+        return sums(retryCauses);
+    }
+
+    // Live views for the exporter, which iterates them without copying.
+    static Map operationStats() {
+        return operations;
+    }
+
+    static Map errorCodeCounters() {
+        return errorCodes;
+    }
+
+    static Map retryCauseCounters() {
+        return retryCauses;
+    }
+
+    public static void reset() {
+        for (Iterator it = operations.values().iterator(); it.hasNext();) {
+            ((OperationStats) it.next()).reset();
+        }
+        errorCodes.clear();
+        retryCauses.clear();
+        slowRequests.reset();
+    }
+
+    static void resetForTest() {
+        operations.clear();
+        errorCodes.clear();
+        retryCauses.clear();
+        slowRequests.reset();
+    }
+
+    private static Object bounded(ConcurrentHashMap map, String key, int max, boolean operation) {
+        Object v = map.get(key);
+        if (v != null) {
+            return v;
+        }
+        if (map.size() >= max) {
+            key = OVERFLOW_KEY;
+            v = map.get(key);
+            if (v != null) {
+                return v;
+            }
+        }
+        Object created = operation ? (Object) new OperationStats(key) : new StripedCounter(OperationStats.STRIPES);
+        // The check-then-put above may overshoot the cap by a few entries under contention; that is fine.
+        Object prior = map.putIfAbsent(key, created);
+        return prior == null ? created : prior;
+    }
+
+    private static Map sums(Map counters) {
+        Map out = new TreeMap();
+        for (Iterator it = counters.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e = (Map.Entry) it.next();
+            out.put(e.getKey(), Long.valueOf(((StripedCounter) e.getValue()).sum()));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,108 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Keeps the most recent requests that exceeded a latency threshold in a fixed ring. Requests under the threshold
+// cost one comparison; slow ones overwrite the oldest slot without locking.
+public final class SlowRequestSampler {
+    private final AtomicReferenceArray slots;
+    private final AtomicLong next = new AtomicLong();
+    private volatile long thresholdNanos;
+
+    public SlowRequestSampler(int capacity, long thresholdMillis) {
+        this.slots = new AtomicReferenceArray(capacity);
+        setThresholdMillis(thresholdMillis);
+    }
+
+    public void setThresholdMillis(long millis) {
+        thresholdNanos = millis <= 0L ? Long.MAX_VALUE : millis * 1000000L;
+    }
+
+    public long getThresholdMillis() {
+        long t = thresholdNanos;
+        return t == Long.MAX_VALUE ? 0L : t / 1000000L;
+    }
+
+    public boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    public void offer(String operation, long nanos, int retries, String outcome) {
+        if (!isSlow(nanos)) {
+            return;
+        }
+        Sample s = new Sample(System.currentTimeMillis(), operation, nanos, retries, outcome);
+        slots.set((int) (next.getAndIncrement() % slots.length()), s);
+    }
+
+    // Newest first.
+    public List getSamples() {
+        List out = new ArrayList();
+        long end = next.get();
+        long i;
+        for (i = end - 1; i >= 0 && i >= end - slots.length(); i--) {
+            Object s = slots.get((int) (i % slots.length()));
+            if (s != null) {
+                out.add(s);
+            }
+        }
+        return out;
+    }
+
+    public void reset() {
+        int i;
+        for (i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+        next.set(0L);
+    }
+
+    public static final class Sample {
+        private final long wallTimeMillis;
+        private final String operation;
+        private final long nanos;
+        private final int retries;
+        private final String outcome;
+
+        Sample(long wallTimeMillis, String operation, long nanos, int retries, String outcome) {
+            this.wallTimeMillis = wallTimeMillis;
+            this.operation = operation;
+            this.nanos = nanos;
+            this.retries = retries;
+            this.outcome = outcome;
+        }
+
+        public long getWallTimeMillis() {
+            return wallTimeMillis;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getRetries() {
+            return retries;
+        }
+
+        public String getOutcome() {
+            return outcome;
+        }
+
+        public String toString() {
+            SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+            f.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return f.format(new Date(wallTimeMillis)) + " " + operation + " took=" + (nanos / 1000000L)
+                    + "ms retries=" + retries + " outcome=" + outcome;
+        }
+    }
+}
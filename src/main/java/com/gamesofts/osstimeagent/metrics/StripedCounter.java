@@ -0,0 +1,64 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free counter spread over cache-line padded cells picked by thread id, so concurrent signers do not
+// contend on one word. Reads sum all cells and are only eventually consistent.
+public final class StripedCounter {
+    private static final int PAD = 8; // longs per 64-byte line
+    private static final int STRIPES;
+
+    static {
+        int n = 1;
+        int target = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        while (n < target) {
+            n <<= 1;
+        }
+        STRIPES = n;
+    }
+
+    private final int stripes;
+    private final AtomicLongArray cells;
+
+    public StripedCounter() {
+        this(STRIPES);
+    }
+
+    // maxStripes is a power of two.
+    StripedCounter(int maxStripes) {
+        stripes = Math.min(maxStripes, STRIPES);
+        cells = new AtomicLongArray(stripes * PAD);
+    }
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd((currentStripe() & (stripes - 1)) * PAD, delta);
+    }
+
+    public long sum() {
+        long s = 0L;
+        int i;
+        for (i = 0; i < stripes; i++) {
+            s += cells.get(i * PAD);
+        }
+        return s;
+    }
+
+    static int stripeCount() {
+        return STRIPES;
+    }
+
+    static int currentStripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    public void reset() {
+        int i;
+        for (i = 0; i < stripes; i++) {
+            cells.set(i * PAD, 0L);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.gamesofts.osstimeagent.metrics;
+
+// One successful endpoint sync, published as an immutable snapshot.
+public final class SyncSample {
+    // HTTP Date headers carry whole seconds.
+    public static final long DATE_RESOLUTION_MILLIS = 1000L;
+
+    private final String endpoint;
+    private final String method;
+    private final long wallTimeMillis;
+    private final long serverTimeMillis;
+    private final long offsetMillis;
+    private final long rttMillis;
+
+    public SyncSample(String endpoint, String method, long wallTimeMillis, long serverTimeMillis, long rttMillis) {
+        this.endpoint = endpoint;
+        this.method = method;
+        this.wallTimeMillis = wallTimeMillis;
+        this.serverTimeMillis = serverTimeMillis;
+        this.offsetMillis = serverTimeMillis - wallTimeMillis;
+        this.rttMillis = rttMillis;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public long getWallTimeMillis() {
+        return wallTimeMillis;
+    }
+
+    public long getServerTimeMillis() {
+        return serverTimeMillis;
+    }
+
+    // Server time minus local wall clock at the moment of the sync.
+    public long getOffsetMillis() {
+        return offsetMillis;
+    }
+
+    public long getRttMillis() {
+        return rttMillis;
+    }
+
+    // Worst-case error of the estimate: half the round trip plus the Date header truncation.
+    public long getUncertaintyMillis() {
+        return (rttMillis < 0L ? 0L : rttMillis / 2L) + DATE_RESOLUTION_MILLIS;
+    }
+}
@@ -0,0 +1,101 @@
+package com.gamesofts.osstimeagent.time;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// Stand-in for an OSS endpoint when probing offline: answers every request with 403 and a Date header, like an
+// anonymous request to OSS, optionally skewed and delayed. Plain HTTP on the loopback interface only.
+final class LocalDateServer {
+    private final ServerSocket server;
+    private final long skewMillis;
+    private final long latencyMillis;
+    private volatile boolean closed;
+
+    LocalDateServer(long skewMillis, long latencyMillis) throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.skewMillis = skewMillis;
+        this.latencyMillis = latencyMillis;
+    }
+
+    String endpoint() {
+        return "http://127.0.0.1:" + server.getLocalPort();
+    }
+
+    void start() {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        }, "oss-time-agent-probe-server");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            final Socket s;
+            try {
+                s = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    serve(s);
+                }
+            }, "oss-time-agent-probe-conn");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void serve(Socket s) {
+        try {
+            s.setSoTimeout(5000);
+            InputStream in = s.getInputStream();
+            // Probes send no body; the request ends at the first blank line.
+            int matched = 0;
+            int c;
+            while (matched < 4 && (c = in.read()) >= 0) {
+                if (c == "\r\n\r\n".charAt(matched)) {
+                    matched++;
+                } else {
+                    matched = c == '\r' ? 1 : 0;
+                }
+            }
+            if (latencyMillis > 0L) {
+                Thread.sleep(latencyMillis);
+            }
+            SimpleDateFormat f = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            f.setTimeZone(TimeZone.getTimeZone("GMT"));
+            String date = f.format(new Date(System.currentTimeMillis() + skewMillis));
+            OutputStream out = s.getOutputStream();
+            out.write(("HTTP/1.1 403 Forbidden\r\nDate: " + date
+                    + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+            out.flush();
+        } catch (Exception ignore) {
+            // A probe that gave up is not the server's problem.
+        } finally {
+            try {
+                s.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.gamesofts.osstimeagent.time;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Highest millisecond value handed out so far.
+final class MonotonicMillis {
+    private final AtomicLong value;
+
+    MonotonicMillis(long initial) {
+        this.value = new AtomicLong(initial);
+    }
+
+    long get() {
+        return value.get();
+    }
+
+    void set(long v) {
+        value.set(v);
+    }
+
+    // Raises the value to candidate if it is larger; returns the value in effect afterwards.
+    long advance(long candidate) {
+        for (;;) {
+            long prev = value.get();
+            if (candidate <= prev) {
+                return prev;
+            }
+            if (value.compareAndSet(prev, candidate)) {
+                return candidate;
+            }
+        }
+    }
+}
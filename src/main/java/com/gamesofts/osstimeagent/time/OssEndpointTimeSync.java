@@ -1,9 +1,11 @@
 package com.gamesofts.osstimeagent.time;
 
+import com.gamesofts.osstimeagent.metrics.AgentMetrics;
 import com.gamesofts.osstimeagent.util.AgentLog;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URL;
 import java.security.SecureRandom;
@@ -17,8 +19,6 @@ import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 public final class OssEndpointTimeSync {
-    private static final int CONNECT_TIMEOUT_MS = 1000;
-    private static final int READ_TIMEOUT_MS = 1000;
     private static final boolean PRESYNC_INSECURE_HTTPS = true;
     private static volatile ConnectionOpener connectionOpener = new DefaultConnectionOpener();
     private static volatile SSLSocketFactory insecureSslSocketFactory;
@@ -43,30 +43,37 @@ public final class OssEndpointTimeSync {
         private final String methodUsed;
         private final boolean insecureHttpsUsed;
         private final String failureReason;
+        private final long rttMillis;
 
         private SyncResult(boolean success, long estimatedServerMillis, String methodUsed,
-                           boolean insecureHttpsUsed, String failureReason) {
+                           boolean insecureHttpsUsed, String failureReason, long rttMillis) {
             this.success = success;
             this.estimatedServerMillis = estimatedServerMillis;
             this.methodUsed = methodUsed;
             this.insecureHttpsUsed = insecureHttpsUsed;
             this.failureReason = failureReason;
+            this.rttMillis = rttMillis;
         }
 
         public static SyncResult success(long estimatedServerMillis, String methodUsed) {
-            return new SyncResult(true, estimatedServerMillis, methodUsed, false, null);
+            return new SyncResult(true, estimatedServerMillis, methodUsed, false, null, -1L);
         }
 
         public static SyncResult success(long estimatedServerMillis, String methodUsed, boolean insecureHttpsUsed) {
-            return new SyncResult(true, estimatedServerMillis, methodUsed, insecureHttpsUsed, null);
+            return new SyncResult(true, estimatedServerMillis, methodUsed, insecureHttpsUsed, null, -1L);
+        }
+
+        public static SyncResult success(long estimatedServerMillis, String methodUsed, boolean insecureHttpsUsed,
+                                         long rttMillis) {
+            return new SyncResult(true, estimatedServerMillis, methodUsed, insecureHttpsUsed, null, rttMillis);
         }
 
         public static SyncResult failed() {
-            return new SyncResult(false, 0L, null, false, null);
+            return new SyncResult(false, 0L, null, false, null, -1L);
         }
 
         public static SyncResult failed(String failureReason) {
-            return new SyncResult(false, 0L, null, false, failureReason);
+            return new SyncResult(false, 0L, null, false, failureReason, -1L);
         }
 
         public boolean isSuccess() {
@@ -88,9 +95,31 @@ public final class OssEndpointTimeSync {
         public String getFailureReason() {
             return failureReason;
         }
+
+        // -1 when unknown.
+        public long getRttMillis() {
+            return rttMillis;
+        }
     }
 
+    private final TimeSource time;
+    private final ProbeTimeouts timeouts;
+
     public OssEndpointTimeSync() {
+        this(TimeSource.SYSTEM);
+    }
+
+    public OssEndpointTimeSync(TimeSource time) {
+        this(time, ProbeTimeouts.shared());
+    }
+
+    OssEndpointTimeSync(TimeSource time, ProbeTimeouts timeouts) {
+        this.time = time;
+        this.timeouts = timeouts;
+    }
+
+    ProbeTimeouts getTimeouts() {
+        return timeouts;
     }
 
     public SyncResult sync(URI endpoint, RealTimeClock clock) throws IOException {
@@ -124,19 +153,40 @@ public final class OssEndpointTimeSync {
 
     private SyncResult trySync(URL endpointUrl, String method, RealTimeClock clock) throws IOException {
         HttpURLConnection conn = null;
-        long t0 = System.currentTimeMillis();
+        String key = ProbeTimeouts.keyOf(endpointUrl);
+        int connectTimeout = timeouts.connectTimeoutMillis(key);
+        int readTimeout = timeouts.readTimeoutMillis(key);
+        long t0 = time.currentTimeMillis();
         long t1 = t0;
         try {
             conn = openConnection(endpointUrl);
             conn.setRequestMethod(method);
             conn.setInstanceFollowRedirects(false);
-            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-            conn.setReadTimeout(READ_TIMEOUT_MS);
-            conn.connect();
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            long n0 = time.nanoTime();
+            try {
+                conn.connect();
+            } catch (SocketTimeoutException e) {
+                timeouts.recordConnectTimeout(key, connectTimeout);
+                AgentMetrics.recordProbeTimeout();
+                throw e;
+            }
+            long n1 = time.nanoTime();
 
             // Force headers to be available; any status code is acceptable if Date exists.
-            conn.getResponseCode();
-            t1 = System.currentTimeMillis();
+            try {
+                conn.getResponseCode();
+            } catch (SocketTimeoutException e) {
+                timeouts.recordReadTimeout(key, readTimeout);
+                AgentMetrics.recordProbeTimeout();
+                throw e;
+            }
+            t1 = time.currentTimeMillis();
+            long n2 = time.nanoTime();
+            AgentMetrics.probeRtt().record(n2 - n0);
+            timeouts.recordConnect(key, (n1 - n0) / 1000000L);
+            timeouts.recordRead(key, (n2 - n1) / 1000000L);
 
             long serverMillis = conn.getHeaderFieldDate("Date", -1L);
             if (serverMillis <= 0L) {
@@ -144,7 +194,7 @@ public final class OssEndpointTimeSync {
             }
             long estimated = serverMillis + ((t1 - t0) / 2L);
             clock.updateBaseTimeAuthoritative(estimated);
-            return SyncResult.success(estimated, method, isInsecureHttpsApplied(conn));
+            return SyncResult.success(estimated, method, isInsecureHttpsApplied(conn), t1 - t0);
         } finally {
             if (conn != null) {
                 conn.disconnect();
@@ -180,7 +230,7 @@ public final class OssEndpointTimeSync {
         return a + "; " + b;
     }
 
-    private static SSLSocketFactory getOrCreateInsecureSslSocketFactory() throws Exception {
+    static SSLSocketFactory getOrCreateInsecureSslSocketFactory() throws Exception {
         SSLSocketFactory f = insecureSslSocketFactory;
         if (f != null) {
             return f;
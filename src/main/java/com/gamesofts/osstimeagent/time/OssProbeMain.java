@@ -0,0 +1,289 @@
+package com.gamesofts.osstimeagent.time;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import javax.net.ssl.SSLSocket;
+
+// Skew diagnostics without credentials: runs the agent's sync engine against each endpoint `count` times and
+// prints RTT and offset distributions, the Date-header error bound, DNS/TCP/TLS timing (on a separate connection)
+// and which probe method answered. local=true adds an in-process stand-in endpoint, for offline runs.
+//   java -jar oss-time-agent.jar probe [count=10] [intervalMillis=1000] [local=true] [localSkewMillis=0]
+//       [localLatencyMillis=0] <endpoint>...
+// Rounds are spaced by intervalMillis plus a random sub-second phase so the Date second boundaries fall at
+// different points of the RTT and the combined bound narrows with more rounds.
+public final class OssProbeMain {
+    // Date has whole-second resolution: the server stamped some instant in [Date, Date + 999].
+    private static final long DATE_RESOLUTION_MILLIS = 999L;
+
+    private OssProbeMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = 10;
+        long intervalMillis = 1000L;
+        boolean local = false;
+        long localSkewMillis = 0L;
+        long localLatencyMillis = 0L;
+        List endpoints = new ArrayList();
+        int i;
+        for (i = 0; i < args.length; i++) {
+            String a = args[i];
+            int eq = a.indexOf('=');
+            String key = eq > 0 && a.indexOf("://") < 0 ? a.substring(0, eq) : null;
+            String value = key == null ? null : a.substring(eq + 1);
+            if (key == null) {
+                endpoints.add(a.indexOf("://") < 0 ? "https://" + a : a);
+            } else if ("count".equals(key)) {
+                count = Integer.parseInt(value);
+            } else if ("intervalMillis".equals(key)) {
+                intervalMillis = Long.parseLong(value);
+            } else if ("local".equals(key)) {
+                local = Boolean.valueOf(value).booleanValue();
+            } else if ("localSkewMillis".equals(key)) {
+                localSkewMillis = Long.parseLong(value);
+            } else if ("localLatencyMillis".equals(key)) {
+                localLatencyMillis = Long.parseLong(value);
+            } else {
+                System.err.println("unknown option " + a);
+                usage();
+                return;
+            }
+        }
+        if ((endpoints.isEmpty() && !local) || count <= 0) {
+            usage();
+            return;
+        }
+        LocalDateServer server = null;
+        if (local) {
+            server = new LocalDateServer(localSkewMillis, localLatencyMillis);
+            server.start();
+            endpoints.add(server.endpoint());
+        }
+        try {
+            Random random = new Random();
+            for (i = 0; i < endpoints.size(); i++) {
+                probe(new URI((String) endpoints.get(i)), count, intervalMillis, random).print(System.out);
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: probe [count=10] [intervalMillis=1000] [local=true] [localSkewMillis=0]"
+                + " [localLatencyMillis=0] <endpoint>...");
+        System.exit(2);
+    }
+
+    static Report probe(URI endpoint, int count, long intervalMillis, Random random) throws InterruptedException {
+        Report r = new Report(endpoint.toString(), count);
+        RealTimeClock clock = new RealTimeClock();
+        OssEndpointTimeSync sync = new OssEndpointTimeSync();
+        String key;
+        try {
+            key = ProbeTimeouts.keyOf(endpoint.toURL());
+        } catch (IOException e) {
+            key = endpoint.toString();
+        }
+        int i;
+        for (i = 0; i < count; i++) {
+            if (i > 0) {
+                Thread.sleep(intervalMillis + random.nextInt((int) Math.min(1000L, intervalMillis) + 1));
+            }
+            measureHandshake(endpoint, r, sync.getTimeouts(), key);
+            long w0 = System.currentTimeMillis();
+            OssEndpointTimeSync.SyncResult s;
+            try {
+                s = sync.sync(endpoint, clock);
+            } catch (IOException e) {
+                s = OssEndpointTimeSync.SyncResult.failed(e.toString());
+            }
+            long w1 = System.currentTimeMillis();
+            if (!s.isSuccess()) {
+                r.fail(s.getFailureReason() == null ? "failed" : s.getFailureReason());
+                continue;
+            }
+            long rtt = s.getRttMillis();
+            long date = s.getEstimatedServerMillis() - rtt / 2L;
+            r.sample(s.getMethodUsed(), rtt, clock.currentTickOffsetMillis(), date - w1,
+                    date + DATE_RESOLUTION_MILLIS - w0);
+        }
+        r.connectTimeoutMillis = sync.getTimeouts().connectTimeoutMillis(key);
+        r.readTimeoutMillis = sync.getTimeouts().readTimeoutMillis(key);
+        return r;
+    }
+
+    private static void measureHandshake(URI endpoint, Report r, ProbeTimeouts timeouts, String key) {
+        boolean https = "https".equalsIgnoreCase(endpoint.getScheme());
+        int port = endpoint.getPort() > 0 ? endpoint.getPort() : (https ? 443 : 80);
+        Socket s = null;
+        try {
+            long n0 = System.nanoTime();
+            InetAddress addr = InetAddress.getByName(endpoint.getHost());
+            long n1 = System.nanoTime();
+            s = new Socket();
+            s.connect(new InetSocketAddress(addr, port), timeouts.connectTimeoutMillis(key));
+            long n2 = System.nanoTime();
+            r.dnsMicros.add((n1 - n0) / 1000L);
+            r.connectMicros.add((n2 - n1) / 1000L);
+            if (https) {
+                s.setSoTimeout(timeouts.readTimeoutMillis(key));
+                SSLSocket ssl = (SSLSocket) OssEndpointTimeSync.getOrCreateInsecureSslSocketFactory()
+                        .createSocket(s, endpoint.getHost(), port, true);
+                s = ssl;
+                ssl.startHandshake();
+                r.tlsMicros.add((System.nanoTime() - n2) / 1000L);
+                r.tlsProtocol = ssl.getSession().getProtocol() + " " + ssl.getSession().getCipherSuite();
+            }
+        } catch (Exception e) {
+            r.count(r.handshakeFailures, "handshake " + e.getClass().getSimpleName() + ": " + e.getMessage());
+        } finally {
+            if (s != null) {
+                try {
+                    s.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    static final class Report {
+        final String endpoint;
+        final Samples rttMillis;
+        final Samples offsetMillis;
+        final Samples boundWidthMillis;
+        final Samples dnsMicros;
+        final Samples connectMicros;
+        final Samples tlsMicros;
+        final Map methods = new TreeMap();
+        final Map failures = new TreeMap();
+        final Map handshakeFailures = new TreeMap();
+        // Intersection of the per-probe offset bounds; lo > hi means the probes disagree.
+        long boundLo = Long.MIN_VALUE;
+        long boundHi = Long.MAX_VALUE;
+        String tlsProtocol;
+        int failed;
+        // Adaptive probe timeouts for the endpoint after these rounds.
+        int connectTimeoutMillis;
+        int readTimeoutMillis;
+
+        Report(String endpoint, int capacity) {
+            this.endpoint = endpoint;
+            this.rttMillis = new Samples(capacity);
+            this.offsetMillis = new Samples(capacity);
+            this.boundWidthMillis = new Samples(capacity);
+            this.dnsMicros = new Samples(capacity);
+            this.connectMicros = new Samples(capacity);
+            this.tlsMicros = new Samples(capacity);
+        }
+
+        void sample(String method, long rtt, long offset, long lo, long hi) {
+            count(methods, method);
+            rttMillis.add(rtt);
+            offsetMillis.add(offset);
+            boundWidthMillis.add(hi - lo);
+            boundLo = Math.max(boundLo, lo);
+            boundHi = Math.min(boundHi, hi);
+        }
+
+        void fail(String reason) {
+            failed++;
+            count(failures, reason);
+        }
+
+        void count(Map m, String key) {
+            Integer c = (Integer) m.get(key);
+            m.put(key, Integer.valueOf(c == null ? 1 : c.intValue() + 1));
+        }
+
+        void print(PrintStream out) {
+            out.println("endpoint " + endpoint + "  ok=" + rttMillis.size() + " failed=" + failed + " methods="
+                    + methods);
+            out.println("  rtt ms         " + rttMillis.describe(1L));
+            out.println("  offset ms      " + offsetMillis.describe(1L) + "   (engine estimate: Date + rtt/2 - local)");
+            if (rttMillis.size() > 0) {
+                out.println("  date bound ms  per probe width " + boundWidthMillis.describe(1L));
+                if (boundLo <= boundHi) {
+                    long mid = (boundLo + boundHi) / 2L;
+                    out.println("                 all probes [" + boundLo + ", " + boundHi + "] width "
+                            + (boundHi - boundLo) + ", midpoint " + mid + ", engine p50 error "
+                            + (offsetMillis.percentile(0.5) - mid));
+                } else {
+                    out.println("                 all probes inconsistent [" + boundLo + ", " + boundHi
+                            + "]: server clock stepped or drifting, or frontends disagree");
+                }
+            }
+            out.println("  timeouts ms    connect " + connectTimeoutMillis + "  read " + readTimeoutMillis
+                    + "   (adaptive, for the next probe)");
+            out.println("  dns ms         " + dnsMicros.describe(1000L));
+            out.println("  connect ms     " + connectMicros.describe(1000L));
+            out.println("  tls ms         " + (tlsMicros.size() == 0 ? "n/a" : tlsMicros.describe(1000L) + "  "
+                    + tlsProtocol));
+            printCounts(out, "failure", failures);
+            printCounts(out, "failure", handshakeFailures);
+        }
+
+        private static void printCounts(PrintStream out, String label, Map m) {
+            for (Iterator it = m.entrySet().iterator(); it.hasNext();) {
+                Map.Entry e = (Map.Entry) it.next();
+                out.println("  " + label + " x" + e.getValue() + "  " + e.getKey());
+            }
+        }
+    }
+
+    static final class Samples {
+        private long[] values;
+        private int n;
+
+        Samples(int capacity) {
+            values = new long[Math.max(1, capacity)];
+        }
+
+        void add(long v) {
+            if (n == values.length) {
+                values = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = v;
+        }
+
+        int size() {
+            return n;
+        }
+
+        long percentile(double p) {
+            long[] sorted = Arrays.copyOf(values, n);
+            Arrays.sort(sorted);
+            int idx = (int) Math.ceil(p * n) - 1;
+            return sorted[Math.max(0, Math.min(n - 1, idx))];
+        }
+
+        // Values are printed divided by `scale` (1000 turns micros into millis with three decimals).
+        String describe(long scale) {
+            if (n == 0) {
+                return "-";
+            }
+            return "min " + fmt(percentile(0.0), scale) + "  p50 " + fmt(percentile(0.5), scale) + "  p90 "
+                    + fmt(percentile(0.9), scale) + "  max " + fmt(percentile(1.0), scale);
+        }
+
+        private static String fmt(long v, long scale) {
+            if (scale == 1L) {
+                return String.valueOf(v);
+            }
+            return String.format("%.3f", new Object[] { Double.valueOf((double) v / scale) });
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.gamesofts.osstimeagent.time;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-endpoint probe timeouts from the last WINDOW probe timings, kept separately for connect (TCP, plus TLS for
+// https) and for the request up to response headers. Each timeout is MULTIPLIER x the p90 of its window, clamped
+// to [floorMillis, ceilingMillis]: a dead probe to a 2 ms endpoint fails at the floor instead of after a second,
+// and a cross-border link gets what it needs. Until MIN_SAMPLES timings exist the old fixed default applies. After
+// a timeout the next attempt gets at least twice the timeout that expired, until that phase succeeds again, so a
+// link that became slower than its window recovers within a few probes.
+public final class ProbeTimeouts {
+    static final int DEFAULT_TIMEOUT_MS = 1000;
+    static final int WINDOW = 32;
+    static final int MIN_SAMPLES = 3;
+    static final int MULTIPLIER = 4;
+    // Endpoints beyond this many share the defaults instead of growing the map.
+    static final int MAX_ENDPOINTS = 256;
+
+    private static final ProbeTimeouts SHARED = new ProbeTimeouts();
+
+    private final Map windows = new ConcurrentHashMap();
+    private volatile int floorMillis = 100;
+    private volatile int ceilingMillis = 10000;
+
+    ProbeTimeouts() {
+    }
+
+    public static ProbeTimeouts shared() {
+        return SHARED;
+    }
+
+    public int getFloorMillis() {
+        return floorMillis;
+    }
+
+    public int getCeilingMillis() {
+        return ceilingMillis;
+    }
+
+    public void setBounds(int floorMillis, int ceilingMillis) {
+        int floor = Math.max(1, floorMillis);
+        this.floorMillis = floor;
+        this.ceilingMillis = Math.max(floor, ceilingMillis);
+    }
+
+    int connectTimeoutMillis(String endpointKey) {
+        Endpoint e = (Endpoint) windows.get(endpointKey);
+        return e == null ? clamp(DEFAULT_TIMEOUT_MS) : e.connect.timeoutMillis(this);
+    }
+
+    int readTimeoutMillis(String endpointKey) {
+        Endpoint e = (Endpoint) windows.get(endpointKey);
+        return e == null ? clamp(DEFAULT_TIMEOUT_MS) : e.read.timeoutMillis(this);
+    }
+
+    void recordConnect(String endpointKey, long millis) {
+        Endpoint e = endpoint(endpointKey);
+        if (e != null) {
+            e.connect.add(millis);
+        }
+    }
+
+    void recordRead(String endpointKey, long millis) {
+        Endpoint e = endpoint(endpointKey);
+        if (e != null) {
+            e.read.add(millis);
+        }
+    }
+
+    void recordConnectTimeout(String endpointKey, int timeoutMillis) {
+        Endpoint e = endpoint(endpointKey);
+        if (e != null) {
+            e.connect.timedOut(timeoutMillis);
+        }
+    }
+
+    void recordReadTimeout(String endpointKey, int timeoutMillis) {
+        Endpoint e = endpoint(endpointKey);
+        if (e != null) {
+            e.read.timedOut(timeoutMillis);
+        }
+    }
+
+    // scheme://host:port with the default port filled in, so https://h and https://h:443 share their timings.
+    static String keyOf(URL url) {
+        int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol().toLowerCase(Locale.ENGLISH) + "://" + url.getHost().toLowerCase(Locale.ENGLISH) + ":"
+                + port;
+    }
+
+    private Endpoint endpoint(String endpointKey) {
+        Endpoint e = (Endpoint) windows.get(endpointKey);
+        if (e != null || windows.size() >= MAX_ENDPOINTS) {
+            return e;
+        }
+        synchronized (windows) {
+            e = (Endpoint) windows.get(endpointKey);
+            if (e == null && windows.size() < MAX_ENDPOINTS) {
+                e = new Endpoint();
+                windows.put(endpointKey, e);
+            }
+            return e;
+        }
+    }
+
+    private int clamp(long millis) {
+        int floor = floorMillis;
+        int ceiling = ceilingMillis;
+        return (int) Math.max(floor, Math.min(ceiling, millis));
+    }
+
+    private static final class Endpoint {
+        final Window connect = new Window();
+        final Window read = new Window();
+    }
+
+    // Ring of the last WINDOW timings of one phase. Probes are rare, so a lock and a sort per read are fine.
+    private static final class Window {
+        private final long[] samples = new long[WINDOW];
+        private int count;
+        private int next;
+        private long backoffMillis;
+
+        synchronized void add(long millis) {
+            samples[next] = Math.max(0L, millis);
+            next = (next + 1) % WINDOW;
+            if (count < WINDOW) {
+                count++;
+            }
+            backoffMillis = 0L;
+        }
+
+        synchronized void timedOut(int timeoutMillis) {
+            backoffMillis = Math.max(backoffMillis, 2L * timeoutMillis);
+        }
+
+        synchronized int timeoutMillis(ProbeTimeouts bounds) {
+            long t = count < MIN_SAMPLES ? DEFAULT_TIMEOUT_MS : MULTIPLIER * p90();
+            return bounds.clamp(Math.max(t, backoffMillis));
+        }
+
+        private long p90() {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int idx = (int) Math.ceil(0.9d * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, idx))];
+        }
+    }
+}
@@ -1,52 +1,68 @@
 package com.gamesofts.osstimeagent.time;
 
-import java.util.concurrent.atomic.AtomicLong;
+import com.gamesofts.osstimeagent.history.OffsetHistory;
+import com.gamesofts.osstimeagent.metrics.AgentEvents;
 
 public final class RealTimeClock {
-    private volatile long baseRealMillis;
-    private volatile long baseNanoTime;
-    private final AtomicLong lastReturnedMillis;
+    // The base pair is published as one immutable object so a reader never combines the millis of one update
+    // with the nanos of another. Each authoritative update starts a fresh floor: a reader still holding the old
+    // base can only raise the old floor, never undo a backward step. Updates come from one thread at a time (the
+    // pre-sync holds the in-flight flag); reads are lock-free from any thread.
+    private volatile Base base;
+    private final TimeSource time;
 
     public RealTimeClock() {
-        long now = System.currentTimeMillis();
-        this.baseRealMillis = now;
-        this.baseNanoTime = System.nanoTime();
-        this.lastReturnedMillis = new AtomicLong(now);
+        this(TimeSource.SYSTEM);
+    }
+
+    public RealTimeClock(TimeSource time) {
+        this.time = time;
+        long now = time.currentTimeMillis();
+        this.base = new Base(now, time.nanoTime(), new MonotonicMillis(now));
     }
 
     public void updateBaseTime(long realMillis) {
-        this.baseRealMillis = realMillis;
-        this.baseNanoTime = System.nanoTime();
-        long prev;
-        do {
-            prev = lastReturnedMillis.get();
-            if (realMillis <= prev) {
-                return;
-            }
-        } while (!lastReturnedMillis.compareAndSet(prev, realMillis));
+        long previous = projectedMillis();
+        MonotonicMillis floor = base.floor;
+        base = new Base(realMillis, time.nanoTime(), floor);
+        long returned = floor.advance(realMillis);
+        // A backward step is not applied: callers keep seeing the last returned value until the clock catches up.
+        AgentEvents.clockStep(previous, realMillis, Math.max(0L, returned - realMillis), false);
+        OffsetHistory.recordEvent(OffsetHistory.SOURCE_CLOCK_STEP, realMillis - time.currentTimeMillis());
     }
 
     public void updateBaseTimeAuthoritative(long realMillis) {
-        this.baseRealMillis = realMillis;
-        this.baseNanoTime = System.nanoTime();
-        this.lastReturnedMillis.set(realMillis);
+        long previous = projectedMillis();
+        base = new Base(realMillis, time.nanoTime(), new MonotonicMillis(realMillis));
+        AgentEvents.clockStep(previous, realMillis, 0L, true);
+        OffsetHistory.recordEvent(OffsetHistory.SOURCE_CLOCK_STEP_AUTHORITATIVE,
+                realMillis - time.currentTimeMillis());
+    }
+
+    private long projectedMillis() {
+        Base b = base;
+        return b.realMillis + (time.nanoTime() - b.nanoTime) / 1000000L;
     }
 
     public long currentTimeMillis() {
-        long elapsedNanos = System.nanoTime() - baseNanoTime;
-        long candidate = baseRealMillis + (elapsedNanos / 1000000L);
-        for (;;) {
-            long prev = lastReturnedMillis.get();
-            if (candidate <= prev) {
-                return prev;
-            }
-            if (lastReturnedMillis.compareAndSet(prev, candidate)) {
-                return candidate;
-            }
-        }
+        Base b = base;
+        long candidate = b.realMillis + (time.nanoTime() - b.nanoTime) / 1000000L;
+        return b.floor.advance(candidate);
     }
 
     public long currentTickOffsetMillis() {
-        return currentTimeMillis() - System.currentTimeMillis();
+        return currentTimeMillis() - time.currentTimeMillis();
+    }
+
+    private static final class Base {
+        final long realMillis;
+        final long nanoTime;
+        final MonotonicMillis floor;
+
+        Base(long realMillis, long nanoTime, MonotonicMillis floor) {
+            this.realMillis = realMillis;
+            this.nanoTime = nanoTime;
+            this.floor = floor;
+        }
     }
 }
@@ -0,0 +1,19 @@
+package com.gamesofts.osstimeagent.time;
+
+// Where the clock classes read local time from. Production always uses SYSTEM, so the call stays monomorphic and
+// inlines to the System methods; tests substitute a simulated source to replay jumps, drift and suspends.
+public interface TimeSource {
+    TimeSource SYSTEM = new TimeSource() {
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    long currentTimeMillis();
+
+    long nanoTime();
+}
@@ -0,0 +1,82 @@
+package com.gamesofts.osstimeagent.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class AgentConfig {
+    private static final String PROPERTY_PREFIX = "oss.time.agent.";
+    // Arguments of the latest premain/agentmain only: a repeated attach replaces them rather than adding to them.
+    private static volatile Map agentArgs = new ConcurrentHashMap();
+
+    private AgentConfig() {
+    }
+
+    // "k1=v1,k2=v2"; agent args take precedence over -Doss.time.agent.<key> system properties.
+    public static void parseAgentArgs(String args) {
+        Map parsed = new ConcurrentHashMap();
+        if (args != null) {
+            parseInto(args, parsed);
+        }
+        agentArgs = parsed;
+    }
+
+    // Whether the latest attach (or premain) passed this key itself, regardless of system properties.
+    public static boolean hasAgentArg(String key) {
+        return agentArgs.containsKey(key);
+    }
+
+    private static void parseInto(String args, Map target) {
+        String[] parts = args.split(",");
+        int i;
+        for (i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (part.length() == 0) {
+                continue;
+            }
+            int eq = part.indexOf('=');
+            if (eq <= 0) {
+                target.put(part, "true");
+            } else {
+                target.put(part.substring(0, eq).trim(), part.substring(eq + 1).trim());
+            }
+        }
+    }
+
+    public static String get(String key, String def) {
+        Object v = agentArgs.get(key);
+        if (v != null) {
+            return (String) v;
+        }
+        String p = null;
+        try {
+            p = System.getProperty(PROPERTY_PREFIX + key);
+        } catch (SecurityException ignore) {
+        }
+        return (p == null || p.length() == 0) ? def : p;
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        String v = get(key, null);
+        if (v == null) {
+            return def;
+        }
+        return "true".equalsIgnoreCase(v) || "on".equalsIgnoreCase(v) || "1".equals(v);
+    }
+
+    public static long getLong(String key, long def) {
+        String v = get(key, null);
+        if (v == null) {
+            return def;
+        }
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            AgentLog.warn("ignore invalid value for " + key + ": " + v);
+            return def;
+        }
+    }
+
+    static void resetForTest() {
+        agentArgs = new ConcurrentHashMap();
+    }
+}
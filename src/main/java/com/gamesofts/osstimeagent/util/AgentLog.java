@@ -1,8 +1,29 @@
 package com.gamesofts.osstimeagent.util;
 
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Logging is called from OSS request threads, so it must never wait on stderr. WARN and DEBUG messages pass a
+// per-key rate limiter, then go into a bounded queue drained by a daemon writer; when the queue is full they are
+// dropped and counted instead of blocking. Repeats within logRateLimitMillis are folded into "suppressed N similar
+// messages: <last one suppressed>". INFO is not limited: it carries the clock state (tickOffset, sync results),
+// is rare, and lines that differ only in their numbers are exactly the ones an operator needs after a step.
 public final class AgentLog {
     private static final String PREFIX = "[oss-time-agent] ";
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000L;
+    private static final String[] TAGS = new String[] { "WARN", "INFO", "DEBUG" };
+
     private static volatile int level = 1; // 0=warn,1=info,2=debug
+    private static volatile boolean async = true;
+    private static volatile PrintStream out = System.err;
+    private static final LogRateLimiter limiter = new LogRateLimiter(10000L);
+    private static final ArrayBlockingQueue queue = new ArrayBlockingQueue(QUEUE_CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final AtomicBoolean writerStarted = new AtomicBoolean(false);
 
     private AgentLog() {
     }
@@ -20,31 +41,170 @@ public final class AgentLog {
         }
     }
 
+    public static void setAsync(boolean enabled) {
+        async = enabled;
+    }
+
+    // 0 disables rate limiting.
+    public static void setRateLimitMillis(long millis) {
+        limiter.setWindowMillis(millis);
+    }
+
     public static void warn(String msg) {
-        log(0, "WARN", msg, null);
+        log(0, msg, null);
     }
 
     public static void warn(String msg, Throwable t) {
-        log(0, "WARN", msg, t);
+        log(0, msg, t);
     }
 
     public static void info(String msg) {
-        log(1, "INFO", msg, null);
+        log(1, msg, null);
     }
 
     public static void debug(String msg) {
-        log(2, "DEBUG", msg, null);
+        log(2, msg, null);
+    }
+
+    // Lets hot paths skip building a debug message nobody will see.
+    public static boolean isDebugEnabled() {
+        return level >= 2;
+    }
+
+    public static long getDroppedCount() {
+        return dropped.get();
     }
 
-    private static void log(int required, String tag, String msg, Throwable t) {
+    private static void log(int required, String msg, Throwable t) {
         if (level < required) {
             return;
         }
+        String tag = TAGS[required];
+        long suppressed = 0L;
+        String suppressedText = null;
+        if (required != 1) {
+            int key = LogRateLimiter.keyHash(tag, msg);
+            suppressed = limiter.acquire(key, tag, msg, System.currentTimeMillis());
+            if (suppressed < 0L) {
+                return;
+            }
+            if (suppressed > 0L) {
+                suppressedText = limiter.takeLastSuppressed(key);
+            }
+        }
+        Entry e = new Entry(tag, msg, t, suppressed, suppressedText);
+        if (!async) {
+            write(e);
+            return;
+        }
+        ensureWriter();
+        if (!queue.offer(e)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private static void ensureWriter() {
+        if (writerStarted.get() || !writerStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                drainLoop();
+            }
+        }, "oss-time-agent-log");
+        writer.setDaemon(true);
+        writer.start();
+        try {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    flush();
+                }
+            }, "oss-time-agent-log-flush"));
+        } catch (Throwable ignore) {
+            // Already shutting down or not permitted; the daemon writer is best effort then.
+        }
+    }
+
+    private static void drainLoop() {
+        long[] counts = new long[16];
+        String[] texts = new String[16];
+        long nextSweep = System.currentTimeMillis() + FLUSH_INTERVAL_MILLIS;
+        for (;;) {
+            try {
+                Entry e = (Entry) queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (e != null) {
+                    write(e);
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextSweep) {
+                    nextSweep = now + FLUSH_INTERVAL_MILLIS;
+                    writeSuppressed(now, counts, texts);
+                    writeDropped();
+                }
+            } catch (InterruptedException ie) {
+                return;
+            } catch (Throwable t) {
+                // Never let the writer die on a bad message.
+            }
+        }
+    }
+
+    // Writes everything still queued plus pending suppression summaries; used at shutdown and by tests.
+    public static void flush() {
+        Entry e;
+        while ((e = (Entry) queue.poll()) != null) {
+            write(e);
+        }
+        writeSuppressed(Long.MAX_VALUE, new long[LogRateLimiter.SLOTS], new String[LogRateLimiter.SLOTS]);
+        writeDropped();
+    }
+
+    private static synchronized void writeSuppressed(long now, long[] counts, String[] texts) {
+        int n = limiter.drainExpired(now, counts, texts);
+        int i;
+        for (i = 0; i < n; i++) {
+            out.println(PREFIX + "INFO suppressed " + counts[i] + " similar messages: " + texts[i]);
+        }
+    }
+
+    private static synchronized void writeDropped() {
+        long n = dropped.getAndSet(0L);
+        if (n > 0L) {
+            out.println(PREFIX + "WARN dropped " + n + " log messages (log queue full)");
+        }
+    }
+
+    private static synchronized void write(Entry e) {
+        PrintStream o = out;
+        if (e.suppressed > 0L) {
+            o.println(PREFIX + "INFO suppressed " + e.suppressed + " similar messages: "
+                    + (e.suppressedText != null ? e.suppressedText : e.msg));
+        }
         StringBuilder sb = new StringBuilder();
-        sb.append(PREFIX).append(tag).append(' ').append(msg);
-        System.err.println(sb.toString());
-        if (t != null) {
-            t.printStackTrace(System.err);
+        sb.append(PREFIX).append(e.tag).append(' ').append(e.msg);
+        o.println(sb.toString());
+        if (e.error != null) {
+            e.error.printStackTrace(o);
+        }
+    }
+
+    static void setOutputForTest(PrintStream stream) {
+        out = stream == null ? System.err : stream;
+    }
+
+    private static final class Entry {
+        final String tag;
+        final String msg;
+        final Throwable error;
+        final long suppressed;
+        final String suppressedText;
+
+        Entry(String tag, String msg, Throwable error, long suppressed, String suppressedText) {
+            this.tag = tag;
+            this.msg = msg;
+            this.error = error;
+            this.suppressed = suppressed;
+            this.suppressedText = suppressedText;
         }
     }
 }
@@ -0,0 +1,122 @@
+package com.gamesofts.osstimeagent.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Lets one message per key through each window and counts the rest. Keys hash into a fixed slot table, so
+// memory is bounded; a slot hit is checked against the key that opened the window, and a different key that
+// collides with it is let through instead of sharing its budget. Lock-free; never blocks the logging thread.
+final class LogRateLimiter {
+    static final int SLOTS = 256;
+
+    // [slot * 2] = window start millis, [slot * 2 + 1] = messages suppressed in that window
+    private final AtomicLongArray state = new AtomicLongArray(SLOTS * 2);
+    // Tag and message that opened the slot's window, and the last message suppressed in it.
+    private final AtomicReferenceArray tags = new AtomicReferenceArray(SLOTS);
+    private final AtomicReferenceArray owners = new AtomicReferenceArray(SLOTS);
+    private final AtomicReferenceArray lastSuppressed = new AtomicReferenceArray(SLOTS);
+    private volatile long windowMillis;
+
+    LogRateLimiter(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    void setWindowMillis(long millis) {
+        windowMillis = millis;
+    }
+
+    // Returns -1 when the message must be dropped, else the number suppressed for this slot since the last one
+    // that got through (0 normally); takeLastSuppressed then returns the text of the last one dropped.
+    long acquire(int keyHash, String tag, String msg, long nowMillis) {
+        long window = windowMillis;
+        if (window <= 0L) {
+            return 0L;
+        }
+        int slot = keyHash & (SLOTS - 1);
+        long start = state.get(slot * 2);
+        if ((start != 0L && nowMillis - start < window) || !state.compareAndSet(slot * 2, start, nowMillis)) {
+            if (!isOwner(slot, tag, msg)) {
+                return 0L;
+            }
+            lastSuppressed.set(slot, msg);
+            state.getAndIncrement(slot * 2 + 1);
+            return -1L;
+        }
+        tags.set(slot, tag);
+        owners.set(slot, msg);
+        return state.getAndSet(slot * 2 + 1, 0L);
+    }
+
+    String takeLastSuppressed(int keyHash) {
+        return (String) lastSuppressed.getAndSet(keyHash & (SLOTS - 1), null);
+    }
+
+    // Collects suppressed counts of windows that have expired with no later message to carry them.
+    // Called from the writer thread; appends "count, last suppressed text" pairs to the given arrays and returns
+    // how many.
+    int drainExpired(long nowMillis, long[] counts, String[] texts) {
+        long window = windowMillis;
+        int n = 0;
+        int slot;
+        for (slot = 0; slot < SLOTS && n < counts.length; slot++) {
+            long start = state.get(slot * 2);
+            if (start == 0L || nowMillis - start < window || state.get(slot * 2 + 1) == 0L) {
+                continue;
+            }
+            if (!state.compareAndSet(slot * 2, start, 0L)) {
+                continue;
+            }
+            long suppressed = state.getAndSet(slot * 2 + 1, 0L);
+            String text = (String) lastSuppressed.getAndSet(slot, null);
+            if (suppressed > 0L) {
+                counts[n] = suppressed;
+                texts[n] = text != null ? text : (String) owners.get(slot);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private boolean isOwner(int slot, String tag, String msg) {
+        Object owner = owners.get(slot);
+        return tag.equals(tags.get(slot)) && owner != null && sameKey((String) owner, msg);
+    }
+
+    // Digits are skipped so messages differing only in numbers (ports, millis, counters) share a key.
+    static int keyHash(String tag, String msg) {
+        int h = tag.hashCode();
+        int len = msg.length();
+        int i;
+        for (i = 0; i < len; i++) {
+            char c = msg.charAt(i);
+            if (c < '0' || c > '9') {
+                h = 31 * h + c;
+            }
+        }
+        return h ^ (h >>> 16);
+    }
+
+    // Equality under the same digit-skipping rule as keyHash, without building the stripped strings.
+    static boolean sameKey(String a, String b) {
+        int i = 0;
+        int j = 0;
+        for (;;) {
+            while (i < a.length() && isDigit(a.charAt(i))) {
+                i++;
+            }
+            while (j < b.length() && isDigit(b.charAt(j))) {
+                j++;
+            }
+            if (i == a.length() || j == b.length()) {
+                return i == a.length() && j == b.length();
+            }
+            if (a.charAt(i++) != b.charAt(j++)) {
+                return false;
+            }
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
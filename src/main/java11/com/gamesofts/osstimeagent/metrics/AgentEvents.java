@@ -0,0 +1,59 @@
+package com.gamesofts.osstimeagent.metrics;
+
+// Java 11+ variant emitting Flight Recorder events through JfrEvents. A jlink-ed runtime may lack the jdk.jfr
+// module, and these hooks run on request threads outside any try block, so this class never links jdk.jfr
+// itself: it checks once whether JfrEvents initializes and otherwise behaves like the no-op baseline.
+public final class AgentEvents {
+    private static final boolean JFR = jfrAvailable();
+
+    private AgentEvents() {
+    }
+
+    public static boolean isSupported() {
+        return JFR;
+    }
+
+    public static Object beginPreSync() {
+        return JFR ? JfrEvents.beginPreSync() : null;
+    }
+
+    public static void endPreSync(Object token, String endpoint, String method, long rttMillis, boolean success,
+                                  String failureReason) {
+        if (token != null) {
+            JfrEvents.endPreSync(token, endpoint, method, rttMillis, success, failureReason);
+        }
+    }
+
+    public static Object beginResign() {
+        return JFR ? JfrEvents.beginResign() : null;
+    }
+
+    public static void endResign(Object token, int retries, boolean success) {
+        if (token != null) {
+            JfrEvents.endResign(token, retries, success);
+        }
+    }
+
+    public static void skewRetry(long firstAttemptNanos) {
+        if (JFR) {
+            JfrEvents.skewRetry(firstAttemptNanos);
+        }
+    }
+
+    public static void clockStep(long previousMillis, long newMillis, long heldMillis, boolean authoritative) {
+        if (JFR) {
+            JfrEvents.clockStep(previousMillis, newMillis, heldMillis, authoritative);
+        }
+    }
+
+    private static boolean jfrAvailable() {
+        try {
+            ClassLoader loader = AgentEvents.class.getClassLoader();
+            Class.forName("jdk.jfr.Event", false, loader);
+            Class.forName("com.gamesofts.osstimeagent.metrics.JfrEvents", true, loader);
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+}
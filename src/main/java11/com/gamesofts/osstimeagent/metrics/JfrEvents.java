@@ -0,0 +1,155 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import jdk.jfr.Timestamp;
+
+// The jdk.jfr side of the Java 11 AgentEvents; only loaded once AgentEvents has found the jdk.jfr module. Each
+// hook first checks the cached EventType, so with no recording (or the event disabled) the cost is a field read
+// and nothing is allocated.
+final class JfrEvents {
+    private static final EventType PRE_SYNC = EventType.getEventType(PreSyncEvent.class);
+    private static final EventType RESIGN = EventType.getEventType(ResignEvent.class);
+    private static final EventType SKEW_RETRY = EventType.getEventType(SkewRetryEvent.class);
+    private static final EventType CLOCK_STEP = EventType.getEventType(ClockStepEvent.class);
+
+    private JfrEvents() {
+    }
+
+    static Object beginPreSync() {
+        if (!PRE_SYNC.isEnabled()) {
+            return null;
+        }
+        PreSyncEvent e = new PreSyncEvent();
+        e.begin();
+        return e;
+    }
+
+    static void endPreSync(Object token, String endpoint, String method, long rttMillis, boolean success,
+                                  String failureReason) {
+        if (!(token instanceof PreSyncEvent)) {
+            return;
+        }
+        PreSyncEvent e = (PreSyncEvent) token;
+        e.end();
+        if (e.shouldCommit()) {
+            e.endpoint = endpoint;
+            e.method = method;
+            e.rttMillis = rttMillis;
+            e.success = success;
+            e.failureReason = failureReason;
+            e.commit();
+        }
+    }
+
+    static Object beginResign() {
+        if (!RESIGN.isEnabled()) {
+            return null;
+        }
+        ResignEvent e = new ResignEvent();
+        e.begin();
+        return e;
+    }
+
+    static void endResign(Object token, int retries, boolean success) {
+        if (!(token instanceof ResignEvent)) {
+            return;
+        }
+        ResignEvent e = (ResignEvent) token;
+        e.end();
+        if (e.shouldCommit()) {
+            e.retries = retries;
+            e.success = success;
+            e.commit();
+        }
+    }
+
+    static void skewRetry(long firstAttemptNanos) {
+        if (!SKEW_RETRY.isEnabled()) {
+            return;
+        }
+        SkewRetryEvent e = new SkewRetryEvent();
+        e.firstAttemptDuration = firstAttemptNanos;
+        e.commit();
+    }
+
+    static void clockStep(long previousMillis, long newMillis, long heldMillis, boolean authoritative) {
+        if (!CLOCK_STEP.isEnabled()) {
+            return;
+        }
+        ClockStepEvent e = new ClockStepEvent();
+        e.previousTime = previousMillis;
+        e.newTime = newMillis;
+        e.stepMillis = newMillis - previousMillis;
+        e.heldMillis = heldMillis;
+        e.authoritative = authoritative;
+        e.commit();
+    }
+
+    @Name("com.gamesofts.osstimeagent.PreSync")
+    @Label("OSS Endpoint Pre-Sync")
+    @Category({ "OSS Time Agent" })
+    @Description("Time probe against an OSS endpoint")
+    static final class PreSyncEvent extends Event {
+        @Label("Endpoint")
+        String endpoint;
+        @Label("Method")
+        String method;
+        @Label("RTT")
+        @Timespan(Timespan.MILLISECONDS)
+        long rttMillis;
+        @Label("Success")
+        boolean success;
+        @Label("Failure Reason")
+        String failureReason;
+    }
+
+    @Name("com.gamesofts.osstimeagent.Resign")
+    @Label("Re-sign For Retry")
+    @Category({ "OSS Time Agent" })
+    @Description("Request re-signed with the agent clock before an SDK retry")
+    static final class ResignEvent extends Event {
+        @Label("Retries")
+        int retries;
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("com.gamesofts.osstimeagent.SkewRetry")
+    @Label("RequestTimeTooSkewed Retry")
+    @Category({ "OSS Time Agent" })
+    @Description("Immediate retry forced after OSS rejected a request as RequestTimeTooSkewed")
+    static final class SkewRetryEvent extends Event {
+        @Label("First Attempt Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long firstAttemptDuration;
+    }
+
+    @Name("com.gamesofts.osstimeagent.ClockStep")
+    @Label("Agent Clock Step")
+    @Category({ "OSS Time Agent" })
+    @Description("Agent clock re-based on a synced time; a backward step is held rather than applied unless authoritative")
+    @StackTrace(false)
+    static final class ClockStepEvent extends Event {
+        @Label("Previous Time")
+        @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+        long previousTime;
+        @Label("New Time")
+        @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+        long newTime;
+        @Label("Step")
+        @Timespan(Timespan.MILLISECONDS)
+        long stepMillis;
+        @Label("Held")
+        @Timespan(Timespan.MILLISECONDS)
+        long heldMillis;
+        @Label("Authoritative")
+        boolean authoritative;
+    }
+}
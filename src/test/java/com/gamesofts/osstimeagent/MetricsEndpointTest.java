@@ -0,0 +1,95 @@
+package com.gamesofts.osstimeagent;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+
+public class MetricsEndpointTest {
+    @Test
+    public void testServesPrometheusTextAndRejectsOtherPaths() throws Exception {
+        MetricsEndpoint endpoint = MetricsEndpoint.start("127.0.0.1", 0);
+        try {
+            HttpURLConnection conn = open(endpoint, "/metrics");
+            Assert.assertEquals(200, conn.getResponseCode());
+            Assert.assertTrue(conn.getContentType().startsWith("text/plain; version=0.0.4"));
+            String body = readAll(conn.getInputStream());
+            Assert.assertTrue(body.contains("# TYPE oss_time_agent_clock_offset_milliseconds gauge"));
+
+            // A second scrape reuses the same buffers and must produce a complete document again.
+            String again = readAll(open(endpoint, "/metrics?x=1").getInputStream());
+            Assert.assertTrue(again.contains("oss_time_agent_syncs_total"));
+
+            Assert.assertEquals(404, open(endpoint, "/other").getResponseCode());
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    @Test
+    public void testTricklingClientCannotHoldTheEndpointPastTheHeadDeadline() throws Exception {
+        MetricsEndpoint endpoint = MetricsEndpoint.start("127.0.0.1", 0);
+        final Socket slow = new Socket("127.0.0.1", endpoint.getPort());
+        Thread trickle = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    OutputStream out = slow.getOutputStream();
+                    int i;
+                    // One byte every 200 ms never trips a per-read timeout and would last minutes.
+                    for (i = 0; i < 50; i++) {
+                        out.write('G');
+                        out.flush();
+                        Thread.sleep(200L);
+                    }
+                } catch (Exception ignore) {
+                    // The endpoint closed the connection.
+                }
+            }
+        });
+        trickle.setDaemon(true);
+        trickle.start();
+        try {
+            Thread.sleep(100L);
+            long t0 = System.currentTimeMillis();
+            HttpURLConnection conn = open(endpoint, "/metrics");
+            conn.setReadTimeout(6000);
+            Assert.assertEquals(200, conn.getResponseCode());
+            readAll(conn.getInputStream());
+            long waited = System.currentTimeMillis() - t0;
+            Assert.assertTrue("waited " + waited + "ms", waited < MetricsEndpoint.HEAD_DEADLINE_MILLIS + 1500L);
+        } finally {
+            slow.close();
+            endpoint.stop();
+        }
+    }
+
+    private static HttpURLConnection open(MetricsEndpoint endpoint, String path) throws Exception {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://127.0.0.1:" + endpoint.getPort() + path)
+                .openConnection();
+        conn.setConnectTimeout(2000);
+        conn.setReadTimeout(2000);
+        return conn;
+    }
+
+    private static String readAll(InputStream in) throws Exception {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (;;) {
+                int n = in.read(buf);
+                if (n < 0) {
+                    break;
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
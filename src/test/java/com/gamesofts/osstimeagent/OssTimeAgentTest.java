@@ -0,0 +1,158 @@
+package com.gamesofts.osstimeagent;
+
+import com.gamesofts.osstimeagent.instrument.OssSdkTransformer;
+import com.gamesofts.osstimeagent.util.AgentConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class OssTimeAgentTest {
+    @Test
+    public void testRetransformLoadedTargetsUsesSingleBatch() throws Exception {
+        ClassLoader loader = getClass().getClassLoader();
+        FakeInstrumentation inst = new FakeInstrumentation(new Class[] {
+                String.class,
+                Class.forName("com.aliyun.oss.common.comm.ServiceClient", false, loader),
+                Class.forName("com.aliyun.oss.ClientConfiguration", false, loader),
+                Class.forName("com.aliyun.oss.internal.OSSOperation", false, loader)
+        });
+
+        OssTimeAgent.RetransformSummary summary = OssTimeAgent.retransformLoadedTargets(inst.proxy(), targets());
+
+        Assert.assertEquals(3, summary.hit);
+        Assert.assertEquals(0, summary.failed);
+        Assert.assertEquals(1, inst.batches.size());
+        Assert.assertEquals(3, ((Class[]) inst.batches.get(0)).length);
+    }
+
+    @Test
+    public void testRetransformFallsBackPerClassWhenBatchFails() throws Exception {
+        ClassLoader loader = getClass().getClassLoader();
+        final Class bad = Class.forName("com.aliyun.oss.ClientConfiguration", false, loader);
+        FakeInstrumentation inst = new FakeInstrumentation(new Class[] {
+                Class.forName("com.aliyun.oss.common.comm.ServiceClient", false, loader),
+                bad
+        });
+        inst.failing = bad;
+
+        OssTimeAgent.RetransformSummary summary = OssTimeAgent.retransformLoadedTargets(inst.proxy(), targets());
+
+        Assert.assertEquals(2, summary.hit);
+        Assert.assertEquals(1, summary.failed);
+        Assert.assertEquals(3, inst.batches.size());
+        Assert.assertTrue(summary.failedClassNames.contains(bad.getName()));
+    }
+
+    @Test
+    public void testControlDisableRestoresOriginalBytesOnRetransform() throws Exception {
+        ClassLoader loader = getClass().getClassLoader();
+        FakeInstrumentation inst = new FakeInstrumentation(new Class[] {
+                Class.forName("com.aliyun.oss.common.comm.ServiceClient", false, loader)
+        });
+        OssSdkTransformer transformer = new OssSdkTransformer();
+        AgentControl control = new AgentControl(inst.proxy(), transformer, true);
+        byte[] original = new byte[] { (byte) 0xCA, (byte) 0xFE };
+
+        control.disablePatches();
+
+        Assert.assertFalse(control.isPatchesEnabled());
+        Assert.assertEquals(1, inst.batches.size());
+        Assert.assertNull(transformer.transform(loader, "com/aliyun/oss/common/comm/ServiceClient", null, null, original));
+
+        control.enablePatches();
+
+        Assert.assertTrue(control.isPatchesEnabled());
+        Assert.assertEquals(2, inst.batches.size());
+    }
+
+    @Test
+    public void testRepeatedAttachAppliesOnlyItsOwnArguments() throws Exception {
+        ClassLoader loader = getClass().getClassLoader();
+        FakeInstrumentation inst = new FakeInstrumentation(new Class[] {
+                Class.forName("com.aliyun.oss.common.comm.ServiceClient", false, loader)
+        });
+        AgentControl control = new AgentControl(inst.proxy(), new OssSdkTransformer(), true);
+        try {
+            AgentConfig.parseAgentArgs("patches=off");
+            control.applyConfig(true);
+            Assert.assertFalse(control.isPatchesEnabled());
+            control.enablePatches();
+
+            // A later attach with another switch must not bring back patches=off over the JMX change.
+            AgentConfig.parseAgentArgs("preSync=off,expectContinueBytes=4096");
+            control.applyConfig(true);
+            Assert.assertTrue(control.isPatchesEnabled());
+            Assert.assertFalse(control.isPreSyncEnabled());
+            Assert.assertEquals(4096L, control.getExpectContinueBytes());
+            Assert.assertFalse(AgentConfig.hasAgentArg("patches"));
+            // Only the disable and the JMX enable retransformed.
+            Assert.assertEquals(2, inst.batches.size());
+        } finally {
+            AgentConfig.parseAgentArgs(null);
+            control.setPreSyncEnabled(true);
+            control.setExpectContinueBytes(0L);
+        }
+    }
+
+    private static Set<String> targets() {
+        Set<String> s = new HashSet<String>();
+        s.add("com/aliyun/oss/internal/OSSOperation");
+        s.add("com/aliyun/oss/common/comm/ServiceClient");
+        s.add("com/aliyun/oss/ClientConfiguration");
+        return s;
+    }
+
+    // Proxy-backed so the fake compiles against every JDK's Instrumentation interface.
+    static final class FakeInstrumentation implements InvocationHandler {
+        private final Class[] loaded;
+        final List batches = new ArrayList();
+        Class failing;
+
+        FakeInstrumentation(Class[] loaded) {
+            this.loaded = loaded;
+        }
+
+        Instrumentation proxy() {
+            return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] { Instrumentation.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("retransformClasses".equals(name)) {
+                Class[] classes = (Class[]) args[0];
+                batches.add(classes);
+                int i;
+                for (i = 0; i < classes.length; i++) {
+                    if (classes[i] == failing) {
+                        throw new UnmodifiableClassException(failing.getName());
+                    }
+                }
+                return null;
+            }
+            if ("getAllLoadedClasses".equals(name)) {
+                return loaded;
+            }
+            if ("isModifiableClass".equals(name) || "isRetransformClassesSupported".equals(name)) {
+                return Boolean.TRUE;
+            }
+            Class rt = method.getReturnType();
+            if (rt == Boolean.TYPE) {
+                return Boolean.FALSE;
+            }
+            if (rt == Long.TYPE) {
+                return Long.valueOf(0L);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import com.aliyun.oss.common.auth.InstanceProfileCredentials;
+import com.gamesofts.osstimeagent.time.OssEndpointTimeSync;
+import com.gamesofts.osstimeagent.time.RealTimeClock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// InstanceProfileCredentials (patched, loaded child-first) against an Expiration issued on a server clock two hours
+// away from the local one. With its defaults it should refresh in the last 72 minutes and be expired in the last 10s.
+public class CredentialExpiryTest {
+    private static final long HOUR = 3600000L;
+
+    @After
+    public void tearDown() {
+        OssTimeBridge.setCredentialExpiryEnabled(true);
+        OssTimeBridge.installClock(new RealTimeClock());
+        OssTimeBridge.resetPreSyncStateForTest();
+    }
+
+    @Test
+    public void testLocalClockBehindNoLongerKeepsExpiringCredentials() throws Exception {
+        Method check = syncedDriver(2L * HOUR);
+        long serverNow = System.currentTimeMillis() + 2L * HOUR;
+
+        Assert.assertArrayEquals(new boolean[] { true, false }, check(check, serverNow + HOUR / 2L));
+        Assert.assertArrayEquals(new boolean[] { true, true }, check(check, serverNow - 60000L));
+
+        // Unpatched view: 2h30 and 1h59 left by the local clock, so neither refresh nor expiry.
+        OssTimeBridge.setCredentialExpiryEnabled(false);
+        Assert.assertArrayEquals(new boolean[] { false, false }, check(check, serverNow + HOUR / 2L));
+        Assert.assertArrayEquals(new boolean[] { false, false }, check(check, serverNow - 60000L));
+    }
+
+    @Test
+    public void testLocalClockAheadNoLongerRefreshesOnEveryRequest() throws Exception {
+        Method check = syncedDriver(-2L * HOUR);
+        long serverNow = System.currentTimeMillis() - 2L * HOUR;
+
+        Assert.assertArrayEquals(new boolean[] { false, false }, check(check, serverNow + 3L * HOUR));
+
+        // Unpatched view: only one hour left by the local clock, inside the refresh window.
+        OssTimeBridge.setCredentialExpiryEnabled(false);
+        Assert.assertArrayEquals(new boolean[] { true, false }, check(check, serverNow + 3L * HOUR));
+    }
+
+    private Method syncedDriver(final long skewMillis) throws Exception {
+        OssTimeBridge.installClock(new RealTimeClock());
+        OssTimeBridge.installEndpointTimeSyncerForTest(new OssTimeBridge.EndpointTimeSyncer() {
+            public OssEndpointTimeSync.SyncResult sync(URI endpoint, RealTimeClock c) {
+                long t = System.currentTimeMillis() + skewMillis;
+                c.updateBaseTimeAuthoritative(t);
+                return OssEndpointTimeSync.SyncResult.success(t, "HEAD");
+            }
+        });
+        OssTimeBridge.resetPreSyncStateForTest();
+        Assert.assertTrue(OssTimeBridge.preSyncNow(new URI("https://oss-cn-hangzhou.aliyuncs.com")));
+
+        PatchingClassLoader loader = new PatchingClassLoader(getClass().getClassLoader(), Driver.class.getName());
+        Method check = loader.loadClass(Driver.class.getName()).getMethod("check", new Class[] { String.class });
+        check.invoke(null, new Object[] { expiration(System.currentTimeMillis()) });
+        Assert.assertTrue(loader.stats.toString(), loader.stats.credentialExpiryPatched);
+        return check;
+    }
+
+    private static boolean[] check(Method check, long expirationMillis) throws Exception {
+        return (boolean[]) check.invoke(null, new Object[] { expiration(expirationMillis) });
+    }
+
+    // The metadata service's format, e.g. 2026-01-01T00:00:00Z.
+    private static String expiration(long millis) {
+        SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        f.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return f.format(new Date(millis));
+    }
+
+    public static final class Driver {
+        public static boolean[] check(String expiration) {
+            InstanceProfileCredentials c = new InstanceProfileCredentials("ak", "sk", "token", expiration);
+            return new boolean[] { c.willSoonExpire(), c.isExpired() };
+        }
+    }
+}
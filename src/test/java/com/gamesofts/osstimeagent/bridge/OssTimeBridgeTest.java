@@ -1,8 +1,19 @@
 package com.gamesofts.osstimeagent.bridge;
 
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.HttpMethod;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.common.comm.RequestMessage;
+import com.aliyun.oss.model.PutObjectRequest;
+import com.gamesofts.osstimeagent.metrics.OperationStats;
+import com.gamesofts.osstimeagent.metrics.RequestMetrics;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -12,6 +23,59 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class OssTimeBridgeTest {
+    @Test
+    public void testRequestLifecycleRecordsPerOperationMetrics() {
+        RequestMetrics.reset();
+        RequestMessage req = new RequestMessage(
+                new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[0])), "bucket", "key");
+        req.setMethod(HttpMethod.PUT);
+        req.setContentLength(100L);
+
+        OssTimeBridge.onRequestStart(req);
+        OssTimeBridge.onAttemptFailed(new OSSException("skewed", "RequestTimeTooSkewed", null, null, null, null, null));
+        OssTimeBridge.resignForRetry(null, req, null, 1);
+        OssTimeBridge.onRequestEnd(req, null);
+
+        OssTimeBridge.onRequestStart(req);
+        OssTimeBridge.onRequestFailed(req, new ClientException("connection reset"));
+
+        OperationStats op = RequestMetrics.getOperation("PUT PutObject");
+        Assert.assertNotNull(op);
+        Assert.assertEquals(2L, op.getRequestCount());
+        Assert.assertEquals(1L, op.getFailureCount());
+        Assert.assertEquals(1L, op.getRetryCount());
+        Assert.assertEquals(200L, op.getBytesSent());
+        Assert.assertEquals(Long.valueOf(1L), RequestMetrics.getRetryCauseCounts().get("RequestTimeTooSkewed"));
+        Assert.assertEquals(Long.valueOf(1L), RequestMetrics.getErrorCodeCounts().get("ClientException"));
+    }
+
+    @Test
+    public void testOperationKeyIsBuiltOncePerRequestClassAndMethod() {
+        RequestMessage put = new RequestMessage(
+                new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[0])), "bucket", "key");
+        put.setMethod(HttpMethod.PUT);
+        RequestMessage other = new RequestMessage(
+                new PutObjectRequest("bucket", "other", new ByteArrayInputStream(new byte[0])), "bucket", "other");
+        other.setMethod(HttpMethod.PUT);
+        RequestMessage head = new RequestMessage(
+                new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[0])), "bucket", "key");
+        head.setMethod(HttpMethod.HEAD);
+        put.setBucket("bucket");
+        other.setBucket("bucket");
+
+        Assert.assertEquals("PUT PutObject", RequestTracker.operationKey(put));
+        Assert.assertSame(RequestTracker.operationKey(put), RequestTracker.operationKey(other));
+        Assert.assertEquals("HEAD PutObject", RequestTracker.operationKey(head));
+
+        RequestTracker.setPerBucket(true);
+        try {
+            Assert.assertEquals("PUT PutObject bucket=bucket", RequestTracker.operationKey(put));
+            Assert.assertSame(RequestTracker.operationKey(put), RequestTracker.operationKey(other));
+        } finally {
+            RequestTracker.setPerBucket(false);
+        }
+    }
+
     @Test
     public void testResolveTickOffsetMillisFallsBackToSdkBeforeAuthoritativeSync() {
         OssTimeBridge.resetPreSyncStateForTest();
@@ -243,6 +307,301 @@ public class OssTimeBridgeTest {
         Assert.assertEquals(cfg.tickOffset, handler.signerParams.tickOffset);
     }
 
+    @Test
+    public void testPreSyncNowMarksClockAuthoritativeWithoutRequest() throws Exception {
+        final long target = System.currentTimeMillis() + 6000L;
+        OssTimeBridge.installClock(new com.gamesofts.osstimeagent.time.RealTimeClock());
+        OssTimeBridge.installEndpointTimeSyncerForTest(new OssTimeBridge.EndpointTimeSyncer() {
+            public com.gamesofts.osstimeagent.time.OssEndpointTimeSync.SyncResult sync(URI endpoint, com.gamesofts.osstimeagent.time.RealTimeClock c) {
+                c.updateBaseTimeAuthoritative(target);
+                return com.gamesofts.osstimeagent.time.OssEndpointTimeSync.SyncResult.success(target, "HEAD");
+            }
+        });
+        OssTimeBridge.resetPreSyncStateForTest();
+
+        Assert.assertTrue(OssTimeBridge.preSyncNow(new URI("https://oss-cn-hangzhou.aliyuncs.com/")));
+
+        long resolved = OssTimeBridge.resolveTickOffsetMillis(-1L);
+        Assert.assertTrue(resolved > 4000L);
+    }
+
+    @Test
+    public void testBeforeInitialSignSkipsPreSyncWhenDisabled() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        OssTimeBridge.installClock(new com.gamesofts.osstimeagent.time.RealTimeClock());
+        OssTimeBridge.installEndpointTimeSyncerForTest(new OssTimeBridge.EndpointTimeSyncer() {
+            public com.gamesofts.osstimeagent.time.OssEndpointTimeSync.SyncResult sync(URI endpoint, com.gamesofts.osstimeagent.time.RealTimeClock c) {
+                calls.incrementAndGet();
+                return com.gamesofts.osstimeagent.time.OssEndpointTimeSync.SyncResult.failed();
+            }
+        });
+        OssTimeBridge.resetPreSyncStateForTest();
+        FakeRequestMessage req = new FakeRequestMessage();
+        req.endpoint = new URI("https://oss-cn-qingdao.aliyuncs.com/");
+
+        OssTimeBridge.setPreSyncEnabled(false);
+        try {
+            OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+        } finally {
+            OssTimeBridge.setPreSyncEnabled(true);
+        }
+        OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testUploadGuardResyncsLargeUploadOnlyWhenSyncIsStale() throws Exception {
+        final AtomicInteger calls = installCountingSyncer(4000L);
+        FakeRequestMessage small = new FakeRequestMessage();
+        small.endpoint = new URI("https://oss-cn-hangzhou.aliyuncs.com/");
+        small.contentLength = 10L;
+        FakeRequestMessage large = new FakeRequestMessage();
+        large.endpoint = small.endpoint;
+        large.contentLength = 1000L;
+        long guarded = com.gamesofts.osstimeagent.metrics.AgentMetrics.getUploadGuardSyncCount();
+
+        OssTimeBridge.setUploadGuard(1000L, 50L, 3000L);
+        try {
+            OssTimeBridge.beforeInitialSign(new Object(), small, new Object());
+            OssTimeBridge.beforeInitialSign(new Object(), large, new Object());
+            Assert.assertEquals(1, calls.get());
+            Thread.sleep(80L);
+            OssTimeBridge.beforeInitialSign(new Object(), small, new Object());
+            Assert.assertEquals(1, calls.get());
+            OssTimeBridge.beforeInitialSign(new Object(), large, new Object());
+            Assert.assertEquals(2, calls.get());
+            OssTimeBridge.beforeInitialSign(new Object(), large, new Object());
+            Assert.assertEquals(2, calls.get());
+        } finally {
+            OssTimeBridge.setUploadGuard(64L * 1024L * 1024L, 60L * 60L * 1000L, 3000L);
+        }
+        Assert.assertEquals(guarded + 1L, com.gamesofts.osstimeagent.metrics.AgentMetrics.getUploadGuardSyncCount());
+    }
+
+    @Test
+    public void testUploadGuardResyncsNonRepeatableBodyAfterSkewRejection() throws Exception {
+        final AtomicInteger calls = installCountingSyncer(4000L);
+        FakeRequestMessage req = new FakeRequestMessage();
+        req.endpoint = new URI("https://oss-cn-hangzhou.aliyuncs.com/");
+        req.contentLength = -1L;
+        req.content = new Object();
+        req.repeatable = false;
+
+        OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+        OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+        Assert.assertEquals(1, calls.get());
+        skewRejected();
+        OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+        Assert.assertEquals(2, calls.get());
+        OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testUploadGuardWaitsForInFlightSync() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        OssTimeBridge.installClock(new com.gamesofts.osstimeagent.time.RealTimeClock());
+        OssTimeBridge.installEndpointTimeSyncerForTest(new OssTimeBridge.EndpointTimeSyncer() {
+            public com.gamesofts.osstimeagent.time.OssEndpointTimeSync.SyncResult sync(URI endpoint, com.gamesofts.osstimeagent.time.RealTimeClock c) throws Exception {
+                calls.incrementAndGet();
+                entered.countDown();
+                Thread.sleep(100L);
+                long t = System.currentTimeMillis() + 6000L;
+                c.updateBaseTimeAuthoritative(t);
+                return com.gamesofts.osstimeagent.time.OssEndpointTimeSync.SyncResult.success(t, "HEAD");
+            }
+        });
+        OssTimeBridge.resetPreSyncStateForTest();
+        final FakeRequestMessage small = new FakeRequestMessage();
+        small.endpoint = new URI("https://oss-cn-hangzhou.aliyuncs.com/");
+        FakeRequestMessage large = new FakeRequestMessage();
+        large.endpoint = small.endpoint;
+        large.contentLength = 128L * 1024L * 1024L;
+
+        Thread first = new Thread(new Runnable() {
+            public void run() {
+                OssTimeBridge.beforeInitialSign(new Object(), small, new Object());
+            }
+        });
+        first.start();
+        entered.await();
+        OssTimeBridge.beforeInitialSign(new Object(), large, new Object());
+
+        // Signed only after the in-flight sync landed, without a second probe.
+        Assert.assertTrue(OssTimeBridge.resolveTickOffsetMillis(-1L) > 4000L);
+        Assert.assertEquals(1, calls.get());
+        first.join();
+    }
+
+    @Test
+    public void testExpectContinueAddedToLargeAndUnknownLengthBodies() {
+        RequestMessage small = new RequestMessage(
+                new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[0])), "bucket", "key");
+        small.setContentLength(999L);
+        small.setContent(new ByteArrayInputStream(new byte[0]));
+        RequestMessage large = new RequestMessage(
+                new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[0])), "bucket", "key");
+        large.setContentLength(1000L);
+        large.setContent(new ByteArrayInputStream(new byte[0]));
+        RequestMessage chunked = new RequestMessage(
+                new PutObjectRequest("bucket", "key", new ByteArrayInputStream(new byte[0])), "bucket", "key");
+        chunked.setContentLength(-1L);
+        chunked.setContent(new ByteArrayInputStream(new byte[0]));
+        RequestMessage get = new RequestMessage(null, "bucket", "key");
+        get.setContentLength(-1L);
+        long added = com.gamesofts.osstimeagent.metrics.AgentMetrics.getExpectContinueCount();
+
+        OssTimeBridge.beforeInitialSign(new Object(), large, new Object());
+        Assert.assertNull(large.getHeaders().get("Expect"));
+
+        OssTimeBridge.setExpectContinueBytes(1000L);
+        try {
+            OssTimeBridge.beforeInitialSign(new Object(), small, new Object());
+            OssTimeBridge.beforeInitialSign(new Object(), large, new Object());
+            OssTimeBridge.beforeInitialSign(new Object(), chunked, new Object());
+            OssTimeBridge.beforeInitialSign(new Object(), get, new Object());
+        } finally {
+            OssTimeBridge.setExpectContinueBytes(0L);
+        }
+        Assert.assertNull(small.getHeaders().get("Expect"));
+        Assert.assertEquals("100-continue", large.getHeaders().get("Expect"));
+        Assert.assertEquals("100-continue", chunked.getHeaders().get("expect"));
+        Assert.assertNull(get.getHeaders().get("Expect"));
+        Assert.assertEquals(added + 2L, com.gamesofts.osstimeagent.metrics.AgentMetrics.getExpectContinueCount());
+    }
+
+    @Test
+    public void testExpectContinueKeepsCallerHeaderAndSurvivesResign() {
+        OssTimeBridge.resetPreSyncStateForTest();
+        FakeRequestMessage own = new FakeRequestMessage();
+        own.contentLength = 5000L;
+        own.headers.put("expect", "custom");
+        FakeRequestMessage req = new FakeRequestMessage();
+        req.contentLength = 5000L;
+        req.headers.put("Date", "old");
+        req.headers.put("Authorization", "old");
+        FakeExecutionContext ctx = new FakeExecutionContext();
+        ctx.signer = new FakeSigner();
+
+        OssTimeBridge.setExpectContinueBytes(1000L);
+        try {
+            OssTimeBridge.beforeInitialSign(new Object(), own, new Object());
+            OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+        } finally {
+            OssTimeBridge.setExpectContinueBytes(0L);
+        }
+        OssTimeBridge.resignForRetry(new FakeServiceClient(new FakeClientConfiguration()), req, ctx, 1);
+
+        Assert.assertEquals("custom", own.headers.get("expect"));
+        Assert.assertNull(own.headers.get("Expect"));
+        Assert.assertEquals("100-continue", req.headers.get("Expect"));
+        Assert.assertNull(req.headers.get("Authorization"));
+        Assert.assertEquals(1, ctx.signer.signCalls);
+    }
+
+    @Test
+    public void testReplayBufferWrapsStreamsTheSdkCannotReplay() throws Exception {
+        InputStream raw = new FilterInputStream(new ByteArrayInputStream(new byte[100])) {
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        RequestMessage pipe = new RequestMessage(null, "bucket", "key");
+        pipe.setContent(raw);
+        RequestMessage buffered = new RequestMessage(null, "bucket", "key");
+        buffered.setContent(new BufferedInputStream(raw, 16));
+        RequestMessage bytes = new RequestMessage(null, "bucket", "key");
+        ByteArrayInputStream array = new ByteArrayInputStream(new byte[100]);
+        bytes.setContent(array);
+        Assert.assertFalse(pipe.isRepeatable());
+
+        OssTimeBridge.beforeInitialSign(new Object(), pipe, new Object());
+        OssTimeBridge.beforeInitialSign(new Object(), buffered, new Object());
+        OssTimeBridge.beforeInitialSign(new Object(), bytes, new Object());
+
+        Assert.assertTrue(pipe.getContent() instanceof ReplayInputStream);
+        Assert.assertTrue(pipe.isRepeatable());
+        Assert.assertTrue(buffered.getContent() instanceof ReplayInputStream);
+        Assert.assertSame(array, bytes.getContent());
+        pipe.getContent().mark(1);
+        Assert.assertEquals(100, pipe.getContent().read(new byte[200]));
+        pipe.getContent().reset();
+        Assert.assertEquals(100, pipe.getContent().read(new byte[200]));
+        pipe.close();
+
+        RequestMessage off = new RequestMessage(null, "bucket", "key");
+        off.setContent(raw);
+        long bytesCap = OssTimeBridge.getReplayBufferBytes();
+        OssTimeBridge.setReplayBuffer(0L, OssTimeBridge.getReplayBufferPoolBytes());
+        try {
+            OssTimeBridge.beforeInitialSign(new Object(), off, new Object());
+        } finally {
+            OssTimeBridge.setReplayBuffer(bytesCap, OssTimeBridge.getReplayBufferPoolBytes());
+        }
+        Assert.assertSame(raw, off.getContent());
+    }
+
+    @Test
+    public void testUploadGuardSeesUnmarkableStreamBeforeReplayBufferWrapsIt() throws Exception {
+        final AtomicInteger calls = installCountingSyncer(4000L);
+        RequestMessage first = new RequestMessage(null, "bucket", "key");
+        first.setEndpoint(new URI("https://oss-cn-hangzhou.aliyuncs.com/"));
+        OssTimeBridge.beforeInitialSign(new Object(), first, new Object());
+        Assert.assertEquals(1, calls.get());
+        skewRejected();
+
+        // 20 MiB: below the 64 MiB guard, above the 8 MiB replay buffer, and not markable.
+        InputStream raw = new FilterInputStream(new ByteArrayInputStream(new byte[16])) {
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        RequestMessage req = new RequestMessage(null, "bucket", "key");
+        req.setEndpoint(first.getEndpoint());
+        req.setContentLength(20L * 1024L * 1024L);
+        req.setContent(raw);
+        Assert.assertTrue(req.getContentLength() < OssTimeBridge.getUploadGuardBytes());
+        Assert.assertTrue(req.getContentLength() > OssTimeBridge.getReplayBufferBytes());
+
+        OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+        Assert.assertEquals(2, calls.get());
+        Assert.assertTrue(req.getContent() instanceof ReplayInputStream);
+        Assert.assertTrue(req.isRepeatable());
+
+        // Already wrapped: still guarded, since 20 MiB cannot be replayed from an 8 MiB buffer.
+        skewRejected();
+        OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+        Assert.assertEquals(3, calls.get());
+
+        // A wrapped body that fits the buffer is repeatable, so the guard leaves it alone.
+        req.setContentLength(1024L);
+        skewRejected();
+        OssTimeBridge.beforeInitialSign(new Object(), req, new Object());
+        Assert.assertEquals(3, calls.get());
+        req.close();
+    }
+
+    private static void skewRejected() {
+        OssTimeBridge.onAttemptFailed(new OSSException("skewed", "RequestTimeTooSkewed", null, null, null, null, null));
+    }
+
+    private static AtomicInteger installCountingSyncer(final long offsetMillis) {
+        final AtomicInteger calls = new AtomicInteger();
+        OssTimeBridge.installClock(new com.gamesofts.osstimeagent.time.RealTimeClock());
+        OssTimeBridge.installEndpointTimeSyncerForTest(new OssTimeBridge.EndpointTimeSyncer() {
+            public com.gamesofts.osstimeagent.time.OssEndpointTimeSync.SyncResult sync(URI endpoint, com.gamesofts.osstimeagent.time.RealTimeClock c) {
+                calls.incrementAndGet();
+                long t = System.currentTimeMillis() + offsetMillis;
+                c.updateBaseTimeAuthoritative(t);
+                return com.gamesofts.osstimeagent.time.OssEndpointTimeSync.SyncResult.success(t, "HEAD");
+            }
+        });
+        OssTimeBridge.resetPreSyncStateForTest();
+        return calls;
+    }
+
     public static final class FakeServiceClient {
         private final FakeClientConfiguration config;
         public FakeServiceClient(FakeClientConfiguration config) { this.config = config; }
@@ -270,9 +629,15 @@ public class OssTimeBridgeTest {
         Map headers = new HashMap();
         Boolean signedMarker;
         URI endpoint;
+        long contentLength;
+        Object content;
+        boolean repeatable = true;
         public Map getHeaders() { return headers; }
         public boolean isUseUrlSignature() { return false; }
         public URI getEndpoint() { return endpoint; }
+        public long getContentLength() { return contentLength; }
+        public Object getContent() { return content; }
+        public boolean isRepeatable() { return repeatable; }
     }
 
     public static final class FakeSigner {
@@ -0,0 +1,73 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Loads the SDK child-first through OssAsmPatcher, plus the given driver class and the classes nested in its
+// enclosing class, so the driver links against the patched copies; everything else, the bridge included, comes
+// from the parent.
+final class PatchingClassLoader extends ClassLoader {
+    final OssAsmPatcher.PatchStats stats = new OssAsmPatcher.PatchStats();
+    private final String driverClassName;
+
+    PatchingClassLoader(ClassLoader parent, String driverClassName) {
+        super(parent);
+        this.driverClassName = driverClassName;
+    }
+
+    protected synchronized Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!name.startsWith("com.aliyun.oss.") && !isDriverClass(name)) {
+            return super.loadClass(name, resolve);
+        }
+        Class c = findLoadedClass(name);
+        if (c == null) {
+            String internalName = name.replace('.', '/');
+            byte[] bytes;
+            try {
+                bytes = readAll(getParent().getResourceAsStream(internalName + ".class"));
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            byte[] patched = OssAsmPatcher.patch(internalName, bytes, stats);
+            if (patched != null) {
+                bytes = patched;
+            }
+            c = defineClass(name, bytes, 0, bytes.length);
+        }
+        if (resolve) {
+            resolveClass(c);
+        }
+        return c;
+    }
+
+    private boolean isDriverClass(String name) {
+        if (name.equals(driverClassName)) {
+            return true;
+        }
+        int nested = driverClassName.lastIndexOf('$');
+        return nested > 0 && name.startsWith(driverClassName.substring(0, nested + 1));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PreSyncStateTest {
+    @Test
+    public void testFirstSyncIsClaimedOnceAndNotRepeatedAfterSuccess() {
+        PreSyncState s = new PreSyncState();
+        Assert.assertTrue(s.tryBeginFirstSync());
+        Assert.assertFalse(s.tryBeginFirstSync());
+        s.markSucceeded();
+        s.endSync();
+        Assert.assertTrue(s.isAuthoritativeClockReady());
+        Assert.assertFalse(s.tryBeginFirstSync());
+        // Out-of-band syncs (preSyncNow) still go through the plain in-flight flag.
+        Assert.assertTrue(s.tryBeginSync());
+        s.endSync();
+    }
+
+    @Test
+    public void testFailedSyncLeavesTheClaimOpen() {
+        PreSyncState s = new PreSyncState();
+        Assert.assertTrue(s.tryBeginFirstSync());
+        s.endSync();
+        Assert.assertTrue(s.tryBeginFirstSync());
+        s.endSync();
+        Assert.assertFalse(s.isAuthoritativeClockReady());
+    }
+}
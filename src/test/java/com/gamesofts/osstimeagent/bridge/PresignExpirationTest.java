@@ -0,0 +1,114 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import com.aliyun.oss.ClientBuilderConfiguration;
+import com.aliyun.oss.OSS;
+import com.aliyun.oss.OSSClientBuilder;
+import com.aliyun.oss.common.auth.DefaultCredentialProvider;
+import com.aliyun.oss.common.comm.SignVersion;
+import com.aliyun.oss.model.PolicyConditions;
+import com.gamesofts.osstimeagent.load.FakeOssServer;
+import com.gamesofts.osstimeagent.time.OssEndpointTimeSync;
+import com.gamesofts.osstimeagent.time.RealTimeClock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.util.Date;
+
+// Runs the patched SDK (loaded child-first through OssAsmPatcher) against a fake server whose clock is two hours
+// ahead: URLs and post policies valid for one hour by the local clock are only accepted with the presign patches.
+public class PresignExpirationTest {
+    private static final long SKEW = 2L * 3600000L;
+    private static final long TTL = 3600000L;
+
+    @After
+    public void tearDown() {
+        OssTimeBridge.setPresignEnabled(true);
+        OssTimeBridge.installClock(new RealTimeClock());
+        OssTimeBridge.resetPreSyncStateForTest();
+    }
+
+    @Test
+    public void testPresignedUrlsAndPostPolicyUseServerTime() throws Exception {
+        FakeOssServer server = new FakeOssServer(0);
+        server.setSkewMillis(SKEW);
+        server.start();
+        OssTimeBridge.installClock(new RealTimeClock());
+        OssTimeBridge.installEndpointTimeSyncerForTest(new OssTimeBridge.EndpointTimeSyncer() {
+            public OssEndpointTimeSync.SyncResult sync(URI endpoint, RealTimeClock c) throws Exception {
+                return new OssEndpointTimeSync().sync(endpoint, c);
+            }
+        });
+        OssTimeBridge.resetPreSyncStateForTest();
+        PatchingClassLoader loader = new PatchingClassLoader(getClass().getClassLoader(), Driver.class.getName());
+        Class driver = loader.loadClass(Driver.class.getName());
+        Method presign = driver.getMethod("presign", new Class[] { String.class, String.class, long.class });
+        Method postPolicy = driver.getMethod("postPolicy", new Class[] { String.class, long.class });
+        try {
+            String[] versions = new String[] { "V1", "V2", "V4" };
+            int i;
+            for (i = 0; i < versions.length; i++) {
+                URL url = new URL((String) presign.invoke(null, new Object[] { server.endpoint(), versions[i],
+                        Long.valueOf(TTL) }));
+                Assert.assertEquals(versions[i] + " " + url, 200, FakeOssServer.fetch(url));
+            }
+            String policy = (String) postPolicy.invoke(null, new Object[] { server.endpoint(), Long.valueOf(TTL) });
+            Assert.assertEquals(200, FakeOssServer.postPolicyForm(server.endpoint(), policy));
+            Assert.assertEquals(0L, server.getExpiredRejections());
+            // The first presign carried the pre-sync; nothing else was sent.
+            Assert.assertTrue(Math.abs(OssTimeBridge.currentTickOffsetMillis() - SKEW) < 5000L);
+            Assert.assertTrue(server.getAnonymousRequests() >= 1L);
+            Assert.assertEquals(0L, server.getSignedRequests());
+            Assert.assertTrue(loader.stats.toString(), loader.stats.presignPreSyncPatched
+                    && loader.stats.presignExpirationPatched && loader.stats.presignDatePatched
+                    && loader.stats.postPolicyExpirationPatched);
+
+            // Same SDK with the switch off: what the caller computed from the local clock is already expired.
+            OssTimeBridge.setPresignEnabled(false);
+            for (i = 0; i < versions.length; i++) {
+                URL url = new URL((String) presign.invoke(null, new Object[] { server.endpoint(), versions[i],
+                        Long.valueOf(TTL) }));
+                Assert.assertEquals(versions[i] + " " + url, 403, FakeOssServer.fetch(url));
+            }
+            policy = (String) postPolicy.invoke(null, new Object[] { server.endpoint(), Long.valueOf(TTL) });
+            Assert.assertEquals(403, FakeOssServer.postPolicyForm(server.endpoint(), policy));
+            Assert.assertEquals(4L, server.getExpiredRejections());
+        } finally {
+            server.close();
+        }
+    }
+
+    // Loaded by PatchingClassLoader, so the SDK classes it links against are the patched copies.
+    public static final class Driver {
+        public static String presign(String endpoint, String version, long ttlMillis) {
+            OSS client = client(endpoint, SignVersion.valueOf(version));
+            try {
+                return client.generatePresignedUrl("bucket", "k", new Date(System.currentTimeMillis() + ttlMillis))
+                        .toString();
+            } finally {
+                client.shutdown();
+            }
+        }
+
+        public static String postPolicy(String endpoint, long ttlMillis) {
+            OSS client = client(endpoint, SignVersion.V1);
+            try {
+                return client.generatePostPolicy(new Date(System.currentTimeMillis() + ttlMillis),
+                        new PolicyConditions());
+            } finally {
+                client.shutdown();
+            }
+        }
+
+        private static OSS client(String endpoint, SignVersion version) {
+            ClientBuilderConfiguration conf = new ClientBuilderConfiguration();
+            conf.setSignatureVersion(version);
+            return OSSClientBuilder.create().endpoint(endpoint)
+                    .credentialsProvider(new DefaultCredentialProvider("ak", "sk"))
+                    .clientConfiguration(conf).region("cn-hangzhou").build();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ReplayInputStreamTest {
+    private static final int CHUNK = ReplayChunkPool.CHUNK_SIZE;
+
+    @Test
+    public void testResetReplaysRecordedPrefixAcrossChunks() throws IOException {
+        byte[] data = randomBytes(3 * CHUNK + 1234);
+        ReplayChunkPool pool = new ReplayChunkPool(16L * CHUNK);
+        ReplayInputStream in = new ReplayInputStream(new NonMarkable(data), pool, 8L * CHUNK);
+        Assert.assertTrue(in.markSupported());
+        in.mark(1);
+
+        byte[] prefix = readSome(in, 2 * CHUNK + 77, 1000);
+        Assert.assertArrayEquals(Arrays.copyOf(data, prefix.length), prefix);
+        in.reset();
+        Assert.assertArrayEquals(data, readAll(in, 4099));
+        in.reset();
+        Assert.assertArrayEquals(data, readAll(in, 1));
+        Assert.assertEquals(4L * CHUNK, pool.getAllocatedBytes());
+
+        in.close();
+        Assert.assertFalse(in.markSupported());
+        ReplayInputStream again = new ReplayInputStream(new NonMarkable(data), pool, 8L * CHUNK);
+        again.mark(1);
+        Assert.assertArrayEquals(data, readAll(again, 8192));
+        Assert.assertEquals(4L * CHUNK, pool.getAllocatedBytes());
+        again.close();
+    }
+
+    @Test
+    public void testOverflowDropsRecordingAndTurnsNonRepeatable() throws IOException {
+        byte[] data = randomBytes(3 * CHUNK);
+        ReplayChunkPool pool = new ReplayChunkPool(16L * CHUNK);
+        ReplayInputStream in = new ReplayInputStream(new NonMarkable(data), pool, 2L * CHUNK);
+        in.mark(1);
+
+        byte[] head = readSome(in, 2 * CHUNK, 8192);
+        Assert.assertTrue(in.markSupported());
+        int b = in.read();
+        Assert.assertFalse(in.markSupported());
+        try {
+            in.reset();
+            Assert.fail("reset after overflow");
+        } catch (IOException expected) {
+        }
+        byte[] rest = readAll(in, 8192);
+
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        all.write(head);
+        all.write(b);
+        all.write(rest);
+        Assert.assertArrayEquals(data, all.toByteArray());
+        // The chunks went back to the pool as soon as the recording was dropped.
+        ReplayInputStream other = new ReplayInputStream(new NonMarkable(data), pool, 16L * CHUNK);
+        other.mark(1);
+        readAll(other, 8192);
+        other.reset();
+        Assert.assertArrayEquals(data, readAll(other, 8192));
+        Assert.assertEquals(3L * CHUNK, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void testExhaustedPoolStopsBufferingWithoutBlocking() throws IOException {
+        byte[] data = randomBytes(CHUNK);
+        ReplayChunkPool pool = new ReplayChunkPool(CHUNK);
+        ReplayInputStream first = new ReplayInputStream(new NonMarkable(data), pool, 8L * CHUNK);
+        ReplayInputStream second = new ReplayInputStream(new NonMarkable(data), pool, 8L * CHUNK);
+        first.mark(1);
+        second.mark(1);
+
+        readAll(first, 8192);
+        Assert.assertArrayEquals(data, readAll(second, 8192));
+        Assert.assertFalse(second.markSupported());
+        first.reset();
+        Assert.assertArrayEquals(data, readAll(first, 8192));
+        Assert.assertEquals((long) CHUNK, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void testLoweringPoolCapacityFreesIdleChunks() throws IOException {
+        ReplayChunkPool pool = new ReplayChunkPool(4L * CHUNK);
+        ReplayInputStream in = new ReplayInputStream(new NonMarkable(randomBytes(4 * CHUNK)), pool, 8L * CHUNK);
+        in.mark(1);
+        readAll(in, 8192);
+        in.close();
+        Assert.assertEquals(4L * CHUNK, pool.getAllocatedBytes());
+
+        pool.setCapacityBytes(CHUNK);
+        Assert.assertEquals((long) CHUNK, pool.getAllocatedBytes());
+        Assert.assertNotNull(pool.acquire());
+        Assert.assertNull(pool.acquire());
+    }
+
+    private static byte[] randomBytes(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+
+    private static byte[] readSome(InputStream in, int total, int step) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[step];
+        while (out.size() < total) {
+            int n = in.read(buf, 0, Math.min(step, total - out.size()));
+            if (n < 0) {
+                break;
+            }
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readAll(InputStream in, int step) throws IOException {
+        return readSome(in, Integer.MAX_VALUE, step);
+    }
+
+    // A stream without mark/reset, like a socket or pipe.
+    private static final class NonMarkable extends FilterInputStream {
+        NonMarkable(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.gamesofts.osstimeagent.bridge;
+
+import com.aliyun.oss.ClientConfiguration;
+import com.aliyun.oss.HttpMethod;
+import com.aliyun.oss.common.auth.DefaultCredentialProvider;
+import com.aliyun.oss.common.comm.DefaultServiceClient;
+import com.aliyun.oss.common.comm.RequestMessage;
+import com.aliyun.oss.internal.OSSOperation;
+import com.aliyun.oss.internal.OSSRequestMessageBuilder;
+import com.gamesofts.osstimeagent.load.FakeOssServer;
+import com.gamesofts.osstimeagent.time.OssEndpointTimeSync;
+import com.gamesofts.osstimeagent.time.RealTimeClock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The patched ServiceClient against a fake server whose clock jumps two hours back after the pre-sync. The body is
+// sent as given, unmarkable and without the replay buffer, so a skew rejection cannot be retried. It must still
+// lower clock confidence, so the upload guard syncs before the next upload.
+public class SkewRejectionTest {
+    private static final long SKEW = -2L * 3600000L;
+
+    private long replayBufferBytes = OssTimeBridge.getReplayBufferBytes();
+
+    @After
+    public void tearDown() {
+        OssTimeBridge.setReplayBuffer(replayBufferBytes, OssTimeBridge.getReplayBufferPoolBytes());
+        OssTimeBridge.installClock(new RealTimeClock());
+        OssTimeBridge.resetPreSyncStateForTest();
+    }
+
+    @Test
+    public void testNonRepeatableSkewRejectionMakesTheGuardSyncTheNextUpload() throws Exception {
+        FakeOssServer server = new FakeOssServer(0);
+        server.start();
+        final AtomicInteger syncs = new AtomicInteger();
+        OssTimeBridge.installClock(new RealTimeClock());
+        OssTimeBridge.installEndpointTimeSyncerForTest(new OssTimeBridge.EndpointTimeSyncer() {
+            public OssEndpointTimeSync.SyncResult sync(URI endpoint, RealTimeClock c) throws Exception {
+                syncs.incrementAndGet();
+                return new OssEndpointTimeSync().sync(endpoint, c);
+            }
+        });
+        OssTimeBridge.resetPreSyncStateForTest();
+        OssTimeBridge.setReplayBuffer(0L, OssTimeBridge.getReplayBufferPoolBytes());
+        PatchingClassLoader loader = new PatchingClassLoader(getClass().getClassLoader(), Driver.class.getName());
+        Method put = loader.loadClass(Driver.class.getName()).getMethod("put", new Class[] { String.class });
+        try {
+            put.invoke(null, new Object[] { server.endpoint() });
+            Assert.assertEquals(1, syncs.get());
+            Assert.assertTrue(OssTimeBridge.isClockConfident());
+
+            server.setSkewMillis(SKEW);
+            try {
+                put.invoke(null, new Object[] { server.endpoint() });
+                Assert.fail("expected RequestTimeTooSkewed");
+            } catch (InvocationTargetException e) {
+                Assert.assertEquals("RequestTimeTooSkewed", RequestTracker.errorCodeOf(e.getCause()));
+            }
+            Assert.assertEquals(1L, server.getSkewRejections());
+            Assert.assertFalse(OssTimeBridge.isClockConfident());
+
+            put.invoke(null, new Object[] { server.endpoint() });
+            Assert.assertEquals(2, syncs.get());
+            Assert.assertEquals(1L, server.getSkewRejections());
+            Assert.assertTrue(loader.stats.toString(), loader.stats.serviceClientRetryPatched);
+        } finally {
+            server.close();
+        }
+    }
+
+    // Loaded by PatchingClassLoader with its nested class, so the SDK classes it links against are the patched copies.
+    public static final class Driver {
+        public static void put(String endpoint) {
+            Upload upload = new Upload(endpoint);
+            try {
+                upload.put(new SequenceInputStream(new ByteArrayInputStream(new byte[16]),
+                        new ByteArrayInputStream(new byte[0])), 16L);
+            } finally {
+                upload.shutdown();
+            }
+        }
+    }
+
+    // A signed PUT whose body reaches ServiceClient as given; the public putObject calls buffer it first.
+    static final class Upload extends OSSOperation {
+        Upload(String endpoint) {
+            super(new DefaultServiceClient(config()), new DefaultCredentialProvider("ak", "sk"));
+            setEndpoint(URI.create(endpoint));
+        }
+
+        void put(InputStream body, long length) {
+            RequestMessage request = new OSSRequestMessageBuilder(getInnerClient()).setEndpoint(getEndpoint())
+                    .setMethod(HttpMethod.PUT).setBucket("bucket").setKey("k").setInputStream(body)
+                    .setInputSize(length).build();
+            // send, not doOperation: its request handlers would buffer the body to make it markable.
+            send(request, createDefaultContext(HttpMethod.PUT, "bucket", "k"), true);
+        }
+
+        void shutdown() {
+            getInnerClient().shutdown();
+        }
+
+        // A wrongly retried body is already consumed and would hang until the socket timeout; fail fast instead.
+        private static ClientConfiguration config() {
+            ClientConfiguration conf = new ClientConfiguration();
+            conf.setSocketTimeout(3000);
+            return conf;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.gamesofts.osstimeagent.history;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.util.List;
+
+public class OffsetHistoryTest {
+    private File file;
+
+    @After
+    public void tearDown() {
+        OffsetHistory.install(null);
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRingKeepsNewestRecordsInOrder() throws Exception {
+        file = File.createTempFile("offset-history", ".ring");
+        OffsetHistory h = OffsetHistory.open(file, 8);
+        int i;
+        for (i = 1; i <= 20; i++) {
+            h.append(OffsetHistory.SOURCE_SYNC, i * 10L, i, 1000L + i);
+        }
+
+        List records = OffsetHistoryReader.read(file);
+
+        Assert.assertEquals(8, records.size());
+        OffsetHistoryReader.Record first = (OffsetHistoryReader.Record) records.get(0);
+        OffsetHistoryReader.Record last = (OffsetHistoryReader.Record) records.get(7);
+        Assert.assertEquals(13L, first.getSeq());
+        Assert.assertEquals(130L, first.getOffsetMillis());
+        Assert.assertEquals(20L, last.getSeq());
+        Assert.assertEquals(20L, last.getRttMillis());
+        Assert.assertEquals(1020L, last.getUncertaintyMillis());
+        Assert.assertEquals(OffsetHistory.SOURCE_SYNC, last.getSource());
+    }
+
+    @Test
+    public void testReopenContinuesSequenceAndSkipsTornRecord() throws Exception {
+        file = File.createTempFile("offset-history", ".ring");
+        OffsetHistory h = OffsetHistory.open(file, 16);
+        h.append(OffsetHistory.SOURCE_CLOCK_STEP, 5L, -1L, -1L);
+        h.append(OffsetHistory.SOURCE_SKEW_RETRY, 6L, -1L, -1L);
+
+        // Simulate a crash between writing the fields and the checksum of the second record.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(OffsetHistory.HEADER_SIZE + 2 * OffsetHistory.RECORD_SIZE + 16);
+            raf.writeLong(999L);
+        } finally {
+            raf.close();
+        }
+
+        OffsetHistory reopened = OffsetHistory.open(file, 16);
+        reopened.append(OffsetHistory.SOURCE_SYNC, 7L, 3L, 1001L);
+
+        List records = OffsetHistoryReader.read(file);
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals(1L, ((OffsetHistoryReader.Record) records.get(0)).getSeq());
+        Assert.assertEquals(3L, ((OffsetHistoryReader.Record) records.get(1)).getSeq());
+    }
+
+    @Test
+    public void testStaticHooksAreNoOpsUntilInstalled() throws Exception {
+        OffsetHistory.recordEvent(OffsetHistory.SOURCE_SKEW_RETRY, 1L);
+
+        file = File.createTempFile("offset-history", ".ring");
+        OffsetHistory.install(OffsetHistory.open(file, 4));
+        OffsetHistory.recordSync(250L, 40L, 1020L);
+
+        List records = OffsetHistoryReader.read(file);
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals("sync", OffsetHistoryReader.sourceName(
+                ((OffsetHistoryReader.Record) records.get(0)).getSource()));
+    }
+
+    @Test
+    public void testZeroCapacityIsRejectedAndLeavesHooksNoOps() throws Exception {
+        file = File.createTempFile("offset-history", ".ring");
+        try {
+            OffsetHistory.open(file, 0);
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // no header-only file whose every append divides by zero
+        }
+
+        OffsetHistory.installFromConfig(file.getPath(), 0L);
+        Assert.assertNull(OffsetHistory.installed());
+        OffsetHistory.recordSync(250L, 40L, 1020L);
+        OffsetHistory.recordEvent(OffsetHistory.SOURCE_SKEW_RETRY, 1L);
+    }
+
+    @Test
+    public void testStaticHooksSwallowRecordingFailures() throws Exception {
+        file = File.createTempFile("offset-history", ".ring");
+        OffsetHistory h = OffsetHistory.open(file, 4);
+        // A zero capacity slipped past open: every append would throw ArithmeticException.
+        Field capacity = OffsetHistory.class.getDeclaredField("capacity");
+        capacity.setAccessible(true);
+        capacity.setInt(h, 0);
+        OffsetHistory.install(h);
+
+        OffsetHistory.recordSync(250L, 40L, 1020L);
+        OffsetHistory.recordEvent(OffsetHistory.SOURCE_SYNC_FAILURE, 1L);
+    }
+}
@@ -0,0 +1,156 @@
+package com.gamesofts.osstimeagent.instrument;
+
+import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher.PatchStats;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+
+public class PatchCacheTest {
+    private static final String SERVICE_CLIENT = "com/aliyun/oss/common/comm/ServiceClient";
+
+    @Test
+    public void testTransformReusesCachedBytesForSameInput() throws Exception {
+        byte[] original = readAll(SERVICE_CLIENT + ".class");
+        OssSdkTransformer transformer = new OssSdkTransformer(new PatchCache(null, "test"));
+
+        byte[] first = transformer.transform(null, SERVICE_CLIENT, null, null, original);
+        byte[] second = transformer.transform(null, SERVICE_CLIENT, null, null, original.clone());
+
+        Assert.assertNotNull(first);
+        Assert.assertSame(first, second);
+    }
+
+    @Test
+    public void testPrewarmFillsCacheBeforeClassLoad() throws Exception {
+        PatchCache cache = new PatchCache(null, "test");
+        OssSdkTransformer transformer = new OssSdkTransformer(cache);
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+        Assert.assertTrue(OssSdkTransformer.isOssSdkVisible(loader));
+        Assert.assertEquals(9, transformer.prewarm(loader));
+
+        byte[] original = readAll(SERVICE_CLIENT + ".class");
+        PatchCache.Entry entry = cache.get(cache.keyOf(SERVICE_CLIENT, original));
+        Assert.assertNotNull(entry);
+        Assert.assertSame(entry.getPatchedBytes(), transformer.transform(null, SERVICE_CLIENT, null, null, original));
+    }
+
+    @Test
+    public void testKeyDependsOnVersionAndContent() throws Exception {
+        byte[] a = new byte[] { 1, 2, 3 };
+        byte[] b = new byte[] { 1, 2, 4 };
+        PatchCache v1 = new PatchCache(null, "1.0.0");
+        PatchCache v2 = new PatchCache(null, "1.0.1");
+
+        Assert.assertEquals(v1.keyOf(SERVICE_CLIENT, a), v1.keyOf(SERVICE_CLIENT, a.clone()));
+        Assert.assertFalse(v1.keyOf(SERVICE_CLIENT, a).equals(v1.keyOf(SERVICE_CLIENT, b)));
+        Assert.assertFalse(v1.keyOf(SERVICE_CLIENT, a).equals(v2.keyOf(SERVICE_CLIENT, a)));
+    }
+
+    @Test
+    public void testDiskCacheSurvivesNewInstance() throws Exception {
+        File dir = newTempDir();
+        byte[] original = readAll(SERVICE_CLIENT + ".class");
+        byte[] patched = new OssSdkTransformer(new PatchCache(dir, "test"))
+                .transform(null, SERVICE_CLIENT, null, null, original);
+
+        PatchCache restarted = new PatchCache(dir, "test");
+        PatchCache.Entry entry = restarted.get(restarted.keyOf(SERVICE_CLIENT, original));
+
+        Assert.assertNotNull(entry);
+        Assert.assertArrayEquals(patched, entry.getPatchedBytes());
+        Assert.assertTrue(entry.getStats().classModified);
+        Assert.assertTrue(entry.getStats().serviceClientRetryPatched);
+        Assert.assertTrue(entry.getStats().serviceClientResignRetryPatched);
+    }
+
+    @Test
+    public void testDiskCacheKeepsUnmodifiedOutcome() throws Exception {
+        File dir = newTempDir();
+        PatchCache cache = new PatchCache(dir, "test");
+        String key = cache.keyOf("x/Y", new byte[] { 7 });
+        cache.put(key, new PatchCache.Entry(null, new PatchStats()));
+
+        PatchCache.Entry entry = new PatchCache(dir, "test").get(key);
+
+        Assert.assertNotNull(entry);
+        Assert.assertNull(entry.getPatchedBytes());
+        Assert.assertFalse(entry.getStats().classModified);
+    }
+
+    @Test
+    public void testDiskCacheKeepsEveryStatsFlag() throws Exception {
+        File dir = newTempDir();
+        PatchCache cache = new PatchCache(dir, "test");
+        String key = cache.keyOf("x/Y", new byte[] { 7 });
+        // Every boolean flag, so one added to PatchStats without a cache bit fails here.
+        PatchStats stats = new PatchStats();
+        Field[] fields = PatchStats.class.getFields();
+        int i;
+        for (i = 0; i < fields.length; i++) {
+            if (fields[i].getType() == boolean.class) {
+                fields[i].setBoolean(stats, true);
+            }
+        }
+        cache.put(key, new PatchCache.Entry(new byte[] { 1, 2, 3 }, stats));
+
+        PatchCache.Entry entry = new PatchCache(dir, "test").get(key);
+
+        Assert.assertNotNull(entry);
+        for (i = 0; i < fields.length; i++) {
+            if (fields[i].getType() == boolean.class) {
+                Assert.assertTrue(fields[i].getName(), fields[i].getBoolean(entry.getStats()));
+            }
+        }
+        Assert.assertTrue(entry.getStats().credentialExpiryPatched);
+    }
+
+    @Test
+    public void testCorruptedDiskEntryIsIgnored() throws Exception {
+        File dir = newTempDir();
+        PatchCache cache = new PatchCache(dir, "test");
+        String key = cache.keyOf("x/Y", new byte[] { 7 });
+        FileOutputStream out = new FileOutputStream(new File(dir, key + ".patch"));
+        try {
+            out.write(new byte[] { 'O', 'T', 'A', 'C', 0, 0 });
+        } finally {
+            out.close();
+        }
+
+        Assert.assertNull(cache.get(key));
+    }
+
+    private static File newTempDir() throws Exception {
+        File f = File.createTempFile("oss-time-agent-patch-cache", "");
+        Assert.assertTrue(f.delete());
+        Assert.assertTrue(f.mkdirs());
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static byte[] readAll(String resource) throws Exception {
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+        if (in == null) {
+            throw new IllegalStateException("missing resource: " + resource);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (;;) {
+                int n = in.read(buf);
+                if (n < 0) {
+                    break;
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -32,6 +32,31 @@ public class OssAsmPatcherTest {
         Assert.assertTrue("shouldRetry patch expected", stats.serviceClientRetryPatched);
         Assert.assertTrue("sendRequestImpl pre-sync-before-sign patch expected", stats.serviceClientPreSyncBeforeSignPatched);
         Assert.assertTrue("sendRequestImpl resign patch expected", stats.serviceClientResignRetryPatched);
+        Assert.assertTrue("sendRequestImpl request metrics patch expected", stats.serviceClientRequestMetricsPatched);
+    }
+
+    @Test
+    public void testPatchedServiceClientPassesVerification() throws Exception {
+        final byte[] patched = OssAsmPatcher.patch("com/aliyun/oss/common/comm/ServiceClient",
+                readAll("com/aliyun/oss/common/comm/ServiceClient.class"), new OssAsmPatcher.PatchStats());
+        ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+            protected Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (!"com.aliyun.oss.common.comm.ServiceClient".equals(name)) {
+                    return super.loadClass(name, resolve);
+                }
+                synchronized (this) {
+                    Class c = findLoadedClass(name);
+                    if (c == null) {
+                        c = defineClass(name, patched, 0, patched.length);
+                    }
+                    return c;
+                }
+            }
+        };
+
+        // Initialization links the class, which runs the verifier over the injected handler and hooks.
+        Class c = Class.forName("com.aliyun.oss.common.comm.ServiceClient", true, loader);
+        Assert.assertSame(loader, c.getClassLoader());
     }
 
     @Test
@@ -46,6 +71,36 @@ public class OssAsmPatcherTest {
         Assert.assertTrue("setTickOffset hook patch expected", stats.clientConfigTickOffsetHookPatched);
     }
 
+    @Test
+    public void testPatchPresignPaths() throws Exception {
+        OssAsmPatcher.PatchStats client = patchStats("com/aliyun/oss/OSSClient");
+        Assert.assertTrue("generatePresignedUrl pre-sync patch expected", client.presignPreSyncPatched);
+        Assert.assertTrue("generatePostPolicy expiration patch expected", client.postPolicyExpirationPatched);
+        Assert.assertTrue("V1 URL expiration patch expected",
+                patchStats("com/aliyun/oss/internal/SignUtils").presignExpirationPatched);
+        Assert.assertTrue("V2 URL expiration patch expected",
+                patchStats("com/aliyun/oss/internal/SignV2Utils").presignExpirationPatched);
+        Assert.assertTrue("V4 URL expiration patch expected",
+                patchStats("com/aliyun/oss/internal/OSSObjectOperation").presignExpirationPatched);
+        Assert.assertTrue("V4 presign date patch expected",
+                patchStats("com/aliyun/oss/internal/signer/OSSV4Signer").presignDatePatched);
+    }
+
+    @Test
+    public void testPatchInstanceProfileCredentialsExpiry() throws Exception {
+        Assert.assertTrue("credential expiry patch expected",
+                patchStats("com/aliyun/oss/common/auth/InstanceProfileCredentials").credentialExpiryPatched);
+        Assert.assertNull("BasicCredentials measures local durations and stays unpatched",
+                OssAsmPatcher.patch("com/aliyun/oss/common/auth/BasicCredentials",
+                        readAll("com/aliyun/oss/common/auth/BasicCredentials.class"), new OssAsmPatcher.PatchStats()));
+    }
+
+    private OssAsmPatcher.PatchStats patchStats(String internalName) throws Exception {
+        OssAsmPatcher.PatchStats stats = new OssAsmPatcher.PatchStats();
+        Assert.assertNotNull(OssAsmPatcher.patch(internalName, readAll(internalName + ".class"), stats));
+        return stats;
+    }
+
     private void assertPatchable(String resource, String internalName) throws Exception {
         byte[] original = readAll(resource);
         OssAsmPatcher.PatchStats stats = new OssAsmPatcher.PatchStats();
@@ -0,0 +1,270 @@
+package com.gamesofts.osstimeagent.load;
+
+import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher;
+import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher.PatchStats;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+// Runs the patcher and the fake-server request path against every SDK version of the oss-compat-* profiles and
+// prints one row per version: PatchStats flags applied, warm patch time of the three target classes, and
+// per-request agent overhead (p50 and throughput, with vs without -javaagent). Exits 1 when a version misses a
+// patch flag, cannot be read, or exceeds maxOverheadMicros, so an SDK upgrade cannot silently drop a patch.
+// Each version runs on the exact classpath of its profile, written by compat-matrix.sh as
+// target/oss-compat/<profile>.classpath (mvn dependency:build-classpath). Arguments are key=value:
+//   compatDir=target/oss-compat patchIterations=200 maxOverheadMicros=   plus any OssLoadMain argument
+//   (threads=4 seconds=5 warmupSeconds=2 op=put size=4096 latencyMillis=0 agentJar=...)
+public class CompatMatrixMain {
+    private static final String[] TARGETS = new String[] {
+            "com/aliyun/oss/internal/OSSOperation",
+            "com/aliyun/oss/common/comm/ServiceClient",
+            "com/aliyun/oss/ClientConfiguration"
+    };
+    // PatchStats flags every supported SDK must get. clientConfigClockSkewPatched is declared but no visitor sets it.
+    static final String[] EXPECTED_FLAGS = new String[] {
+            "tickOffsetPatched",
+            "serviceClientRetryPatched",
+            "serviceClientPreSyncBeforeSignPatched",
+            "serviceClientResignRetryPatched",
+            "serviceClientRequestMetricsPatched",
+            "clientConfigTickOffsetHookPatched"
+    };
+    private static final String SDK_JAR_PREFIX = "aliyun-sdk-oss-";
+
+    public static void main(String[] args) throws Exception {
+        Map cfg = OssLoadMain.parseArgs(args);
+        if (!cfg.containsKey("threads")) {
+            cfg.put("threads", "4");
+        }
+        if (!cfg.containsKey("seconds")) {
+            cfg.put("seconds", "5");
+        }
+        String agentJar = OssLoadMain.get(cfg, "agentJar", "target/oss-time-agent-1.0.0.jar");
+        if (!new File(agentJar).isFile()) {
+            throw new IllegalArgumentException("agent jar not found: " + agentJar + " (build it or pass agentJar=)");
+        }
+        String javaAgent = "-javaagent:" + agentJar;
+        String agentArgs = OssLoadMain.get(cfg, "agentArgs", "");
+        if (agentArgs.length() > 0) {
+            javaAgent += "=" + agentArgs;
+        }
+        int iterations = Integer.parseInt(OssLoadMain.get(cfg, "patchIterations", "200"));
+        String maxOverhead = (String) cfg.get("maxOverheadMicros");
+
+        List rows = new ArrayList();
+        File[] cpFiles = classpathFiles(new File(OssLoadMain.get(cfg, "compatDir", "target/oss-compat")));
+        int i;
+        if (cpFiles.length == 0) {
+            System.out.println("no classpath files, running the current classpath only (see compat-matrix.sh)");
+            rows.add(new Row("current", System.getProperty("java.class.path")));
+        }
+        for (i = 0; i < cpFiles.length; i++) {
+            String name = cpFiles[i].getName();
+            String testCp = new File("target/test-classes").getAbsolutePath() + File.pathSeparator
+                    + new File("target/classes").getAbsolutePath();
+            rows.add(new Row(name.substring(0, name.length() - ".classpath".length()),
+                    testCp + File.pathSeparator + readFile(cpFiles[i]).trim()));
+        }
+
+        FakeOssServer server = OssLoadMain.startServer(cfg);
+        try {
+            for (i = 0; i < rows.size(); i++) {
+                Row row = (Row) rows.get(i);
+                File sdkJar = findSdkJar(row.classpath);
+                if (sdkJar == null) {
+                    row.error = "no " + SDK_JAR_PREFIX + "*.jar on classpath";
+                    continue;
+                }
+                row.sdkVersion = sdkJar.getName().substring(SDK_JAR_PREFIX.length(),
+                        sdkJar.getName().length() - ".jar".length());
+                System.out.println();
+                System.out.println("=== " + row.label + " (SDK " + row.sdkVersion + ")");
+                try {
+                    measurePatch(row, sdkJar, iterations);
+                    row.base = OssLoadMain.runChild(cfg, server.endpoint(), null, row.classpath);
+                    row.agent = OssLoadMain.runChild(cfg, server.endpoint(), javaAgent, row.classpath);
+                } catch (Exception e) {
+                    row.error = e.toString();
+                }
+            }
+        } finally {
+            server.close();
+        }
+
+        boolean ok = printTable(rows, EXPECTED_FLAGS, maxOverhead == null ? -1.0 : Double.parseDouble(maxOverhead));
+        System.exit(ok ? 0 : 1);
+    }
+
+    // Patches each target class `iterations` times after as many warm-up rounds; the reported time is the sum of
+    // the per-class medians, i.e. what loading the three classes costs once ASM is warm.
+    static void measurePatch(Row row, File sdkJar, int iterations) throws IOException {
+        row.stats = new PatchStats();
+        long totalNanos = 0L;
+        int t;
+        for (t = 0; t < TARGETS.length; t++) {
+            byte[] bytes = readClass(sdkJar, TARGETS[t]);
+            OssAsmPatcher.patch(TARGETS[t], bytes, row.stats);
+            long[] samples = new long[iterations];
+            int i;
+            for (i = 0; i < iterations * 2; i++) {
+                long t0 = System.nanoTime();
+                OssAsmPatcher.patch(TARGETS[t], bytes, new PatchStats());
+                long elapsed = System.nanoTime() - t0;
+                if (i >= iterations) {
+                    samples[i - iterations] = elapsed;
+                }
+            }
+            Arrays.sort(samples);
+            totalNanos += samples[iterations / 2];
+        }
+        row.patchMicros = totalNanos / 1000.0;
+    }
+
+    private static boolean printTable(List rows, String[] flags, double maxOverheadMicros) {
+        System.out.println();
+        System.out.println(OssLoadMain.pad("profile", 16) + OssLoadMain.pad("sdk", 9) + OssLoadMain.pad("patches", 9)
+                + OssLoadMain.pad("patch us", 10) + OssLoadMain.pad("p50 ms", 9) + OssLoadMain.pad("+agent ms", 11)
+                + OssLoadMain.pad("d.p50 us", 10) + OssLoadMain.pad("d.ops/s", 9) + OssLoadMain.pad("errors", 9)
+                + "missing");
+        boolean ok = true;
+        int i;
+        for (i = 0; i < rows.size(); i++) {
+            Row r = (Row) rows.get(i);
+            if (r.error != null) {
+                ok = false;
+                System.out.println(OssLoadMain.pad(r.label, 16)
+                        + OssLoadMain.pad(r.sdkVersion == null ? "?" : r.sdkVersion, 9) + "FAILED: " + r.error);
+                continue;
+            }
+            List missing = missingFlags(r.stats, flags);
+            double overheadMicros = (r.agent.p50Millis - r.base.p50Millis) * 1000.0;
+            double opsDelta = r.base.opsPerSecond() == 0.0 ? 0.0
+                    : (r.agent.opsPerSecond() / r.base.opsPerSecond() - 1.0) * 100.0;
+            boolean slow = maxOverheadMicros >= 0.0 && overheadMicros > maxOverheadMicros;
+            if (!missing.isEmpty() || slow) {
+                ok = false;
+            }
+            System.out.println(OssLoadMain.pad(r.label, 16) + OssLoadMain.pad(r.sdkVersion, 9)
+                    + OssLoadMain.pad((flags.length - missing.size()) + "/" + flags.length, 9)
+                    + OssLoadMain.pad(OssLoadMain.fmt(r.patchMicros), 10)
+                    + OssLoadMain.pad(OssLoadMain.fmt(r.base.p50Millis), 9)
+                    + OssLoadMain.pad(OssLoadMain.fmt(r.agent.p50Millis), 11)
+                    + OssLoadMain.pad(OssLoadMain.fmt(overheadMicros) + (slow ? "!" : ""), 10)
+                    + OssLoadMain.pad(OssLoadMain.fmt(opsDelta) + "%", 9)
+                    + OssLoadMain.pad(r.base.errors + "/" + r.agent.errors, 9)
+                    + (missing.isEmpty() ? "-" : missing.toString()));
+        }
+        System.out.println();
+        System.out.println(ok ? "compat matrix OK" : "compat matrix FAILED");
+        return ok;
+    }
+
+    static List missingFlags(PatchStats stats, String[] flags) {
+        List missing = new ArrayList();
+        int i;
+        for (i = 0; i < flags.length; i++) {
+            try {
+                if (!PatchStats.class.getField(flags[i]).getBoolean(stats)) {
+                    missing.add(flags[i]);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return missing;
+    }
+
+    static File findSdkJar(String classpath) {
+        String[] entries = classpath.split(File.pathSeparator);
+        int i;
+        for (i = 0; i < entries.length; i++) {
+            File f = new File(entries[i]);
+            if (f.getName().startsWith(SDK_JAR_PREFIX) && f.getName().endsWith(".jar")) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    private static File[] classpathFiles(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List out = new ArrayList();
+        int i;
+        for (i = 0; i < files.length; i++) {
+            if (files[i].getName().endsWith(".classpath")) {
+                out.add(files[i]);
+            }
+        }
+        File[] sorted = (File[]) out.toArray(new File[out.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static String readFile(File f) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+        try {
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                sb.append(line);
+            }
+            return sb.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readClass(File jar, String internalName) throws IOException {
+        JarFile jf = new JarFile(jar);
+        try {
+            ZipEntry e = jf.getEntry(internalName + ".class");
+            if (e == null) {
+                throw new IOException(internalName + " not found in " + jar);
+            }
+            InputStream in = jf.getInputStream(e);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        } finally {
+            jf.close();
+        }
+    }
+
+    static final class Row {
+        final String label;
+        final String classpath;
+        String sdkVersion;
+        PatchStats stats;
+        double patchMicros;
+        OssLoadMain.Result base;
+        OssLoadMain.Result agent;
+        String error;
+
+        Row(String label, String classpath) {
+            this.label = label;
+            this.classpath = classpath;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.gamesofts.osstimeagent.load;
+
+import com.gamesofts.osstimeagent.instrument.asm.OssAsmPatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class CompatMatrixMainTest {
+    // Runs against whichever SDK the active oss-compat-* profile put on the test classpath.
+    @Test
+    public void testEveryPatchAppliesToSdkOnClasspath() throws Exception {
+        File jar = CompatMatrixMain.findSdkJar(System.getProperty("java.class.path"));
+        Assert.assertNotNull(jar);
+        CompatMatrixMain.Row row = new CompatMatrixMain.Row("test", "");
+        CompatMatrixMain.measurePatch(row, jar, 3);
+        Assert.assertEquals(jar.getName(), "[]",
+                CompatMatrixMain.missingFlags(row.stats, CompatMatrixMain.EXPECTED_FLAGS).toString());
+        Assert.assertTrue(row.patchMicros > 0.0);
+    }
+
+    @Test
+    public void testExpectedFlagsArePatchStatsFields() throws Exception {
+        int i;
+        for (i = 0; i < CompatMatrixMain.EXPECTED_FLAGS.length; i++) {
+            Assert.assertEquals(boolean.class,
+                    OssAsmPatcher.PatchStats.class.getField(CompatMatrixMain.EXPECTED_FLAGS[i]).getType());
+        }
+    }
+}
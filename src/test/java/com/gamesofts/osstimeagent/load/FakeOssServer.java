@@ -0,0 +1,559 @@
+package com.gamesofts.osstimeagent.load;
+
+import com.aliyun.oss.common.utils.BinaryUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+// Local stand-in for an OSS endpoint, for load tests without credentials. Keep-alive HTTP/1.1, one thread per
+// connection. Its clock runs skewMillis ahead of the local one; signed requests whose Date / x-oss-date is more
+// than maxSkewMillis away are rejected with RequestTimeTooSkewed (with ServerTime, like OSS). Signatures
+// themselves are not checked. Every response carries the server Date, so the agent's pre-sync works against it.
+// PUT accepts any body (Content-Length, chunked, Expect: 100-continue); GET returns objectSize zero bytes.
+// Presigned URLs are accepted until their expiry by the server clock (V1 Expires, V2 x-oss-expires, V4
+// x-oss-date + x-oss-expires, whose x-oss-date must also be inside the skew window), and multipart POSTs until the
+// expiration of their base64 policy field; otherwise AccessDenied, as OSS answers.
+public final class FakeOssServer {
+    private final ServerSocket server;
+    private final Random random = new Random();
+    private volatile long skewMillis;
+    private volatile long maxSkewMillis = 15L * 60L * 1000L;
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile int objectSize = 1024;
+    private volatile boolean closed;
+
+    private final AtomicLong signedRequests = new AtomicLong();
+    private final AtomicLong skewRejections = new AtomicLong();
+    private final AtomicLong anonymousRequests = new AtomicLong();
+    private final AtomicLong presignedRequests = new AtomicLong();
+    private final AtomicLong expiredRejections = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong requestIds = new AtomicLong();
+
+    public FakeOssServer(int port) throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 256);
+    }
+
+    public void start() {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        }, "fake-oss-accept");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public String endpoint() {
+        return "http://127.0.0.1:" + server.getLocalPort();
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+    }
+
+    public void setSkewMillis(long skewMillis) {
+        this.skewMillis = skewMillis;
+    }
+
+    public void setMaxSkewMillis(long maxSkewMillis) {
+        this.maxSkewMillis = maxSkewMillis;
+    }
+
+    public void setLatencyMillis(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    public void setObjectSize(int objectSize) {
+        this.objectSize = objectSize;
+    }
+
+    public long getSignedRequests() {
+        return signedRequests.get();
+    }
+
+    public long getSkewRejections() {
+        return skewRejections.get();
+    }
+
+    // Unsigned requests, i.e. the agent's pre-sync probes.
+    public long getAnonymousRequests() {
+        return anonymousRequests.get();
+    }
+
+    // Requests authorized by a URL signature or a POST policy instead of an Authorization header.
+    public long getPresignedRequests() {
+        return presignedRequests.get();
+    }
+
+    public long getExpiredRejections() {
+        return expiredRejections.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    // Client side of the presign checks, for tests: status of a GET on a presigned URL.
+    public static int fetch(URL url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        int code = conn.getResponseCode();
+        conn.disconnect();
+        return code;
+    }
+
+    // Status of a browser-style PostObject upload carrying the JSON policy (base64-encoded into the form).
+    public static int postPolicyForm(String endpoint, String policy) throws IOException {
+        String boundary = "9431149156168";
+        String body = field(boundary, "key", "k") + field(boundary, "OSSAccessKeyId", "ak")
+                + field(boundary, "policy", BinaryUtil.toBase64String(policy.getBytes("UTF-8")))
+                + field(boundary, "Signature", "sig") + field(boundary, "file", "0123456789abcdef")
+                + "--" + boundary + "--\r\n";
+        byte[] bytes = body.getBytes("UTF-8");
+        HttpURLConnection conn = (HttpURLConnection) new URL(endpoint + "/").openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setFixedLengthStreamingMode(bytes.length);
+        conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        OutputStream out = conn.getOutputStream();
+        out.write(bytes);
+        out.close();
+        int code = conn.getResponseCode();
+        conn.disconnect();
+        return code;
+    }
+
+    private static String field(String boundary, String name, String value) {
+        return "--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n";
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                continue;
+            }
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    serve(socket);
+                }
+            }, "fake-oss-conn");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            while (!closed) {
+                String requestLine = readLine(in);
+                if (requestLine == null) {
+                    return;
+                }
+                if (requestLine.length() == 0) {
+                    continue;
+                }
+                Map headers = new HashMap();
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                if (!handle(requestLine, headers, in, out)) {
+                    return;
+                }
+            }
+        } catch (IOException ignore) {
+            // Client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    // Returns false when the connection must be closed afterwards.
+    private boolean handle(String requestLine, Map headers, InputStream in, OutputStream out) throws IOException {
+        String[] parts = requestLine.split(" ");
+        String method = parts[0];
+        String path = parts.length > 1 ? parts[1] : "/";
+        boolean expectContinue = "100-continue".equalsIgnoreCase((String) headers.get("expect"));
+        boolean hasBody = headers.containsKey("content-length") || headers.containsKey("transfer-encoding");
+        sleepLatency();
+        long serverNow = System.currentTimeMillis() + skewMillis;
+
+        long[] presign = headers.get("authorization") == null ? presignedWindow(path) : null;
+        boolean postPolicy = presign == null && headers.get("authorization") == null && "POST".equals(method)
+                && startsWithIgnoreCase((String) headers.get("content-type"), "multipart/form-data");
+        if (presign != null) {
+            presignedRequests.incrementAndGet();
+            if (presign[0] != Long.MIN_VALUE && presign[0] - serverNow > maxSkewMillis) {
+                return rejectSkewed(out, method, headers, in, presign[0], serverNow, expectContinue, hasBody);
+            }
+            if (serverNow > presign[1]) {
+                expiredRejections.incrementAndGet();
+                if (hasBody && !expectContinue) {
+                    discardBody(headers, in);
+                }
+                error(out, method, 403, "AccessDenied", "Request has expired.", serverNow,
+                        "<Expires>" + iso8601(presign[1]) + "</Expires><ServerTime>" + iso8601(serverNow)
+                                + "</ServerTime>", expectContinue && hasBody);
+                return !(expectContinue && hasBody);
+            }
+        } else if (postPolicy) {
+            presignedRequests.incrementAndGet();
+            if (expectContinue && hasBody) {
+                out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("ISO-8859-1"));
+                out.flush();
+            }
+            long expiration = policyExpiration((String) headers.get("content-type"), readBody(headers, in));
+            if (serverNow > expiration) {
+                expiredRejections.incrementAndGet();
+                error(out, method, 403, "AccessDenied", "Invalid according to Policy: Policy expired.", serverNow,
+                        null, false);
+                return true;
+            }
+            hasBody = false;
+            expectContinue = false;
+        } else if (headers.get("authorization") == null) {
+            anonymousRequests.incrementAndGet();
+            if (hasBody && !expectContinue) {
+                discardBody(headers, in);
+            }
+            error(out, method, 403, "AccessDenied", "Anonymous access is forbidden for this operation.", serverNow,
+                    null, expectContinue && hasBody);
+            return !(expectContinue && hasBody);
+        } else {
+            signedRequests.incrementAndGet();
+            long requestTime = requestTime(headers);
+            if (requestTime == Long.MIN_VALUE || Math.abs(requestTime - serverNow) > maxSkewMillis) {
+                return rejectSkewed(out, method, headers, in, requestTime, serverNow, expectContinue, hasBody);
+            }
+        }
+
+        if (expectContinue && hasBody) {
+            out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("ISO-8859-1"));
+            out.flush();
+        }
+        if (hasBody) {
+            discardBody(headers, in);
+        }
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 200 OK\r\n");
+        appendCommonHeaders(head, serverNow);
+        head.append("ETag: \"5B3C1A2E053D763E1B002CC607C5A0FE\"\r\n");
+        int bodyLength = 0;
+        if ("GET".equals(method) && path.length() > 1) {
+            bodyLength = objectSize;
+            head.append("Content-Type: application/octet-stream\r\n");
+            head.append("Last-Modified: ").append(rfc822(serverNow)).append("\r\n");
+        }
+        head.append("Content-Length: ").append(bodyLength).append("\r\n\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        if (!"HEAD".equals(method)) {
+            writeZeros(out, bodyLength);
+        }
+        out.flush();
+        return true;
+    }
+
+    private boolean rejectSkewed(OutputStream out, String method, Map headers, InputStream in, long requestTime,
+                                 long serverNow, boolean expectContinue, boolean hasBody) throws IOException {
+        skewRejections.incrementAndGet();
+        if (hasBody && !expectContinue) {
+            discardBody(headers, in);
+        }
+        String extra = "<MaxAllowedSkewMilliseconds>" + maxSkewMillis + "</MaxAllowedSkewMilliseconds>"
+                + "<RequestTime>" + (requestTime == Long.MIN_VALUE ? "" : iso8601(requestTime)) + "</RequestTime>"
+                + "<ServerTime>" + iso8601(serverNow) + "</ServerTime>";
+        error(out, method, 403, "RequestTimeTooSkewed",
+                "The difference between the request time and the current time is too large.", serverNow, extra,
+                expectContinue && hasBody);
+        return !(expectContinue && hasBody);
+    }
+
+    private void error(OutputStream out, String method, int status, String code, String message, long serverNow,
+                       String extraXml, boolean close) throws IOException {
+        String requestId = requestId();
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Error><Code>" + code + "</Code><Message>" + message
+                + "</Message><RequestId>" + requestId + "</RequestId><HostId>127.0.0.1</HostId>"
+                + (extraXml == null ? "" : extraXml) + "</Error>";
+        byte[] body = xml.getBytes("UTF-8");
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(status == 403 ? " Forbidden" : " Error").append("\r\n");
+        appendCommonHeaders(head, serverNow);
+        head.append("Content-Type: application/xml\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        if (close) {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        if (!"HEAD".equals(method)) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private void appendCommonHeaders(StringBuilder head, long serverNow) {
+        head.append("Server: AliyunOSS\r\n");
+        head.append("Date: ").append(rfc822(serverNow)).append("\r\n");
+        head.append("x-oss-request-id: ").append(requestId()).append("\r\n");
+    }
+
+    private String requestId() {
+        return "FAKE" + Long.toHexString(System.nanoTime()) + Long.toHexString(requestIds.incrementAndGet());
+    }
+
+    private void sleepLatency() {
+        long delay = latencyMillis;
+        long jitter = jitterMillis;
+        if (jitter > 0L) {
+            synchronized (random) {
+                delay += (long) (random.nextDouble() * jitter);
+            }
+        }
+        if (delay > 0L) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // V4 signs x-oss-date (ISO 8601 basic), V1 signs Date (RFC 822). Long.MIN_VALUE when neither parses.
+    static long requestTime(Map headers) {
+        String v4 = (String) headers.get("x-oss-date");
+        if (v4 != null) {
+            try {
+                return format("yyyyMMdd'T'HHmmss'Z'").parse(v4).getTime();
+            } catch (Exception ignore) {
+                return Long.MIN_VALUE;
+            }
+        }
+        String date = (String) headers.get("date");
+        if (date != null) {
+            try {
+                return format("EEE, dd MMM yyyy HH:mm:ss 'GMT'").parse(date).getTime();
+            } catch (Exception ignore) {
+                return Long.MIN_VALUE;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    // {signed at, expires at} of a presigned URL, signed at being Long.MIN_VALUE unless V4; null when the query
+    // carries no URL signature. Unparseable values count as already expired.
+    static long[] presignedWindow(String path) {
+        int q = path.indexOf('?');
+        if (q < 0) {
+            return null;
+        }
+        Map params = new HashMap();
+        String[] pairs = path.substring(q + 1).split("&");
+        int i;
+        for (i = 0; i < pairs.length; i++) {
+            int eq = pairs[i].indexOf('=');
+            try {
+                params.put(URLDecoder.decode(eq < 0 ? pairs[i] : pairs[i].substring(0, eq), "UTF-8"),
+                        eq < 0 ? "" : URLDecoder.decode(pairs[i].substring(eq + 1), "UTF-8"));
+            } catch (Exception ignore) {
+                // malformed escapes: leave the parameter out
+            }
+        }
+        String v4Date = (String) params.get("x-oss-date");
+        String expires = (String) params.get("x-oss-expires");
+        try {
+            if (v4Date != null) {
+                long signedAt = format("yyyyMMdd'T'HHmmss'Z'").parse(v4Date).getTime();
+                return new long[] { signedAt, signedAt + Long.parseLong(expires) * 1000L };
+            }
+            if (expires != null) {
+                return new long[] { Long.MIN_VALUE, Long.parseLong(expires) * 1000L };
+            }
+            if (params.containsKey("Expires") && params.containsKey("Signature")) {
+                return new long[] { Long.MIN_VALUE, Long.parseLong((String) params.get("Expires")) * 1000L };
+            }
+        } catch (Exception e) {
+            return new long[] { Long.MIN_VALUE, Long.MIN_VALUE };
+        }
+        return null;
+    }
+
+    // "expiration" of the base64 JSON policy field of a multipart form; Long.MIN_VALUE when missing or invalid.
+    static long policyExpiration(String contentType, byte[] body) {
+        int b = contentType == null ? -1 : contentType.indexOf("boundary=");
+        if (b < 0) {
+            return Long.MIN_VALUE;
+        }
+        String boundary = "--" + contentType.substring(b + "boundary=".length()).replace("\"", "").trim();
+        String[] parts;
+        try {
+            parts = new String(body, "ISO-8859-1").split(Pattern.quote(boundary));
+        } catch (IOException e) {
+            return Long.MIN_VALUE;
+        }
+        int i;
+        for (i = 0; i < parts.length; i++) {
+            int sep = parts[i].indexOf("\r\n\r\n");
+            if (sep < 0 || parts[i].substring(0, sep).indexOf("name=\"policy\"") < 0) {
+                continue;
+            }
+            try {
+                String json = new String(BinaryUtil.fromBase64String(parts[i].substring(sep + 4).trim()), "UTF-8");
+                int k = json.indexOf("\"expiration\"");
+                int open = json.indexOf('"', json.indexOf(':', k) + 1);
+                String v = json.substring(open + 1, json.indexOf('"', open + 1));
+                return format(v.indexOf('.') >= 0 ? "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" : "yyyy-MM-dd'T'HH:mm:ss'Z'")
+                        .parse(v).getTime();
+            } catch (Exception e) {
+                return Long.MIN_VALUE;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    private static boolean startsWithIgnoreCase(String s, String prefix) {
+        return s != null && s.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    private byte[] readBody(Map headers, InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        copyBody(headers, in, body);
+        return body.toByteArray();
+    }
+
+    private void discardBody(Map headers, InputStream in) throws IOException {
+        copyBody(headers, in, null);
+    }
+
+    // Reads a Content-Length or chunked body into sink, or skips it when sink is null.
+    private void copyBody(Map headers, InputStream in, OutputStream sink) throws IOException {
+        String te = (String) headers.get("transfer-encoding");
+        if (te != null && te.toLowerCase(Locale.ENGLISH).indexOf("chunked") >= 0) {
+            for (;;) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) {
+                    throw new IOException("truncated chunked body");
+                }
+                int semi = sizeLine.indexOf(';');
+                long size = Long.parseLong((semi >= 0 ? sizeLine.substring(0, semi) : sizeLine).trim(), 16);
+                if (size == 0L) {
+                    String trailer;
+                    while ((trailer = readLine(in)) != null && trailer.length() > 0) {
+                        // trailers are ignored
+                    }
+                    return;
+                }
+                skipFully(in, size, sink);
+                readLine(in);
+            }
+        }
+        String len = (String) headers.get("content-length");
+        if (len != null) {
+            skipFully(in, Long.parseLong(len.trim()), sink);
+        }
+    }
+
+    private void skipFully(InputStream in, long n, OutputStream sink) throws IOException {
+        long left = n;
+        if (sink != null) {
+            byte[] buf = new byte[8192];
+            while (left > 0L) {
+                int r = in.read(buf, 0, (int) Math.min(buf.length, left));
+                if (r < 0) {
+                    throw new IOException("truncated body");
+                }
+                sink.write(buf, 0, r);
+                left -= r;
+            }
+        }
+        while (left > 0L) {
+            long skipped = in.skip(left);
+            if (skipped <= 0L) {
+                if (in.read() < 0) {
+                    throw new IOException("truncated body");
+                }
+                skipped = 1L;
+            }
+            left -= skipped;
+        }
+        bytesReceived.addAndGet(n);
+    }
+
+    private static void writeZeros(OutputStream out, int n) throws IOException {
+        byte[] zeros = new byte[Math.min(n, 8192)];
+        int left = n;
+        while (left > 0) {
+            int c = Math.min(left, zeros.length);
+            out.write(zeros, 0, c);
+            left -= c;
+        }
+    }
+
+    // Reads an ISO-8859-1 line without the CRLF; null at end of stream.
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') {
+                    sb.setLength(len - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    static String rfc822(long millis) {
+        return format("EEE, dd MMM yyyy HH:mm:ss 'GMT'").format(new Date(millis));
+    }
+
+    static String iso8601(long millis) {
+        return format("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").format(new Date(millis));
+    }
+
+    private static SimpleDateFormat format(String pattern) {
+        SimpleDateFormat f = new SimpleDateFormat(pattern, Locale.US);
+        f.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return f;
+    }
+}
@@ -0,0 +1,134 @@
+package com.gamesofts.osstimeagent.load;
+
+import com.aliyun.oss.ClientBuilderConfiguration;
+import com.aliyun.oss.OSS;
+import com.aliyun.oss.OSSClientBuilder;
+import com.aliyun.oss.ServiceException;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PolicyConditions;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+public class FakeOssServerTest {
+    private static final long SKEW = 20L * 60L * 1000L;
+
+    @Test
+    public void testAcceptsSignedRequestsInsideTheDateWindow() throws Exception {
+        FakeOssServer server = new FakeOssServer(0);
+        server.start();
+        OSS client = client(server);
+        try {
+            put(client);
+            Assert.assertEquals(1L, server.getSignedRequests());
+            Assert.assertEquals(0L, server.getSkewRejections());
+            Assert.assertEquals(16L, server.getBytesReceived());
+        } finally {
+            client.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testRejectsSkewedRequestsAndServesSkewedDateToProbes() throws Exception {
+        FakeOssServer server = new FakeOssServer(0);
+        server.setSkewMillis(SKEW);
+        server.start();
+        OSS client = client(server);
+        try {
+            try {
+                put(client);
+                Assert.fail("expected RequestTimeTooSkewed");
+            } catch (ServiceException e) {
+                Assert.assertEquals("RequestTimeTooSkewed", e.getErrorCode());
+            }
+            Assert.assertEquals(1L, server.getSkewRejections());
+
+            HttpURLConnection conn = (HttpURLConnection) new URL(server.endpoint() + "/").openConnection();
+            conn.setRequestMethod("HEAD");
+            Assert.assertEquals(403, conn.getResponseCode());
+            long serverDate = conn.getHeaderFieldDate("Date", -1L);
+            Assert.assertTrue(Math.abs(serverDate - (System.currentTimeMillis() + SKEW)) < 5000L);
+            Assert.assertEquals(1L, server.getAnonymousRequests());
+        } finally {
+            client.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testParsesBothSignatureDateFormats() {
+        Map headers = new HashMap();
+        headers.put("date", "Thu, 01 Jan 2026 00:00:00 GMT");
+        Assert.assertEquals(1767225600000L, FakeOssServer.requestTime(headers));
+        headers.put("x-oss-date", "20260101T000001Z");
+        Assert.assertEquals(1767225601000L, FakeOssServer.requestTime(headers));
+        headers.put("x-oss-date", "garbage");
+        Assert.assertEquals(Long.MIN_VALUE, FakeOssServer.requestTime(headers));
+    }
+
+    @Test
+    public void testPresignedUrlsExpireByServerClock() throws Exception {
+        FakeOssServer server = new FakeOssServer(0);
+        server.start();
+        OSS client = client(server);
+        try {
+            URL url = client.generatePresignedUrl("load-bucket", "k", new Date(System.currentTimeMillis() + 3600000L));
+            Assert.assertEquals(200, FakeOssServer.fetch(url));
+            server.setSkewMillis(2L * 3600000L);
+            Assert.assertEquals(403, FakeOssServer.fetch(url));
+            Assert.assertEquals(2L, server.getPresignedRequests());
+            Assert.assertEquals(1L, server.getExpiredRejections());
+            Assert.assertEquals(0L, server.getSignedRequests());
+        } finally {
+            client.shutdown();
+            server.close();
+        }
+
+        long[] v4 = FakeOssServer.presignedWindow("/b/k?x-oss-signature-version=OSS4-HMAC-SHA256"
+                + "&x-oss-date=20260101T000000Z&x-oss-expires=3600&x-oss-signature=ab");
+        Assert.assertEquals(1767225600000L, v4[0]);
+        Assert.assertEquals(1767229200000L, v4[1]);
+        Assert.assertEquals(1767225600000L, FakeOssServer.presignedWindow("/k?OSSAccessKeyId=ak&Expires=1767225600"
+                + "&Signature=x%2By")[1]);
+        Assert.assertEquals(Long.MIN_VALUE, FakeOssServer.presignedWindow("/k?x-oss-expires=soon")[1]);
+        Assert.assertNull(FakeOssServer.presignedWindow("/k?acl"));
+    }
+
+    @Test
+    public void testPostPolicyExpiresByServerClock() throws Exception {
+        FakeOssServer server = new FakeOssServer(0);
+        server.start();
+        OSS client = client(server);
+        try {
+            String policy = client.generatePostPolicy(new Date(System.currentTimeMillis() + 3600000L),
+                    new PolicyConditions());
+            Assert.assertEquals(200, FakeOssServer.postPolicyForm(server.endpoint(), policy));
+            server.setSkewMillis(2L * 3600000L);
+            Assert.assertEquals(403, FakeOssServer.postPolicyForm(server.endpoint(), policy));
+            Assert.assertEquals(1L, server.getExpiredRejections());
+        } finally {
+            client.shutdown();
+            server.close();
+        }
+    }
+
+    private static OSS client(FakeOssServer server) {
+        ClientBuilderConfiguration conf = new ClientBuilderConfiguration();
+        conf.setCrcCheckEnabled(false);
+        conf.setMaxErrorRetry(0);
+        return new OSSClientBuilder().build(server.endpoint(), "ak", "sk", conf);
+    }
+
+    private static void put(OSS client) throws Exception {
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.setContentLength(16L);
+        client.putObject("load-bucket", "k", new ByteArrayInputStream(new byte[16]), meta);
+    }
+}
@@ -0,0 +1,376 @@
+package com.gamesofts.osstimeagent.load;
+
+import com.aliyun.oss.ClientBuilderConfiguration;
+import com.aliyun.oss.OSS;
+import com.aliyun.oss.OSSClientBuilder;
+import com.aliyun.oss.ServiceException;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.ObjectMetadata;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Load generator driving the real SDK against FakeOssServer, no credentials needed. Default mode=compare starts
+// the fake server and runs the same load in two child JVMs, without and with -javaagent, then prints
+// throughput, p50/p99/p999 latency, errors and SDK retries per operation side by side. mode=run is the child
+// (or a standalone run against endpoint=<url>). Arguments are key=value:
+//   threads=16 seconds=10 warmupSeconds=2 op=put|get|mixed size=4096
+//   skewMillis=0 latencyMillis=0 jitterMillis=0   (server side, when this process starts the server)
+//   agentJar=target/oss-time-agent-1.0.0.jar agentArgs=
+// Needs the test classpath, e.g.
+//   mvn -q dependency:build-classpath -Dmdep.outputFile=cp.txt
+//   java -cp target/test-classes:target/classes:$(cat cp.txt) com.gamesofts.osstimeagent.load.OssLoadMain \
+//       skewMillis=1200000 latencyMillis=5
+public class OssLoadMain {
+    private static final String BUCKET = "load-bucket";
+    private static final String RESULT_PREFIX = "RESULT ";
+
+    public static void main(String[] args) throws Exception {
+        Map cfg = parseArgs(args);
+        if ("run".equals(get(cfg, "mode", "compare"))) {
+            String endpoint = (String) cfg.get("endpoint");
+            FakeOssServer server = endpoint == null ? startServer(cfg) : null;
+            Result r = runLoad(cfg, endpoint == null ? server.endpoint() : endpoint);
+            System.out.println(r.describe());
+            System.out.println(RESULT_PREFIX + r.encode());
+            if (server != null) {
+                printServer(server.getSignedRequests(), server.getSkewRejections(), server.getAnonymousRequests());
+                server.close();
+            }
+            return;
+        }
+        compare(cfg);
+    }
+
+    private static void compare(Map cfg) throws Exception {
+        String agentJar = get(cfg, "agentJar", "target/oss-time-agent-1.0.0.jar");
+        if (!new File(agentJar).isFile()) {
+            throw new IllegalArgumentException("agent jar not found: " + agentJar + " (build it or pass agentJar=)");
+        }
+        String agentArgs = get(cfg, "agentArgs", "");
+        FakeOssServer server = startServer(cfg);
+        try {
+            System.out.println("fake OSS at " + server.endpoint() + ", skew=" + get(cfg, "skewMillis", "0")
+                    + "ms, latency=" + get(cfg, "latencyMillis", "0") + "+" + get(cfg, "jitterMillis", "0") + "ms");
+            String[] labels = new String[] { "without agent", "with agent" };
+            Result[] results = new Result[2];
+            long[][] serverCounts = new long[2][];
+            int i;
+            for (i = 0; i < 2; i++) {
+                long signed0 = server.getSignedRequests();
+                long skew0 = server.getSkewRejections();
+                long probes0 = server.getAnonymousRequests();
+                String javaAgent = i == 0 ? null
+                        : "-javaagent:" + agentJar + (agentArgs.length() == 0 ? "" : "=" + agentArgs);
+                results[i] = runChild(cfg, server.endpoint(), javaAgent, System.getProperty("java.class.path"));
+                serverCounts[i] = new long[] {
+                        server.getSignedRequests() - signed0,
+                        server.getSkewRejections() - skew0,
+                        server.getAnonymousRequests() - probes0
+                };
+            }
+            System.out.println();
+            System.out.println(pad("", 15) + pad("ops/s", 11) + pad("p50 ms", 9) + pad("p99 ms", 9)
+                    + pad("p999 ms", 9) + pad("errors", 9) + pad("skew 403", 10) + pad("retries/op", 12)
+                    + "probes");
+            for (i = 0; i < 2; i++) {
+                Result r = results[i];
+                long[] s = serverCounts[i];
+                double retriesPerOp = r.totalOps == 0L ? 0.0 : (double) (s[0] - r.totalOps) / r.totalOps;
+                System.out.println(pad(labels[i], 15) + pad(fmt(r.opsPerSecond()), 11) + pad(fmt(r.p50Millis), 9)
+                        + pad(fmt(r.p99Millis), 9) + pad(fmt(r.p999Millis), 9) + pad(String.valueOf(r.errors), 9)
+                        + pad(String.valueOf(s[1]), 10) + pad(fmt(Math.max(0.0, retriesPerOp)), 12) + s[2]);
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    static FakeOssServer startServer(Map cfg) throws Exception {
+        FakeOssServer server = new FakeOssServer(0);
+        server.setSkewMillis(Long.parseLong(get(cfg, "skewMillis", "0")));
+        server.setLatencyMillis(Long.parseLong(get(cfg, "latencyMillis", "0")),
+                Long.parseLong(get(cfg, "jitterMillis", "0")));
+        server.setObjectSize(Integer.parseInt(get(cfg, "size", "4096")));
+        server.start();
+        return server;
+    }
+
+    static Result runChild(Map cfg, String endpoint, String javaAgent, String classpath) throws Exception {
+        List cmd = new ArrayList();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        cmd.add("-Xmx512m");
+        if (javaAgent != null) {
+            cmd.add(javaAgent);
+        }
+        cmd.add("-cp");
+        cmd.add(classpath);
+        cmd.add(OssLoadMain.class.getName());
+        for (Iterator it = cfg.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e = (Map.Entry) it.next();
+            if (!"mode".equals(e.getKey()) && !"endpoint".equals(e.getKey())) {
+                cmd.add(e.getKey() + "=" + e.getValue());
+            }
+        }
+        cmd.add("mode=run");
+        cmd.add("endpoint=" + endpoint);
+        System.out.println();
+        System.out.println("== " + (javaAgent == null ? "without agent" : javaAgent));
+        Process p = new ProcessBuilder(cmd).start();
+        pump(p.getErrorStream());
+        BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream(), "UTF-8"));
+        Result result = null;
+        String line;
+        while ((line = out.readLine()) != null) {
+            if (line.startsWith(RESULT_PREFIX)) {
+                result = Result.decode(line.substring(RESULT_PREFIX.length()));
+            } else {
+                System.out.println(line);
+            }
+        }
+        int exit = p.waitFor();
+        if (result == null) {
+            throw new IllegalStateException("load run failed, exit code " + exit);
+        }
+        return result;
+    }
+
+    private static void pump(final InputStream in) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                byte[] buf = new byte[4096];
+                try {
+                    int n;
+                    while ((n = in.read(buf)) >= 0) {
+                        System.err.write(buf, 0, n);
+                    }
+                } catch (Exception ignore) {
+                }
+            }
+        }, "load-child-stderr");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    static Result runLoad(Map cfg, String endpoint) throws Exception {
+        // The SDK logs every failed request; at thousands per second that measures the logger, not the agent.
+        System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.NoOpLog");
+        final int threads = Integer.parseInt(get(cfg, "threads", "16"));
+        final long seconds = Long.parseLong(get(cfg, "seconds", "10"));
+        final long warmupSeconds = Long.parseLong(get(cfg, "warmupSeconds", "2"));
+        final String op = get(cfg, "op", "put");
+        final byte[] payload = new byte[Integer.parseInt(get(cfg, "size", "4096"))];
+
+        ClientBuilderConfiguration conf = new ClientBuilderConfiguration();
+        conf.setMaxConnections(threads * 2);
+        conf.setCrcCheckEnabled(false);
+        final OSS client = new OSSClientBuilder().build(endpoint, "fake-access-key-id", "fake-access-key-secret",
+                conf);
+        final long start = System.nanoTime();
+        final long measureFrom = start + warmupSeconds * 1000000000L;
+        final long deadline = measureFrom + seconds * 1000000000L;
+        final long[][] latencies = new long[threads][];
+        final int[] counts = new int[threads];
+        final AtomicLong totalOps = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final Map errorCodes = new TreeMap();
+        final CountDownLatch done = new CountDownLatch(threads);
+        int t;
+        for (t = 0; t < threads; t++) {
+            final int id = t;
+            latencies[id] = new long[1024];
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    long n = 0L;
+                    try {
+                        for (;;) {
+                            long t0 = System.nanoTime();
+                            if (t0 >= deadline) {
+                                break;
+                            }
+                            boolean put = "put".equals(op) || ("mixed".equals(op) && (n & 1L) == 0L);
+                            String key = "load/" + id + "/" + (n++ & 1023L);
+                            boolean ok = true;
+                            try {
+                                if (put) {
+                                    ObjectMetadata meta = new ObjectMetadata();
+                                    meta.setContentLength(payload.length);
+                                    client.putObject(BUCKET, key, new ByteArrayInputStream(payload), meta);
+                                } else {
+                                    drain(client.getObject(BUCKET, key));
+                                }
+                            } catch (Exception e) {
+                                ok = false;
+                                errors.incrementAndGet();
+                                countError(errorCodes, e);
+                            }
+                            long t1 = System.nanoTime();
+                            totalOps.incrementAndGet();
+                            if (ok && t0 >= measureFrom) {
+                                record(latencies, counts, id, t1 - t0);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + id);
+            worker.start();
+        }
+        done.await();
+        client.shutdown();
+
+        Result r = new Result();
+        long[] all = merge(latencies, counts);
+        Arrays.sort(all);
+        r.ops = all.length;
+        r.totalOps = totalOps.get();
+        r.errors = errors.get();
+        r.seconds = seconds;
+        r.p50Millis = percentileMillis(all, 0.50);
+        r.p99Millis = percentileMillis(all, 0.99);
+        r.p999Millis = percentileMillis(all, 0.999);
+        r.errorCodes = errorCodes.toString();
+        return r;
+    }
+
+    private static void drain(OSSObject obj) throws Exception {
+        try {
+            InputStream in = obj.getObjectContent();
+            byte[] buf = new byte[8192];
+            while (in.read(buf) >= 0) {
+                // discard
+            }
+        } finally {
+            obj.close();
+        }
+    }
+
+    private static void countError(Map codes, Exception e) {
+        String code = e instanceof ServiceException ? ((ServiceException) e).getErrorCode()
+                : e.getClass().getSimpleName();
+        synchronized (codes) {
+            Long c = (Long) codes.get(code);
+            codes.put(code, Long.valueOf(c == null ? 1L : c.longValue() + 1L));
+        }
+    }
+
+    private static void record(long[][] latencies, int[] counts, int id, long nanos) {
+        long[] a = latencies[id];
+        int n = counts[id];
+        if (n == a.length) {
+            a = Arrays.copyOf(a, n * 2);
+            latencies[id] = a;
+        }
+        a[n] = nanos;
+        counts[id] = n + 1;
+    }
+
+    private static long[] merge(long[][] latencies, int[] counts) {
+        int total = 0;
+        int i;
+        for (i = 0; i < counts.length; i++) {
+            total += counts[i];
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (i = 0; i < counts.length; i++) {
+            System.arraycopy(latencies[i], 0, all, pos, counts[i]);
+            pos += counts[i];
+        }
+        return all;
+    }
+
+    static double percentileMillis(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1000000.0;
+    }
+
+    private static void printServer(long signed, long skew, long probes) {
+        System.out.println("server: signed requests=" + signed + ", RequestTimeTooSkewed=" + skew
+                + ", unsigned (pre-sync probes)=" + probes);
+    }
+
+    static Map parseArgs(String[] args) {
+        Map cfg = new TreeMap();
+        int i;
+        for (i = 0; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("expected key=value: " + args[i]);
+            }
+            cfg.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        return cfg;
+    }
+
+    static String get(Map cfg, String key, String def) {
+        String v = (String) cfg.get(key);
+        return v == null ? def : v;
+    }
+
+    static String pad(String s, int width) {
+        StringBuilder sb = new StringBuilder(s);
+        while (sb.length() < width) {
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    static String fmt(double v) {
+        return String.format("%.2f", new Object[] { Double.valueOf(v) });
+    }
+
+    static final class Result {
+        long ops;
+        long totalOps;
+        long errors;
+        long seconds;
+        double p50Millis;
+        double p99Millis;
+        double p999Millis;
+        String errorCodes = "{}";
+
+        double opsPerSecond() {
+            return seconds == 0L ? 0.0 : (double) ops / seconds;
+        }
+
+        String describe() {
+            return "ops=" + ops + " (" + fmt(opsPerSecond()) + "/s), p50=" + fmt(p50Millis) + "ms, p99="
+                    + fmt(p99Millis) + "ms, p999=" + fmt(p999Millis) + "ms, errors=" + errors + " " + errorCodes
+                    + ", ops incl. warmup=" + totalOps;
+        }
+
+        String encode() {
+            return ops + " " + totalOps + " " + errors + " " + seconds + " " + p50Millis + " " + p99Millis + " "
+                    + p999Millis;
+        }
+
+        static Result decode(String s) {
+            String[] f = s.trim().split(" ");
+            Result r = new Result();
+            r.ops = Long.parseLong(f[0]);
+            r.totalOps = Long.parseLong(f[1]);
+            r.errors = Long.parseLong(f[2]);
+            r.seconds = Long.parseLong(f[3]);
+            r.p50Millis = Double.parseDouble(f[4]);
+            r.p99Millis = Double.parseDouble(f[5]);
+            r.p999Millis = Double.parseDouble(f[6]);
+            return r;
+        }
+    }
+}
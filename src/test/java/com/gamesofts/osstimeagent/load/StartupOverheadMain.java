@@ -0,0 +1,163 @@
+package com.gamesofts.osstimeagent.load;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Startup cost of the agent, measured in fresh child JVMs. Each row is run `runs` times and reports medians of:
+// JVM start to main(), the agent's own premain time (from its log line), and the first OSS client build after
+// appInitMillis of simulated application start-up (the first load of the patched SDK classes). Rows cover the
+// test classpath with and without the OSS SDK, each without the agent, with prewarm=false (patching happens in
+// the first class load, the behaviour before prewarm) and with prewarm on. Arguments are key=value:
+//   agentJar=target/oss-time-agent-1.0.0.jar runs=7 appInitMillis=300 agentArgs=
+// Needs the test classpath without target/classes, which would shadow the agent jar's classes, e.g.
+//   java -cp target/test-classes:$(cat cp.txt) com.gamesofts.osstimeagent.load.StartupOverheadMain
+public class StartupOverheadMain {
+    private static final String RESULT_PREFIX = "RESULT ";
+    private static final String SDK_CLASS = "com.aliyun.oss.common.comm.ServiceClient";
+
+    public static void main(String[] args) throws Exception {
+        Map cfg = OssLoadMain.parseArgs(args);
+        if ("run".equals(OssLoadMain.get(cfg, "mode", "compare"))) {
+            runChild(Long.parseLong(OssLoadMain.get(cfg, "appInitMillis", "300")));
+            return;
+        }
+        compare(cfg);
+    }
+
+    private static void compare(Map cfg) throws Exception {
+        String agentJar = OssLoadMain.get(cfg, "agentJar", "target/oss-time-agent-1.0.0.jar");
+        if (!new File(agentJar).isFile()) {
+            throw new IllegalArgumentException("agent jar not found: " + agentJar + " (build it or pass agentJar=)");
+        }
+        String agentArgs = OssLoadMain.get(cfg, "agentArgs", "");
+        int runs = Integer.parseInt(OssLoadMain.get(cfg, "runs", "7"));
+        String appInit = OssLoadMain.get(cfg, "appInitMillis", "300");
+        String withSdk = System.getProperty("java.class.path");
+        String withoutSdk = withoutOssSdk(withSdk);
+        String agent = "-javaagent:" + agentJar + "=" + (agentArgs.length() == 0 ? "" : agentArgs + ",");
+
+        String[] labels = new String[] {
+                "SDK, no agent", "SDK, prewarm=false", "SDK, prewarm=true",
+                "no SDK, no agent", "no SDK, agent"
+        };
+        String[] classpaths = new String[] { withSdk, withSdk, withSdk, withoutSdk, withoutSdk };
+        String[] agents = new String[] {
+                null, agent + "prewarm=false", agent + "prewarm=true", null, agent + "prewarm=true"
+        };
+        System.out.println("java=" + System.getProperty("java.version") + " runs=" + runs + " appInitMillis="
+                + appInit + " (medians)");
+        System.out.println(OssLoadMain.pad("", 20) + OssLoadMain.pad("to main ms", 12)
+                + OssLoadMain.pad("premain us", 12) + OssLoadMain.pad("first client ms", 17) + "total ms");
+        int i;
+        for (i = 0; i < labels.length; i++) {
+            long[][] samples = new long[4][runs];
+            int r;
+            for (r = 0; r < runs; r++) {
+                long[] one = launch(classpaths[i], agents[i], appInit);
+                int k;
+                for (k = 0; k < 4; k++) {
+                    samples[k][r] = one[k];
+                }
+            }
+            // Agents older than the premain timing log line, or that never saw the SDK, report -1.
+            String premain = agents[i] == null || median(samples[1]) < 0L ? "-" : String.valueOf(median(samples[1]));
+            String firstClient = classpaths[i] == withoutSdk ? "-" : OssLoadMain.fmt(median(samples[2]) / 1000.0);
+            System.out.println(OssLoadMain.pad(labels[i], 20) + OssLoadMain.pad(String.valueOf(median(samples[0])), 12)
+                    + OssLoadMain.pad(premain, 12) + OssLoadMain.pad(firstClient, 17) + median(samples[3]));
+        }
+    }
+
+    // Prints "RESULT toMainMillis firstClientMicros totalMillis"; premain time comes from the agent's stderr.
+    private static void runChild(long appInitMillis) throws Exception {
+        long start = ManagementFactory.getRuntimeMXBean().getStartTime();
+        long toMain = System.currentTimeMillis() - start;
+        Thread.sleep(appInitMillis);
+        long firstClientMicros = -1L;
+        if (StartupOverheadMain.class.getClassLoader().getResource(SDK_CLASS.replace('.', '/') + ".class") != null) {
+            long t0 = System.nanoTime();
+            buildClient();
+            firstClientMicros = (System.nanoTime() - t0) / 1000L;
+        }
+        long total = System.currentTimeMillis() - start - appInitMillis;
+        System.out.println(RESULT_PREFIX + toMain + " " + firstClientMicros + " " + total);
+    }
+
+    // Reflective, so this class also runs on a classpath without the SDK.
+    private static void buildClient() throws Exception {
+        Class builder = Class.forName("com.aliyun.oss.OSSClientBuilder");
+        Object b = builder.getMethod("create", new Class[0]).invoke(null, new Object[0]);
+        b = b.getClass().getMethod("endpoint", new Class[] { String.class }).invoke(b,
+                new Object[] { "http://127.0.0.1:1" });
+        Class provider = Class.forName("com.aliyun.oss.common.auth.CredentialsProvider");
+        Object credentials = Class.forName("com.aliyun.oss.common.auth.DefaultCredentialProvider")
+                .getConstructor(new Class[] { String.class, String.class }).newInstance(new Object[] { "ak", "sk" });
+        b = b.getClass().getMethod("credentialsProvider", new Class[] { provider }).invoke(b,
+                new Object[] { credentials });
+        Object client = b.getClass().getMethod("build", new Class[0]).invoke(b, new Object[0]);
+        Method shutdown = client.getClass().getMethod("shutdown", new Class[0]);
+        shutdown.invoke(client, new Object[0]);
+    }
+
+    // Returns { toMainMillis, premainMicros, firstClientMicros, totalMillis }.
+    private static long[] launch(String classpath, String javaAgent, String appInit) throws Exception {
+        List cmd = new ArrayList();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (javaAgent != null) {
+            cmd.add(javaAgent);
+        }
+        cmd.add("-cp");
+        cmd.add(classpath);
+        cmd.add(StartupOverheadMain.class.getName());
+        cmd.add("mode=run");
+        cmd.add("appInitMillis=" + appInit);
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream(), "UTF-8"));
+        long[] result = new long[] { -1L, -1L, -1L, -1L };
+        String line;
+        while ((line = out.readLine()) != null) {
+            int at = line.indexOf("premain=");
+            if (at >= 0) {
+                int end = line.indexOf("us", at);
+                result[1] = Long.parseLong(line.substring(at + "premain=".length(), end));
+            } else if (line.startsWith(RESULT_PREFIX)) {
+                String[] f = line.substring(RESULT_PREFIX.length()).split(" ");
+                result[0] = Long.parseLong(f[0]);
+                result[2] = Long.parseLong(f[1]);
+                result[3] = Long.parseLong(f[2]);
+            }
+        }
+        if (p.waitFor() != 0 || result[0] < 0L) {
+            throw new IllegalStateException("child failed: " + cmd);
+        }
+        return result;
+    }
+
+    private static String withoutOssSdk(String classpath) {
+        String[] entries = classpath.split(File.pathSeparator);
+        StringBuilder sb = new StringBuilder();
+        int i;
+        for (i = 0; i < entries.length; i++) {
+            if (entries[i].indexOf("aliyun-sdk-oss") >= 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparatorChar);
+            }
+            sb.append(entries[i]);
+        }
+        return sb.toString();
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
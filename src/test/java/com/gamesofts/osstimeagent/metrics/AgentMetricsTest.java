@@ -0,0 +1,86 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class AgentMetricsTest {
+    @Before
+    public void setUp() {
+        AgentMetrics.resetForTest();
+    }
+
+    @Test
+    public void testStripedCounterSumsConcurrentIncrements() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final CountDownLatch done = new CountDownLatch(8);
+        int i;
+        for (i = 0; i < 8; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    int k;
+                    for (k = 0; k < 10000; k++) {
+                        counter.increment();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        Assert.assertEquals(80000L, counter.sum());
+    }
+
+    @Test
+    public void testLastSyncIsTheLatestSample() {
+        Assert.assertNull(AgentMetrics.getLastSync());
+
+        long t0 = 1700000000000L;
+        AgentMetrics.recordSyncSuccess(new SyncSample("https://a", "HEAD", t0, t0 + 100L, 20L));
+        AgentMetrics.recordSyncSuccess(new SyncSample("https://a", "GET", t0 + 1000000L, t0 + 1000300L, 40L));
+
+        Assert.assertEquals(2L, AgentMetrics.getSyncSuccessCount());
+        Assert.assertEquals("GET", AgentMetrics.getLastSync().getMethod());
+        Assert.assertEquals(1020L, AgentMetrics.getLastSync().getUncertaintyMillis());
+    }
+
+    @Test
+    public void testResetClearsEveryCounter() {
+        AgentMetrics.recordSyncSuccess(new SyncSample("https://a", "HEAD", 1L, 2L, 3L));
+        AgentMetrics.recordSyncFailure("timeout");
+        AgentMetrics.recordSkewRetry();
+        AgentMetrics.recordResign();
+        AgentMetrics.recordUploadGuardSync();
+        AgentMetrics.recordExpectContinue();
+        AgentMetrics.recordReplayBufferStream();
+        AgentMetrics.recordReplayBufferReset();
+        AgentMetrics.recordReplayBufferOverflow();
+        AgentMetrics.recordProbeTimeout();
+
+        AgentMetrics.resetForTest();
+
+        Assert.assertEquals(0L, AgentMetrics.getSyncSuccessCount());
+        Assert.assertEquals(0L, AgentMetrics.getSyncFailureCount());
+        Assert.assertEquals(0L, AgentMetrics.getSkewRetryCount());
+        Assert.assertEquals(0L, AgentMetrics.getResignCount());
+        Assert.assertEquals(0L, AgentMetrics.getUploadGuardSyncCount());
+        Assert.assertEquals(0L, AgentMetrics.getExpectContinueCount());
+        Assert.assertEquals(0L, AgentMetrics.getReplayBufferStreamCount());
+        Assert.assertEquals(0L, AgentMetrics.getReplayBufferResetCount());
+        Assert.assertEquals(0L, AgentMetrics.getReplayBufferOverflowCount());
+        Assert.assertEquals(0L, AgentMetrics.getProbeTimeoutCount());
+        Assert.assertNull(AgentMetrics.getLastSync());
+        Assert.assertNull(AgentMetrics.getLastFailureReason());
+    }
+
+    @Test
+    public void testPatchOutcomesAreSortedByClass() {
+        AgentMetrics.recordPatchOutcome("b.B", "unmodified");
+        AgentMetrics.recordPatchOutcome("a.A", "modified, tickOffset");
+
+        Assert.assertEquals("a.A: modified, tickOffset", AgentMetrics.getPatchOutcomes().get(0));
+        Assert.assertEquals("b.B: unmodified", AgentMetrics.getPatchOutcomes().get(1));
+    }
+}
@@ -0,0 +1,99 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketBoundsAreTightAndMonotonic() {
+        long prev = -1L;
+        int i;
+        for (i = 0; i < LatencyHistogram.bucketCount(); i++) {
+            long ub = LatencyHistogram.upperBound(i);
+            Assert.assertTrue(ub > prev);
+            Assert.assertEquals(i, LatencyHistogram.indexOf(ub));
+            Assert.assertEquals(i, LatencyHistogram.indexOf(prev + 1L));
+            Assert.assertTrue((ub - (prev + 1L)) <= Math.max(1L, (prev + 1L) / 16L));
+            prev = ub;
+        }
+        Assert.assertEquals(LatencyHistogram.bucketCount() - 1, LatencyHistogram.indexOf(Long.MAX_VALUE));
+        Assert.assertEquals(0, LatencyHistogram.indexOf(-5L));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram("t");
+        long v;
+        for (v = 1L; v <= 1000L; v++) {
+            h.record(v * 1000L);
+        }
+
+        Assert.assertEquals(1000L, h.getCount());
+        assertClose(500000L, h.valueAtPercentile(50.0d));
+        assertClose(990000L, h.valueAtPercentile(99.0d));
+        assertClose(1000000L, h.getMax());
+        Assert.assertEquals(0L, new LatencyHistogram("empty").valueAtPercentile(99.0d));
+    }
+
+    @Test
+    public void testConcurrentRecordingLosesNothing() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram("t");
+        final CountDownLatch done = new CountDownLatch(4);
+        int i;
+        for (i = 0; i < 4; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    int k;
+                    for (k = 0; k < 25000; k++) {
+                        h.record(k);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        Assert.assertEquals(100000L, h.getCount());
+    }
+
+    @Test
+    public void testReadsMergeEveryThreadsStripeAndResetClearsThem() throws Exception {
+        final LatencyHistogram h = new LatencyHistogram("t");
+        Thread[] threads = new Thread[8];
+        int i;
+        for (i = 0; i < threads.length; i++) {
+            final long value = (i + 1) * 1000000L;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    int k;
+                    for (k = 0; k < 100; k++) {
+                        h.record(value);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+
+        Assert.assertEquals(800L, h.getCount());
+        assertClose(8000000L, h.getMax());
+        assertClose(4000000L, h.valueAtPercentile(50.0d));
+        long[] counts = h.snapshot();
+        Assert.assertEquals(100L, counts[LatencyHistogram.indexOf(1000000L)]);
+
+        h.reset();
+        Assert.assertEquals(0L, h.getCount());
+        Assert.assertEquals(0L, h.getMax());
+        h.record(5L);
+        Assert.assertEquals(1L, h.getCount());
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assert.assertTrue("expected ~" + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 16L);
+    }
+}
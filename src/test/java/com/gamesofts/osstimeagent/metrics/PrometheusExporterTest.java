@@ -0,0 +1,49 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrometheusExporterTest {
+    @Before
+    public void setUp() {
+        AgentMetrics.resetForTest();
+        RequestMetrics.resetForTest();
+    }
+
+    @Test
+    public void testRendersGaugesCountersAndCumulativeHistogram() {
+        AgentMetrics.recordSyncSuccess(new SyncSample("https://oss", "HEAD", 1700000000000L, 1700000000250L, 40L));
+        AgentMetrics.recordSyncFailure("timeout");
+        RequestMetrics.recordRequest("PUT PutObject", 2000000L, null, 0, 100L, 0L);
+        RequestMetrics.recordRequest("PUT PutObject", 200000000L, "RequestTimeTooSkewed", 1, 100L, 0L);
+
+        ExpositionBuffer out = new ExpositionBuffer(64);
+        new PrometheusExporter().render(out, 250L);
+        String text = out.toString();
+
+        Assert.assertTrue(text.contains("oss_time_agent_clock_offset_milliseconds 250\n"));
+        Assert.assertTrue(text.contains("oss_time_agent_clock_uncertainty_milliseconds 1020\n"));
+        Assert.assertTrue(text.contains("oss_time_agent_last_sync_timestamp_seconds 1700000000.250\n"));
+        Assert.assertTrue(text.contains("oss_time_agent_syncs_total{result=\"failure\"} 1\n"));
+        Assert.assertTrue(text.contains("# TYPE oss_time_agent_request_duration_seconds histogram\n"));
+        Assert.assertTrue(text.contains(
+                "oss_time_agent_request_duration_seconds_bucket{operation=\"PUT PutObject\",le=\"0.001\"} 0\n"));
+        Assert.assertTrue(text.contains(
+                "oss_time_agent_request_duration_seconds_bucket{operation=\"PUT PutObject\",le=\"0.005\"} 1\n"));
+        Assert.assertTrue(text.contains(
+                "oss_time_agent_request_duration_seconds_bucket{operation=\"PUT PutObject\",le=\"+Inf\"} 2\n"));
+        Assert.assertTrue(text.contains("oss_time_agent_request_duration_seconds_count{operation=\"PUT PutObject\"} 2\n"));
+        Assert.assertTrue(text.contains("oss_time_agent_request_sent_bytes_total{operation=\"PUT PutObject\"} 200\n"));
+        Assert.assertTrue(text.contains("oss_time_agent_request_errors_total{code=\"RequestTimeTooSkewed\"} 1\n"));
+    }
+
+    @Test
+    public void testBufferFormatsNumbersAndEscapesLabels() {
+        ExpositionBuffer out = new ExpositionBuffer(4);
+        out.append(-1234L).append(' ').appendScaled(1500000L, 9).append(' ').append(Double.NaN).append(' ')
+                .append(-0.5d).append(' ').appendLabelValue("a\"b\\c\ndé");
+
+        Assert.assertEquals("-1234 0.001500000 NaN -0.500 a\\\"b\\\\c\\ndé", out.toString());
+    }
+}
@@ -0,0 +1,59 @@
+package com.gamesofts.osstimeagent.metrics;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class RequestMetricsTest {
+    @Before
+    public void setUp() {
+        RequestMetrics.resetForTest();
+        RequestMetrics.slowRequests().setThresholdMillis(3000L);
+    }
+
+    @Test
+    public void testOperationKeysAreCappedIntoOverflow() {
+        int i;
+        for (i = 0; i < RequestMetrics.MAX_OPERATIONS + 10; i++) {
+            RequestMetrics.recordRequest("GET op" + i, 1000L, null, 0, 0L, 10L);
+        }
+
+        Assert.assertEquals(RequestMetrics.MAX_OPERATIONS + 1, RequestMetrics.getOperations().size());
+        OperationStats overflow = RequestMetrics.getOperation(RequestMetrics.OVERFLOW_KEY);
+        Assert.assertNotNull(overflow);
+        Assert.assertEquals(10L, overflow.getRequestCount());
+        Assert.assertEquals(100L, overflow.getBytesReceived());
+    }
+
+    @Test
+    public void testSlowRequestsKeepNewestFirst() {
+        RequestMetrics.slowRequests().setThresholdMillis(5L);
+
+        RequestMetrics.recordRequest("PUT PutObject", 1000000L, null, 0, 0L, 0L);
+        RequestMetrics.recordRequest("PUT PutObject", 6000000L, null, 1, 0L, 0L);
+        RequestMetrics.recordRequest("GET GetObject", 9000000L, "NoSuchKey", 0, 0L, 0L);
+
+        List samples = RequestMetrics.slowRequests().getSamples();
+        Assert.assertEquals(2, samples.size());
+        SlowRequestSampler.Sample newest = (SlowRequestSampler.Sample) samples.get(0);
+        Assert.assertEquals("GET GetObject", newest.getOperation());
+        Assert.assertEquals("NoSuchKey", newest.getOutcome());
+        Assert.assertEquals(1, ((SlowRequestSampler.Sample) samples.get(1)).getRetries());
+    }
+
+    @Test
+    public void testSlowRequestRingOverwritesOldest() {
+        SlowRequestSampler sampler = new SlowRequestSampler(4, 1L);
+        int i;
+        for (i = 0; i < 10; i++) {
+            sampler.offer("op" + i, 2000000L, 0, "ok");
+        }
+
+        List samples = sampler.getSamples();
+        Assert.assertEquals(4, samples.size());
+        Assert.assertEquals("op9", ((SlowRequestSampler.Sample) samples.get(0)).getOperation());
+        Assert.assertEquals("op6", ((SlowRequestSampler.Sample) samples.get(3)).getOperation());
+    }
+}
@@ -0,0 +1,269 @@
+package com.gamesofts.osstimeagent.time;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.Random;
+
+// Replays clock scenarios in virtual time against the real RealTimeClock and OssEndpointTimeSync. The agent is
+// modelled as it behaves in OssTimeBridge: one pre-sync before the first request, every later signature (and
+// the forced skew retry) taken from the agent clock. The baseline is the unpatched SDK signing with the host
+// wall clock plus its tickOffset. A request is rejected when its signature time is more than MAX_SKEW_MILLIS
+// from the clock of the OSS frontend it reaches. Each request, retry and probe lands on a frontend picked by a
+// seeded random, so several offsets make a flapping server Date and runs stay reproducible. Weeks of traffic replay in well under a second. Run main for a report of all scenarios.
+final class ClockSimulation {
+    static final long MAX_SKEW_MILLIS = 15L * 60L * 1000L;
+    private static final long MINUTE = 60L * 1000L;
+    private static final long HOUR = 60L * MINUTE;
+    private static final long DAY = 24L * HOUR;
+
+    final SimulatedTime time = new SimulatedTime(1767225600000L);
+    private final RealTimeClock clock = new RealTimeClock(time);
+    private final OssEndpointTimeSync sync = new OssEndpointTimeSync(time);
+    private long[] frontendOffsets = new long[] { 0L };
+    private final Random frontendPicker = new Random(42L);
+    private long rttMillis = 40L;
+    private boolean sdkAutoCorrect;
+    private long sdkTickOffset;
+    private boolean synced;
+    final Report report = new Report();
+
+    ClockSimulation() {
+        OssEndpointTimeSync.installConnectionOpenerForTest(new OssEndpointTimeSync.ConnectionOpener() {
+            public HttpURLConnection open(URL url) {
+                return new ProbeConnection(url);
+            }
+        });
+    }
+
+    void close() {
+        OssEndpointTimeSync.resetConnectionOpenerForTest();
+    }
+
+    ClockSimulation frontendOffsets(long[] offsets) {
+        this.frontendOffsets = offsets;
+        return this;
+    }
+
+    ClockSimulation rttMillis(long rtt) {
+        this.rttMillis = rtt;
+        return this;
+    }
+
+    // ClientConfiguration.setEnableAutoCorrectClockSkew: the SDK adopts ServerTime from a rejection, but does
+    // not retry the rejected request.
+    ClockSimulation sdkAutoCorrect(boolean enabled) {
+        this.sdkAutoCorrect = enabled;
+        return this;
+    }
+
+    // Issues one request every intervalMillis for durationMillis of virtual time.
+    void run(long durationMillis, long intervalMillis) throws IOException {
+        long end = time.trueMillis() + durationMillis;
+        while (time.trueMillis() < end) {
+            request();
+            time.advance(intervalMillis);
+        }
+    }
+
+    void request() throws IOException {
+        if (!synced) {
+            synced = sync.sync(URI.create("https://oss-cn-hangzhou.aliyuncs.com/"), clock).isSuccess();
+            report.syncs++;
+        }
+        report.requests++;
+
+        long frontend = pickFrontend();
+        long agentSigned = synced ? clock.currentTimeMillis() : time.currentTimeMillis() + sdkTickOffset;
+        long agentError = agentSigned - arrivalMillis(frontend);
+        report.agentErrors.add(agentError);
+        boolean agentRejected = Math.abs(agentError) > MAX_SKEW_MILLIS;
+
+        long baselineError = time.currentTimeMillis() + sdkTickOffset - arrivalMillis(frontend);
+        report.baselineErrors.add(baselineError);
+        if (Math.abs(baselineError) > MAX_SKEW_MILLIS) {
+            report.baselineRejections++;
+            if (sdkAutoCorrect) {
+                sdkTickOffset = arrivalMillis(frontend) - time.currentTimeMillis();
+            }
+        }
+
+        if (agentRejected) {
+            report.agentRejections++;
+            // shouldForceSkewRetry + resignForRetry: one more attempt, re-signed from the agent clock.
+            time.advance(rttMillis);
+            if (Math.abs(clock.currentTimeMillis() - arrivalMillis(pickFrontend())) > MAX_SKEW_MILLIS) {
+                report.agentFailures++;
+            }
+        }
+    }
+
+    private long pickFrontend() {
+        return frontendOffsets[frontendOffsets.length == 1 ? 0 : frontendPicker.nextInt(frontendOffsets.length)];
+    }
+
+    // The frontend's clock when a request sent now arrives, half an RTT later.
+    private long arrivalMillis(long frontendOffset) {
+        return time.trueMillis() + frontendOffset + rttMillis / 2L;
+    }
+
+    // Answers the pre-sync HEAD/GET from a frontend, spending the RTT in virtual time. The Date header only has
+    // second resolution, exactly like the real one.
+    private final class ProbeConnection extends HttpURLConnection {
+        private long serverMillis;
+
+        ProbeConnection(URL url) {
+            super(url);
+        }
+
+        public void connect() {
+            if (connected) {
+                return;
+            }
+            time.advance(rttMillis / 2L);
+            serverMillis = time.trueMillis() + pickFrontend();
+            time.advance(rttMillis - rttMillis / 2L);
+            connected = true;
+        }
+
+        public int getResponseCode() {
+            connect();
+            return 403;
+        }
+
+        public long getHeaderFieldDate(String name, long defaultValue) {
+            return "Date".equalsIgnoreCase(name) ? serverMillis / 1000L * 1000L : defaultValue;
+        }
+
+        public void disconnect() {
+        }
+
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+
+    static final class Report {
+        long requests;
+        long syncs;
+        long agentRejections;
+        long agentFailures;
+        long baselineRejections;
+        final ErrorStats agentErrors = new ErrorStats();
+        final ErrorStats baselineErrors = new ErrorStats();
+
+        public String toString() {
+            return "requests=" + requests + ", syncs=" + syncs
+                    + "\n  agent:    error " + agentErrors + ", rejected=" + agentRejections
+                    + ", failed after retry=" + agentFailures
+                    + "\n  baseline: error " + baselineErrors + ", rejected=" + baselineRejections
+                    + "\n  retries avoided=" + retriesAvoided();
+        }
+
+        // Net: rejections the baseline took that the agent did not, minus the reverse. Negative when the agent
+        // makes things worse.
+        long retriesAvoided() {
+            return baselineRejections - agentRejections;
+        }
+    }
+
+    static final class ErrorStats {
+        long count;
+        long maxAbs;
+        long last;
+        double sumAbs;
+
+        void add(long errorMillis) {
+            long abs = Math.abs(errorMillis);
+            count++;
+            sumAbs += abs;
+            last = errorMillis;
+            if (abs > maxAbs) {
+                maxAbs = abs;
+            }
+        }
+
+        double meanAbs() {
+            return count == 0L ? 0.0 : sumAbs / count;
+        }
+
+        public String toString() {
+            return "max|e|=" + maxAbs + "ms mean|e|=" + Math.round(meanAbs()) + "ms last=" + last + "ms";
+        }
+    }
+
+    // Scenarios, shared by ClockSimulationTest and main.
+
+    // The host wall clock is stepped back 30 minutes ten minutes into an hour of traffic.
+    static Report wallClockStep() throws IOException {
+        ClockSimulation sim = new ClockSimulation();
+        try {
+            sim.run(10L * MINUTE, 10000L);
+            sim.time.stepWall(-30L * MINUTE);
+            sim.run(50L * MINUTE, 10000L);
+            return sim.report;
+        } finally {
+            sim.close();
+        }
+    }
+
+    // A host without NTP whose oscillator runs 200 ppm fast, four weeks of a request every 5 minutes.
+    static Report drift(double ppm, long days) throws IOException {
+        ClockSimulation sim = new ClockSimulation();
+        try {
+            sim.time.setDriftPpm(ppm);
+            sim.run(days * DAY, 5L * MINUTE);
+            return sim.report;
+        } finally {
+            sim.close();
+        }
+    }
+
+    // The VM is paused for 20 minutes after an hour; afterwards the clocks behave as the flags say.
+    static Report vmSuspend(boolean wallCatchesUp, boolean monotonicCatchesUp) throws IOException {
+        ClockSimulation sim = new ClockSimulation();
+        try {
+            sim.run(HOUR, 10000L);
+            sim.time.suspend(20L * MINUTE, wallCatchesUp, monotonicCatchesUp);
+            sim.run(HOUR, 10000L);
+            return sim.report;
+        } finally {
+            sim.close();
+        }
+    }
+
+    // Every frontend's clock is offsetMillis off; the host clock is right.
+    static Report skewedServer(long offsetMillis) throws IOException {
+        return flappingServer(new long[] { offsetMillis });
+    }
+
+    // Frontends behind the load balancer disagree; requests and probes alternate between them.
+    static Report flappingServer(long[] frontendOffsets) throws IOException {
+        ClockSimulation sim = new ClockSimulation().frontendOffsets(frontendOffsets);
+        try {
+            sim.run(6L * HOUR, 10000L);
+            return sim.report;
+        } finally {
+            sim.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        long t0 = System.nanoTime();
+        print("wall clock stepped back 30 min", wallClockStep());
+        print("200 ppm drift, 4 weeks", drift(200.0, 28L));
+        print("200 ppm drift, 8 weeks", drift(200.0, 56L));
+        print("VM pause 20 min, both clocks catch up", vmSuspend(true, true));
+        print("VM pause 20 min, wall catches up, monotonic does not", vmSuspend(true, false));
+        print("VM pause 20 min, neither catches up", vmSuspend(false, false));
+        print("server Date 40 min ahead", skewedServer(40L * MINUTE));
+        print("frontends flapping +-3 s", flappingServer(new long[] { -3000L, 3000L }));
+        print("frontends flapping 0 / +20 min", flappingServer(new long[] { 0L, 20L * MINUTE }));
+        System.out.println("simulated in " + (System.nanoTime() - t0) / 1000000L + " ms");
+    }
+
+    private static void print(String name, Report r) {
+        System.out.println("== " + name + "\n" + r);
+    }
+}
@@ -0,0 +1,66 @@
+package com.gamesofts.osstimeagent.time;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClockSimulationTest {
+    // Date header resolution plus the simulated RTT.
+    private static final long SYNC_ERROR_BOUND = 1100L;
+
+    @Test
+    public void testSimulatedTimeDriftsAndStepsOnlyTheHostClocks() {
+        SimulatedTime t = new SimulatedTime(1767225600000L);
+        long nano0 = t.nanoTime();
+        t.setDriftPpm(200.0);
+        t.advance(1000000L);
+        Assert.assertEquals(1767225600000L + 1000000L, t.trueMillis());
+        Assert.assertEquals(1000200L, (t.nanoTime() - nano0) / 1000000L);
+        t.stepWall(-5000L);
+        Assert.assertEquals(1767225600000L + 1000200L - 5000L, t.currentTimeMillis());
+        t.suspend(60000L, true, false);
+        Assert.assertEquals(1000200L, (t.nanoTime() - nano0) / 1000000L);
+        Assert.assertEquals(1767225600000L + 1000200L + 55000L, t.currentTimeMillis());
+    }
+
+    @Test
+    public void testWallClockStepDoesNotReachAgentSignatures() throws Exception {
+        ClockSimulation.Report r = ClockSimulation.wallClockStep();
+        Assert.assertEquals(1L, r.syncs);
+        Assert.assertEquals(0L, r.agentRejections);
+        Assert.assertTrue(r.agentErrors.maxAbs <= SYNC_ERROR_BOUND);
+        Assert.assertEquals(300L, r.baselineRejections);
+        Assert.assertEquals(300L, r.retriesAvoided());
+    }
+
+    @Test
+    public void testSkewedServerIsCorrectedByPreSync() throws Exception {
+        ClockSimulation.Report r = ClockSimulation.skewedServer(40L * 60L * 1000L);
+        Assert.assertEquals(0L, r.agentRejections);
+        Assert.assertTrue(r.agentErrors.maxAbs <= SYNC_ERROR_BOUND);
+        Assert.assertEquals(r.requests, r.baselineRejections);
+    }
+
+    @Test
+    public void testDriftAccumulatesFromTheSyncPoint() throws Exception {
+        ClockSimulation.Report r = ClockSimulation.drift(200.0, 28L);
+        // 200 ppm over 28 days is 483.84 s; the agent clock runs on the same oscillator as the host.
+        long expected = 483840L;
+        Assert.assertTrue(String.valueOf(r.agentErrors.last), Math.abs(r.agentErrors.last - expected) <= 2000L);
+        Assert.assertEquals(0L, r.agentRejections);
+        Assert.assertEquals(0L, r.baselineRejections);
+    }
+
+    @Test
+    public void testVmPauseWithClocksCatchingUpKeepsSignaturesValid() throws Exception {
+        ClockSimulation.Report r = ClockSimulation.vmSuspend(true, true);
+        Assert.assertEquals(0L, r.agentRejections);
+        Assert.assertTrue(r.agentErrors.maxAbs <= SYNC_ERROR_BOUND);
+    }
+
+    @Test
+    public void testSmallFlappingStaysWithinFrontendDisagreement() throws Exception {
+        ClockSimulation.Report r = ClockSimulation.flappingServer(new long[] { -3000L, 3000L });
+        Assert.assertEquals(0L, r.agentRejections);
+        Assert.assertTrue(r.agentErrors.maxAbs <= 6000L + SYNC_ERROR_BOUND);
+    }
+}
@@ -110,6 +110,43 @@ public class OssEndpointTimeSyncTest {
         }
     }
 
+    @Test
+    public void testLearnedTimeoutsFailADeadProbeFast() throws Exception {
+        final long serverTime = System.currentTimeMillis() + 3000L;
+        Responder ok = new Responder() {
+            public void respond(String method, OutputStream out) throws Exception {
+                writeResponse(out, 404, httpDate(serverTime));
+            }
+        };
+        Responder hang = new Responder() {
+            public void respond(String method, OutputStream out) throws Exception {
+                Thread.sleep(1000L);
+            }
+        };
+        TestHttpServer server = new TestHttpServer(new Responder[] { ok, ok, ok, hang });
+        server.start();
+        try {
+            ProbeTimeouts timeouts = new ProbeTimeouts();
+            OssEndpointTimeSync sync = new OssEndpointTimeSync(TimeSource.SYSTEM, timeouts);
+            int i;
+            for (i = 0; i < 3; i++) {
+                Assert.assertTrue(sync.sync(new URI(server.url()), new RealTimeClock()).isSuccess());
+            }
+            String key = ProbeTimeouts.keyOf(new URL(server.url()));
+            Assert.assertEquals(100, timeouts.readTimeoutMillis(key));
+
+            long t0 = System.nanoTime();
+            OssEndpointTimeSync.SyncResult result = sync.sync(new URI(server.url()), new RealTimeClock());
+            long elapsedMillis = (System.nanoTime() - t0) / 1000000L;
+            Assert.assertFalse(result.isSuccess());
+            // HEAD gave up after 100 ms and GET after 200 ms, instead of a second each with the old fixed timeouts.
+            Assert.assertTrue(String.valueOf(elapsedMillis), elapsedMillis < 900L);
+            Assert.assertEquals(400, timeouts.readTimeoutMillis(key));
+        } finally {
+            server.close();
+        }
+    }
+
     @Test
     public void testSyncUsesInsecureHttpsByDefault() throws Exception {
         final long serverTime = System.currentTimeMillis() + 5000L;
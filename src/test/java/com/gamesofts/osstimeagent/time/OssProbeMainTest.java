@@ -0,0 +1,42 @@
+package com.gamesofts.osstimeagent.time;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Random;
+
+public class OssProbeMainTest {
+    @Test
+    public void testProbeAgainstLocalServerBoundsTheSkew() throws Exception {
+        LocalDateServer server = new LocalDateServer(5000L, 0L);
+        server.start();
+        try {
+            OssProbeMain.Report r = OssProbeMain.probe(new URI(server.endpoint()), 3, 0L, new Random(1L));
+            Assert.assertEquals(0, r.failed);
+            Assert.assertEquals(Integer.valueOf(3), r.methods.get("HEAD"));
+            Assert.assertEquals(3, r.connectMicros.size());
+            Assert.assertEquals(0, r.tlsMicros.size());
+            // The true skew lies in every per-probe bound, so also in their intersection.
+            Assert.assertTrue(r.boundLo <= 5000L && 5000L <= r.boundHi);
+            // The engine ignores the sub-second part of Date: its estimate is up to a second low.
+            long p50 = r.offsetMillis.percentile(0.5);
+            Assert.assertTrue(String.valueOf(p50), p50 > 3900L && p50 <= 5100L);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testUnreachableEndpointIsReportedAsFailure() throws Exception {
+        ServerSocket s = new ServerSocket(0);
+        int port = s.getLocalPort();
+        s.close();
+        OssProbeMain.Report r = OssProbeMain.probe(new URI("http://127.0.0.1:" + port), 2, 0L, new Random(1L));
+        Assert.assertEquals(2, r.failed);
+        Assert.assertEquals(0, r.rttMillis.size());
+        Assert.assertFalse(r.failures.isEmpty());
+        Assert.assertFalse(r.handshakeFailures.isEmpty());
+    }
+}
@@ -0,0 +1,70 @@
+package com.gamesofts.osstimeagent.time;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URL;
+
+public class ProbeTimeoutsTest {
+    @Test
+    public void testTimeoutsFollowTheRollingP90WithinBounds() {
+        ProbeTimeouts t = new ProbeTimeouts();
+        Assert.assertEquals(ProbeTimeouts.DEFAULT_TIMEOUT_MS, t.connectTimeoutMillis("fast"));
+        t.recordConnect("fast", 1L);
+        t.recordConnect("fast", 2L);
+        Assert.assertEquals("too few samples", ProbeTimeouts.DEFAULT_TIMEOUT_MS, t.connectTimeoutMillis("fast"));
+        t.recordConnect("fast", 2L);
+        Assert.assertEquals("floor", 100, t.connectTimeoutMillis("fast"));
+        Assert.assertEquals("read window is separate", ProbeTimeouts.DEFAULT_TIMEOUT_MS, t.readTimeoutMillis("fast"));
+
+        int i;
+        for (i = 0; i < 40; i++) {
+            t.recordRead("slow", i < 36 ? 200L : 5000L);
+        }
+        // The last 32 samples are 28 x 200 and 4 x 5000: p90 is 5000, clamped to the ceiling.
+        Assert.assertEquals(10000, t.readTimeoutMillis("slow"));
+        for (i = 0; i < ProbeTimeouts.WINDOW; i++) {
+            t.recordRead("slow", 300L);
+        }
+        Assert.assertEquals(4 * 300, t.readTimeoutMillis("slow"));
+
+        t.setBounds(500, 800);
+        Assert.assertEquals(500, t.connectTimeoutMillis("fast"));
+        Assert.assertEquals(800, t.readTimeoutMillis("slow"));
+    }
+
+    @Test
+    public void testTimeoutBacksOffUntilThePhaseSucceeds() {
+        ProbeTimeouts t = new ProbeTimeouts();
+        int i;
+        for (i = 0; i < 5; i++) {
+            t.recordRead("e", 3L);
+        }
+        Assert.assertEquals(100, t.readTimeoutMillis("e"));
+        t.recordReadTimeout("e", 100);
+        Assert.assertEquals(200, t.readTimeoutMillis("e"));
+        t.recordReadTimeout("e", 200);
+        Assert.assertEquals(400, t.readTimeoutMillis("e"));
+        Assert.assertEquals(ProbeTimeouts.DEFAULT_TIMEOUT_MS, t.connectTimeoutMillis("e"));
+        t.recordRead("e", 250L);
+        Assert.assertEquals(4 * 250, t.readTimeoutMillis("e"));
+    }
+
+    @Test
+    public void testEndpointKeysAndCap() throws Exception {
+        Assert.assertEquals("https://oss-cn-hangzhou.aliyuncs.com:443",
+                ProbeTimeouts.keyOf(new URL("https://OSS-cn-hangzhou.aliyuncs.com/")));
+        Assert.assertEquals("http://127.0.0.1:8080", ProbeTimeouts.keyOf(new URL("http://127.0.0.1:8080")));
+
+        ProbeTimeouts t = new ProbeTimeouts();
+        int i;
+        for (i = 0; i < ProbeTimeouts.MAX_ENDPOINTS + 10; i++) {
+            t.recordConnect("e" + i, 1L);
+            t.recordConnect("e" + i, 1L);
+            t.recordConnect("e" + i, 1L);
+        }
+        Assert.assertEquals(100, t.connectTimeoutMillis("e0"));
+        Assert.assertEquals(ProbeTimeouts.DEFAULT_TIMEOUT_MS,
+                t.connectTimeoutMillis("e" + (ProbeTimeouts.MAX_ENDPOINTS + 5)));
+    }
+}
@@ -33,4 +33,65 @@ public class RealTimeClockTest {
         Assert.assertTrue(actual < now - (23L * 60L * 60L * 1000L));
         Assert.assertTrue(actual <= target + 1000L);
     }
+
+    @Test
+    public void testReaderInsideBaseUpdateSeesOldOrNewBaseNeverAMix() {
+        final HookedTimeSource t = new HookedTimeSource();
+        final RealTimeClock clock = new RealTimeClock(t);
+        t.nanos = 3600L * 1000000000L;
+        final long before = clock.currentTimeMillis();
+        final long[] seen = new long[8];
+        final int[] n = new int[1];
+        // Runs a read at every point where the writer touches the time source, i.e. mid-update.
+        t.hook = new Runnable() {
+            public void run() {
+                seen[n[0]++] = clock.currentTimeMillis();
+                t.hook = this;
+            }
+        };
+        clock.updateBaseTimeAuthoritative(5000L);
+        t.hook = null;
+        Assert.assertTrue(n[0] > 0);
+        int i;
+        for (i = 0; i < n[0]; i++) {
+            Assert.assertTrue("torn read " + seen[i], seen[i] == before || seen[i] == 5000L);
+        }
+        Assert.assertEquals(5000L, clock.currentTimeMillis());
+    }
+
+    @Test
+    public void testStaleReaderCannotUndoAuthoritativeBackwardStep() {
+        final HookedTimeSource t = new HookedTimeSource();
+        final RealTimeClock clock = new RealTimeClock(t);
+        t.nanos = 3600L * 1000000000L;
+        final long before = clock.currentTimeMillis();
+        // The reader has loaded the base when the writer steps the clock back; it then finishes with the old base.
+        t.hook = new Runnable() {
+            public void run() {
+                clock.updateBaseTimeAuthoritative(5000L);
+            }
+        };
+        long stale = clock.currentTimeMillis();
+        Assert.assertTrue(stale == before || stale == 5000L);
+        Assert.assertEquals(5000L, clock.currentTimeMillis());
+    }
+
+    // Fixed time; the hook runs once, on the next nanoTime() call after it is set.
+    private static final class HookedTimeSource implements TimeSource {
+        volatile long nanos;
+        volatile Runnable hook;
+
+        public long currentTimeMillis() {
+            return 1000L;
+        }
+
+        public long nanoTime() {
+            Runnable h = hook;
+            if (h != null) {
+                hook = null;
+                h.run();
+            }
+            return nanos;
+        }
+    }
 }
@@ -0,0 +1,57 @@
+package com.gamesofts.osstimeagent.time;
+
+// Virtual host clocks for simulations. True time only moves when advance() is called. The host oscillator runs
+// driftPpm fast (or slow) against it and drives both nanoTime and the wall clock; the wall clock additionally
+// carries whatever steps were applied to it, as NTP or an operator would.
+final class SimulatedTime implements TimeSource {
+    private final long epochMillis;
+    private double trueNanos;
+    private double localNanos;
+    private long wallStepMillis;
+    private double driftPpm;
+
+    SimulatedTime(long epochMillis) {
+        this.epochMillis = epochMillis;
+    }
+
+    public long currentTimeMillis() {
+        return epochMillis + (long) (localNanos / 1000000.0) + wallStepMillis;
+    }
+
+    public long nanoTime() {
+        // Arbitrary origin, like the real one.
+        return 987654321L + (long) localNanos;
+    }
+
+    long trueMillis() {
+        return epochMillis + (long) (trueNanos / 1000000.0);
+    }
+
+    void setDriftPpm(double ppm) {
+        this.driftPpm = ppm;
+    }
+
+    void advance(long millis) {
+        double nanos = millis * 1000000.0;
+        trueNanos += nanos;
+        localNanos += nanos * (1.0 + driftPpm / 1000000.0);
+    }
+
+    void stepWall(long deltaMillis) {
+        wallStepMillis += deltaMillis;
+    }
+
+    // The host is frozen for millis of true time. On resume the wall clock and the monotonic clock each either
+    // account for the gap (kvmclock, RTC re-read) or simply continue from where they stopped.
+    void suspend(long millis, boolean wallCatchesUp, boolean monotonicCatchesUp) {
+        trueNanos += millis * 1000000.0;
+        if (monotonicCatchesUp) {
+            localNanos += millis * 1000000.0;
+            if (!wallCatchesUp) {
+                wallStepMillis -= millis;
+            }
+        } else if (wallCatchesUp) {
+            wallStepMillis += millis;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.gamesofts.osstimeagent.util;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+public class AgentLogTest {
+    private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+    @After
+    public void tearDown() {
+        AgentLog.flush();
+        AgentLog.setOutputForTest(null);
+        AgentLog.setAsync(true);
+        AgentLog.setRateLimitMillis(10000L);
+    }
+
+    @Test
+    public void testRepeatedMessagesAreFoldedIntoSuppressedCount() throws Exception {
+        AgentLog.setOutputForTest(new PrintStream(captured, true, "UTF-8"));
+        AgentLog.setAsync(false);
+        AgentLog.setRateLimitMillis(60000L);
+
+        int i;
+        for (i = 0; i < 100; i++) {
+            AgentLog.warn("OSS endpoint pre-sync failed: https://oss:" + (8000 + i) + " (timeout)");
+        }
+        AgentLog.flush();
+
+        String text = captured.toString("UTF-8");
+        Assert.assertEquals(1, count(text, "WARN OSS endpoint pre-sync failed"));
+        Assert.assertTrue(text, text.contains("suppressed 99 similar messages: OSS endpoint pre-sync failed"));
+    }
+
+    @Test
+    public void testAsyncWriterDeliversDistinctMessages() throws Exception {
+        AgentLog.setOutputForTest(new PrintStream(captured, true, "UTF-8"));
+        AgentLog.setAsync(true);
+
+        AgentLog.info("first async message");
+        AgentLog.info("second async message");
+        AgentLog.flush();
+
+        // The writer thread may have taken an entry just before flush(); give it a moment to print it.
+        String text = captured.toString("UTF-8");
+        long deadline = System.currentTimeMillis() + 2000L;
+        while (!text.contains("second async message") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+            text = captured.toString("UTF-8");
+        }
+        Assert.assertTrue(text, text.contains("INFO first async message"));
+        Assert.assertTrue(text, text.contains("INFO second async message"));
+    }
+
+    @Test
+    public void testRateLimiterReopensAfterWindow() {
+        LogRateLimiter limiter = new LogRateLimiter(1000L);
+        int key = LogRateLimiter.keyHash("WARN", "x");
+
+        Assert.assertEquals(0L, limiter.acquire(key, "WARN", "x", 10000L));
+        Assert.assertEquals(-1L, limiter.acquire(key, "WARN", "x", 10500L));
+        Assert.assertEquals(-1L, limiter.acquire(key, "WARN", "x", 10900L));
+        Assert.assertEquals(2L, limiter.acquire(key, "WARN", "x", 11000L));
+        Assert.assertEquals(LogRateLimiter.keyHash("WARN", "port 1"), LogRateLimiter.keyHash("WARN", "port 22"));
+    }
+
+    @Test
+    public void testSummaryNamesLastSuppressedMessageAndInfoIsNotLimited() throws Exception {
+        AgentLog.setOutputForTest(new PrintStream(captured, true, "UTF-8"));
+        AgentLog.setAsync(false);
+        AgentLog.setRateLimitMillis(60000L);
+
+        AgentLog.info("OSS config tickOffset updated (from pre-sync): 0ms");
+        AgentLog.info("OSS config tickOffset updated (from pre-sync): -86400000ms");
+        AgentLog.warn("sync failed after 10ms");
+        AgentLog.warn("sync failed after 20ms");
+        AgentLog.warn("sync failed after 30ms");
+        AgentLog.flush();
+
+        String text = captured.toString("UTF-8");
+        Assert.assertTrue(text, text.contains("INFO OSS config tickOffset updated (from pre-sync): 0ms"));
+        Assert.assertTrue(text, text.contains("INFO OSS config tickOffset updated (from pre-sync): -86400000ms"));
+        Assert.assertTrue(text, text.contains("WARN sync failed after 10ms"));
+        Assert.assertTrue(text, text.contains("suppressed 2 similar messages: sync failed after 30ms"));
+    }
+
+    @Test
+    public void testCollidingKeysDoNotShareABudget() {
+        LogRateLimiter limiter = new LogRateLimiter(1000L);
+        int slot = LogRateLimiter.keyHash("WARN", "a") & (LogRateLimiter.SLOTS - 1);
+
+        Assert.assertEquals(0L, limiter.acquire(slot, "WARN", "a", 10000L));
+        Assert.assertEquals(0L, limiter.acquire(slot, "WARN", "unrelated", 10100L));
+        Assert.assertEquals(0L, limiter.acquire(slot, "DEBUG", "a", 10200L));
+        Assert.assertEquals(-1L, limiter.acquire(slot, "WARN", "a", 10300L));
+        Assert.assertEquals("a", limiter.takeLastSuppressed(slot));
+        Assert.assertTrue(LogRateLimiter.sameKey("port 1 up", "port 22 up"));
+        Assert.assertFalse(LogRateLimiter.sameKey("port 1 up", "port 1 down"));
+    }
+
+    private static int count(String text, String needle) {
+        int n = 0;
+        int from = 0;
+        for (;;) {
+            int i = text.indexOf(needle, from);
+            if (i < 0) {
+                return n;
+            }
+            n++;
+            from = i + needle.length();
+        }
+    }
+}